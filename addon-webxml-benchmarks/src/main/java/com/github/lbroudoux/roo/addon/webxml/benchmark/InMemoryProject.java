@@ -0,0 +1,125 @@
+package com.github.lbroudoux.roo.addon.webxml.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.springframework.roo.file.monitor.event.FileDetails;
+import org.springframework.roo.process.manager.CommandCallback;
+import org.springframework.roo.process.manager.FileManager;
+import org.springframework.roo.process.manager.MutableFile;
+import org.springframework.roo.process.manager.ProcessManager;
+import org.springframework.roo.project.PathResolver;
+
+import com.github.lbroudoux.roo.addon.webxml.WebxmlOperationsImpl;
+
+/**
+ * In-memory stand-in for the Roo services used by {@link WebxmlOperationsImpl}: a single web.xml
+ * file held in a byte array behind {@link FileManager} and {@link PathResolver} proxies, and a
+ * {@link ProcessManager} proxy running callbacks straight away, so that benchmarks run offline and
+ * without a Roo shell.
+ */
+public class InMemoryProject {
+
+    static final String WEB_XML_PATH = new File("virtual/src/main/webapp/WEB-INF/web.xml").getAbsolutePath();
+
+    private byte[] webXml;
+    private long lastModified = 1;
+    private int writes;
+
+    public InMemoryProject(byte[] webXml) {
+        this.webXml = webXml;
+    }
+
+    /**
+     * Create operations wired to this in-memory project, with an empty document cache
+     */
+    public WebxmlOperationsImpl newOperations() {
+        final WebxmlOperationsImpl operations = new WebxmlOperationsImpl();
+        inject(operations, "fileManager", proxy(FileManager.class, new FileManagerHandler()));
+        inject(operations, "pathResolver", proxy(PathResolver.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return "getFocusedIdentifier".equals(method.getName()) ? WEB_XML_PATH : defaultValue(method);
+            }
+        }));
+        inject(operations, "processManager", proxy(ProcessManager.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+                return "execute".equals(method.getName()) ? ((CommandCallback<?>) args[0]).callback() : defaultValue(method);
+            }
+        }));
+        return operations;
+    }
+
+    public void reset(byte[] webXml) {
+        this.webXml = webXml;
+        lastModified++;
+    }
+
+    public byte[] getWebXml() {
+        return webXml;
+    }
+
+    public int getWrites() {
+        return writes;
+    }
+
+    private class FileManagerHandler implements InvocationHandler {
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            final String name = method.getName();
+            if ("exists".equals(name)) {
+                return WEB_XML_PATH.equals(args[0]);
+            } else if ("getInputStream".equals(name)) {
+                return new ByteArrayInputStream(webXml);
+            } else if ("readFile".equals(name)) {
+                return new FileDetails(new File((String) args[0]), lastModified);
+            } else if ("updateFile".equals(name)) {
+                return proxy(MutableFile.class, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("getOutputStream".equals(method.getName())) {
+                            return new ByteArrayOutputStream() {
+                                public void close() {
+                                    webXml = toByteArray();
+                                    lastModified++;
+                                    writes++;
+                                }
+                            };
+                        }
+                        return defaultValue(method);
+                    }
+                });
+            }
+            return defaultValue(method);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(InMemoryProject.class.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+
+    private static Object defaultValue(Method method) {
+        final Class<?> returnType = method.getReturnType();
+        if (returnType == boolean.class) {
+            return Boolean.FALSE;
+        } else if (returnType == int.class) {
+            return 0;
+        } else if (returnType == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    private static void inject(Object target, String fieldName, Object value) {
+        try {
+            final Field field = target.getClass().getDeclaredField(fieldName);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to inject " + fieldName, e);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.github.lbroudoux.roo.addon.webxml.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.lbroudoux.roo.addon.webxml.WebxmlEntry;
+import com.github.lbroudoux.roo.addon.webxml.WebxmlOperationsImpl;
+
+/**
+ * Benchmarks of the parse, lookup, insert and write paths of {@link WebxmlOperationsImpl} on
+ * synthetic descriptors made of the test application web.xml plus <code>entries</code> servlets,
+ * context params and env entries.
+ * <p>
+ * "cold" benchmarks use operations with an empty document cache, so they pay for the parse of
+ * web.xml; "warm" ones reuse the cached document as consecutive shell commands would. Warm
+ * benchmarks start every call from the synthesized descriptor so that its size stays the measured
+ * parameter rather than growing with the number of calls.
+ * <p>
+ * Run with <code>mvn package &amp;&amp; java -jar target/benchmarks.jar</code> from this module directory,
+ * the base fixture can be changed through the <code>webxml.fixture</code> system property.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebxmlOperationsBenchmark {
+
+    private static final String DEFAULT_FIXTURE = "../addon-webxml-test/src/main/webapp/WEB-INF/web.xml";
+
+    @Param({ "10", "100", "1000", "10000" })
+    public int entries;
+
+    private byte[] descriptor;
+    private InMemoryProject project;
+
+    @Setup
+    public void setUp() throws IOException {
+        Logger.getLogger(WebxmlOperationsImpl.class.getName()).setLevel(java.util.logging.Level.WARNING);
+        descriptor = synthesize(readFixture(), entries);
+        project = new InMemoryProject(descriptor);
+    }
+
+    /**
+     * Project of the warm benchmarks: reset to the synthesized descriptor before each call, then
+     * read once by the operations so that the call finds the document cached.
+     */
+    @State(Scope.Thread)
+    public static class WarmProject {
+
+        private InMemoryProject project;
+        private WebxmlOperationsImpl operations;
+
+        @Setup(Level.Invocation)
+        public void reset(WebxmlOperationsBenchmark benchmark) {
+            if (project == null) {
+                project = new InMemoryProject(benchmark.descriptor);
+                operations = project.newOperations();
+            } else {
+                project.reset(benchmark.descriptor);
+            }
+            // Re-declaring an existing param parses and caches the document without writing it.
+            operations.addContextParam("param0", "value0", null);
+            operations.flush();
+        }
+    }
+
+    @Benchmark
+    public WebxmlOperationsImpl parseAndLookupCold() {
+        // Re-declaring an existing param: parse, lookup and no-op detection, no write.
+        project.reset(descriptor);
+        final WebxmlOperationsImpl operations = project.newOperations();
+        operations.addContextParam("param" + (entries - 1), "value" + (entries - 1), null);
+        operations.flush();
+        return operations;
+    }
+
+    @Benchmark
+    public byte[] addServletCold() {
+        project.reset(descriptor);
+        final WebxmlOperationsImpl operations = project.newOperations();
+        operations.addServlet("newServlet", "com.example.NewServlet", "/new/*", 1, null, "New servlet");
+        operations.flush();
+        return project.getWebXml();
+    }
+
+    @Benchmark
+    public byte[] addContextParamCold() {
+        project.reset(descriptor);
+        final WebxmlOperationsImpl operations = project.newOperations();
+        operations.addContextParam("newParam", "newValue", "New param");
+        operations.flush();
+        return project.getWebXml();
+    }
+
+    @Benchmark
+    public byte[] addEnvironmentEntryCold() {
+        project.reset(descriptor);
+        final WebxmlOperationsImpl operations = project.newOperations();
+        operations.addEnvironmentEntry("newEntry", "java.lang.String", "newValue", "New entry");
+        operations.flush();
+        return project.getWebXml();
+    }
+
+    @Benchmark
+    public byte[] addServletWarm(WarmProject warm) {
+        warm.operations.addServlet("warmServlet", "com.example.WarmServlet", "/warm/*", null, null, null);
+        warm.operations.flush();
+        return warm.project.getWebXml();
+    }
+
+    @Benchmark
+    public byte[] addContextParamWarm(WarmProject warm) {
+        warm.operations.addContextParam("warmParam", "warmValue", null);
+        warm.operations.flush();
+        return warm.project.getWebXml();
+    }
+
+    @Benchmark
+    public byte[] addEnvironmentEntryWarm(WarmProject warm) {
+        warm.operations.addEnvironmentEntry("warmEntry", "java.lang.Integer", "1", null);
+        warm.operations.flush();
+        return warm.project.getWebXml();
+    }
+
+    @Benchmark
+    public byte[] batchOfHundredCold() {
+        project.reset(descriptor);
+        final WebxmlOperationsImpl operations = project.newOperations();
+        operations.beginBatch();
+        for (int i = 0; i < 100; i++) {
+            operations.addContextParam("batchParam" + i, "batchValue" + i, null);
+        }
+        operations.commitBatch();
+        return project.getWebXml();
+    }
+
+    @Benchmark
+    public WebxmlEntry showLastStreaming() {
+        project.reset(descriptor);
+        return project.newOperations().findEntry("entry" + (entries - 1));
+    }
+
+    private static byte[] readFixture() throws IOException {
+        final InputStream inputStream = new FileInputStream(new File(System.getProperty("webxml.fixture", DEFAULT_FIXTURE)));
+        try {
+            final ByteArrayOutputStream content = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                content.write(buffer, 0, read);
+            }
+            return content.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Add the given number of context params, servlets with their mapping and env entries to the
+     * base fixture, each at the place the add-on itself would insert them.
+     */
+    static byte[] synthesize(byte[] fixture, int entries) throws IOException {
+        final StringBuilder params = new StringBuilder();
+        final StringBuilder servlets = new StringBuilder();
+        final StringBuilder mappings = new StringBuilder();
+        final StringBuilder envEntries = new StringBuilder();
+        for (int i = 0; i < entries; i++) {
+            params.append("    <context-param>\n        <param-name>param").append(i)
+                    .append("</param-name>\n        <param-value>value").append(i).append("</param-value>\n    </context-param>\n");
+            servlets.append("    <servlet>\n        <servlet-name>servlet").append(i)
+                    .append("</servlet-name>\n        <servlet-class>com.example.Servlet").append(i)
+                    .append("</servlet-class>\n    </servlet>\n");
+            mappings.append("    <servlet-mapping>\n        <servlet-name>servlet").append(i)
+                    .append("</servlet-name>\n        <url-pattern>/servlet").append(i).append("/*</url-pattern>\n    </servlet-mapping>\n");
+            envEntries.append("    <env-entry>\n        <env-entry-name>entry").append(i)
+                    .append("</env-entry-name>\n        <env-entry-type>java.lang.String</env-entry-type>\n        <env-entry-value>value")
+                    .append(i).append("</env-entry-value>\n    </env-entry>\n");
+        }
+        String content = new String(fixture, "UTF-8");
+        content = insertBefore(content, "    <filter>", params);
+        content = insertBefore(content, "    <servlet-mapping>", servlets);
+        content = insertBefore(content, "    <session-config>", mappings);
+        content = insertBefore(content, "</web-app>", envEntries);
+        return content.getBytes("UTF-8");
+    }
+
+    private static String insertBefore(String content, String marker, CharSequence inserted) {
+        final int index = content.indexOf(marker);
+        if (index < 0) {
+            throw new IllegalStateException("Fixture has no '" + marker.trim() + "'");
+        }
+        return content.substring(0, index) + inserted + content.substring(index);
+    }
+}
@@ -6,12 +6,36 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 /**
- * Trigger annotation for this add-on.
- 
+ * Trigger annotation for this add-on: declares the annotated servlet class into web.xml.
+
  * @since 1.1
  */
 @Target(ElementType.TYPE)
 @Retention(RetentionPolicy.SOURCE)
 public @interface RooWebxml {
-}
 
+    /**
+     * @return the servlet-name, defaults to the uncapitalized simple name of the annotated type
+     */
+    String servletName() default "";
+
+    /**
+     * @return the url-patterns of the servlet, defaults to "/" followed by the servlet name and "/*"
+     */
+    String[] mappings() default {};
+
+    /**
+     * @return the init-params of the servlet as "name=value" strings
+     */
+    String[] initParams() default {};
+
+    /**
+     * @return the load-on-startup value, a negative value to omit it
+     */
+    int loadOnStartup() default -1;
+
+    /**
+     * @return true if the servlet supports asynchronous processing (requires web-app 3.0)
+     */
+    boolean async() default false;
+}
@@ -0,0 +1,46 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import org.springframework.roo.classpath.PhysicalTypeMetadata;
+import org.springframework.roo.classpath.details.annotations.populator.AbstractAnnotationValues;
+import org.springframework.roo.classpath.details.annotations.populator.AutoPopulate;
+import org.springframework.roo.classpath.details.annotations.populator.AutoPopulationUtils;
+import org.springframework.roo.model.JavaType;
+
+/**
+ * The values of a {@link RooWebxml} annotation.
+ *
+ * @since 0.1.1
+ */
+public class WebxmlAnnotationValues extends AbstractAnnotationValues {
+
+    @AutoPopulate private String servletName = "";
+    @AutoPopulate private String[] mappings = {};
+    @AutoPopulate private String[] initParams = {};
+    @AutoPopulate private int loadOnStartup = -1;
+    @AutoPopulate private boolean async = false;
+
+    public WebxmlAnnotationValues(PhysicalTypeMetadata governorPhysicalTypeMetadata) {
+        super(governorPhysicalTypeMetadata, new JavaType(RooWebxml.class.getName()));
+        AutoPopulationUtils.populate(this, annotationMetadata);
+    }
+
+    public String getServletName() {
+        return servletName;
+    }
+
+    public String[] getMappings() {
+        return mappings;
+    }
+
+    public String[] getInitParams() {
+        return initParams;
+    }
+
+    public int getLoadOnStartup() {
+        return loadOnStartup;
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+}
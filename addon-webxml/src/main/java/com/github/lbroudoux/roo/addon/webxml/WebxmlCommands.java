@@ -1,5 +1,12 @@
 package com.github.lbroudoux.roo.addon.webxml;
 
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
@@ -43,26 +50,246 @@ public class WebxmlCommands implements CommandMarker { // All command types must
     }
  
     @CliCommand(value = "webxml add-servlet", help = "Add a new servlet definition to web.xml")
-    public void addServlet(@CliOption(key = "name", mandatory = true, help = "The servlet-name web.xml tag value") String name, 
-          @CliOption(key = "class", mandatory = true, help = "The servlet-class web.xml tag value") String clazz,
-          @CliOption(key = "mapping", mandatory = true, help = "The servlet mapping url-pattern web.xml tag value") String mapping,
-          @CliOption(key = "loading", mandatory = false, help = "The value for load-on-startup web.xml tag") Integer loading,
-          @CliOption(key = "comment", mandatory = false, help = "A xml comment to add into web.xml for this servlet") String comment){
-       operations.addServlet(name, clazz, mapping, loading, comment);
+    public String addServlet(@CliOption(key = "name", mandatory = true, help = "The servlet-name web.xml tag value") final String name, 
+          @CliOption(key = "class", mandatory = true, help = "The servlet-class web.xml tag value") final String clazz,
+          @CliOption(key = "mapping", mandatory = true, help = "The servlet mapping url-pattern web.xml tag value") final String mapping,
+          @CliOption(key = "loading", mandatory = false, help = "The value for load-on-startup web.xml tag") final Integer loading,
+          @CliOption(key = "async", mandatory = false, specifiedDefaultValue = "true", help = "The value for async-supported web.xml tag (requires web-app 3.0)") final Boolean async,
+          @CliOption(key = "comment", mandatory = false, help = "A xml comment to add into web.xml for this servlet") final String comment,
+          @CliOption(key = "modules", mandatory = false, help = "Comma separated globs of the modules to apply this to, or all, instead of the focused module") final String modules){
+       return inModules(modules, new Runnable() {
+          public void run() {
+             operations.addServlet(name, clazz, mapping, loading, async, comment);
+          }
+       });
+    }
+    
+    @CliCommand(value = "webxml add-filter", help = "Add a new filter definition and its mapping to web.xml")
+    public String addFilter(@CliOption(key = "name", mandatory = true, help = "The filter-name web.xml tag value") final String name, 
+          @CliOption(key = "class", mandatory = true, help = "The filter-class web.xml tag value") final String clazz,
+          @CliOption(key = "mapping", mandatory = false, help = "The filter mapping url-pattern web.xml tag value") final String mapping,
+          @CliOption(key = "servletName", mandatory = false, help = "The filter mapping servlet-name web.xml tag value") final String servletName,
+          @CliOption(key = "dispatchers", mandatory = false, help = "Comma separated dispatcher types of the mapping: REQUEST, FORWARD, INCLUDE, ERROR, ASYNC") final String dispatchers,
+          @CliOption(key = "async", mandatory = false, specifiedDefaultValue = "true", help = "The value for async-supported web.xml tag (requires web-app 3.0)") final Boolean async,
+          @CliOption(key = "comment", mandatory = false, help = "A xml comment to add into web.xml for this filter") final String comment,
+          @CliOption(key = "modules", mandatory = false, help = "Comma separated globs of the modules to apply this to, or all, instead of the focused module") final String modules){
+       final List<String> dispatcherTypes = dispatchers == null ? null 
+             : Arrays.asList(StringUtils.stripAll(StringUtils.split(dispatchers.toUpperCase(), ",")));
+       return inModules(modules, new Runnable() {
+          public void run() {
+             operations.addFilter(name, clazz, mapping, servletName, dispatcherTypes, async, comment);
+          }
+       });
     }
     
     @CliCommand(value = "webxml add-context-param", help = "Add a new context parameter to web.xml")
-    public void addContextParam(@CliOption(key = "name", mandatory = true, help = "The param-name web.xml tag value") String name, 
-          @CliOption(key = "value", mandatory = true, help = "The param-value web.xml tag value") String value,
-          @CliOption(key = "comment", mandatory = false, help = "A xml comment to add into web.xml for this param") String comment){
-       operations.addContextParam(name, value, comment);
+    public String addContextParam(@CliOption(key = "name", mandatory = true, help = "The param-name web.xml tag value") final String name, 
+          @CliOption(key = "value", mandatory = true, help = "The param-value web.xml tag value") final String value,
+          @CliOption(key = "comment", mandatory = false, help = "A xml comment to add into web.xml for this param") final String comment,
+          @CliOption(key = "modules", mandatory = false, help = "Comma separated globs of the modules to apply this to, or all, instead of the focused module") final String modules){
+       return inModules(modules, new Runnable() {
+          public void run() {
+             operations.addContextParam(name, value, comment);
+          }
+       });
     }
     
     @CliCommand(value = "webxml add-env-entry", help = "Add an environment entry to web.xml")
-    public void addEnvEntry(@CliOption(key = "name", mandatory = true, help = "The env-entry-name web.xml tag value") String name,
-          @CliOption(key = "type", mandatory = true, help = "The env-entry-type web.xml tag value (must be valid value defined by JEE reference") String type,
-          @CliOption(key = "value", mandatory = true, help = "The env-entry-value web.xml tag value") String value,
-          @CliOption(key = "comment", mandatory = false, help = "A xml comment to add into web.xml for this entry") String comment){
-       operations.addEnvironmentEntry(name, type, value, comment);
+    public String addEnvEntry(@CliOption(key = "name", mandatory = true, help = "The env-entry-name web.xml tag value") final String name,
+          @CliOption(key = "type", mandatory = true, help = "The env-entry-type web.xml tag value (must be valid value defined by JEE reference") final String type,
+          @CliOption(key = "value", mandatory = true, help = "The env-entry-value web.xml tag value") final String value,
+          @CliOption(key = "comment", mandatory = false, help = "A xml comment to add into web.xml for this entry") final String comment,
+          @CliOption(key = "modules", mandatory = false, help = "Comma separated globs of the modules to apply this to, or all, instead of the focused module") final String modules){
+       return inModules(modules, new Runnable() {
+          public void run() {
+             operations.addEnvironmentEntry(name, type, value, comment);
+          }
+       });
+    }
+    
+    @CliCommand(value = "webxml add-resource-ref", help = "Add a reference to a container-managed connection factory, e.g. a pooled DataSource, to web.xml")
+    public String addResourceRef(@CliOption(key = "name", mandatory = true, help = "The res-ref-name web.xml tag value, e.g. jdbc/MyDataSource") final String name,
+          @CliOption(key = "type", mandatory = true, help = "The res-type web.xml tag value, e.g. javax.sql.DataSource or javax.jms.ConnectionFactory") final String type,
+          @CliOption(key = "auth", mandatory = false, unspecifiedDefaultValue = "Container", help = "The res-auth web.xml tag value: Container or Application") final String auth,
+          @CliOption(key = "sharingScope", mandatory = false, help = "The res-sharing-scope web.xml tag value: Shareable or Unshareable") final String sharingScope,
+          @CliOption(key = "comment", mandatory = false, help = "A xml comment to add into web.xml for this reference") final String comment,
+          @CliOption(key = "modules", mandatory = false, help = "Comma separated globs of the modules to apply this to, or all, instead of the focused module") final String modules){
+       return inModules(modules, new Runnable() {
+          public void run() {
+             operations.addResourceReference(name, type, auth, sharingScope, comment);
+          }
+       });
+    }
+    
+    @CliCommand(value = "webxml add-resource-env-ref", help = "Add a reference to a container-managed administered object, e.g. a JMS queue, to web.xml")
+    public String addResourceEnvRef(@CliOption(key = "name", mandatory = true, help = "The resource-env-ref-name web.xml tag value, e.g. jms/MyQueue") final String name,
+          @CliOption(key = "type", mandatory = true, help = "The resource-env-ref-type web.xml tag value, e.g. javax.jms.Queue") final String type,
+          @CliOption(key = "comment", mandatory = false, help = "A xml comment to add into web.xml for this reference") final String comment,
+          @CliOption(key = "modules", mandatory = false, help = "Comma separated globs of the modules to apply this to, or all, instead of the focused module") final String modules){
+       return inModules(modules, new Runnable() {
+          public void run() {
+             operations.addResourceEnvironmentReference(name, type, comment);
+          }
+       });
+    }
+    
+    @CliCommand(value = "webxml tune-startup", help = "Set metadata-complete and an explicit absolute-ordering into web.xml so that the container skips annotations and web-fragments scanning at startup")
+    public void tuneStartup(@CliOption(key = "version", mandatory = false, unspecifiedDefaultValue = "3.0", help = "The web-app version to upgrade web.xml to if it is lower (3.0 or 3.1)") String version,
+          @CliOption(key = "fragments", mandatory = false, help = "Comma separated names of the web-fragments to keep, defaults to the named fragments found into project dependencies") String fragments,
+          @CliOption(key = "others", mandatory = false, unspecifiedDefaultValue = "false", specifiedDefaultValue = "true", help = "Keep processing unlisted jars after the listed fragments. Without it, unlisted jars are excluded along with their ServletContainerInitializers") boolean others){
+       operations.tuneStartup(version, fragments == null ? null : Arrays.asList(StringUtils.stripAll(StringUtils.split(fragments, ","))), others);
+    }
+    
+    @CliCommand(value = "webxml add-static-caching", help = "Add caching and gzip filters and mime-mappings so that static resources are cached by browsers and compressed")
+    public String addStaticCaching(@CliOption(key = "extensions", mandatory = false, help = "Comma separated static resource extensions, defaults to css, js, svg, png, gif, jpg, ico and woff") final String extensions,
+          @CliOption(key = "maxAge", mandatory = false, unspecifiedDefaultValue = "604800", help = "The Cache-Control max-age in seconds, one week by default") final int maxAge,
+          @CliOption(key = "gzip", mandatory = false, unspecifiedDefaultValue = "true", help = "Whether to compress css, js and svg resources, adding a dependency on " + WebxmlOperationsImpl.GZIP_FILTER_GROUP_ID + ":" + WebxmlOperationsImpl.GZIP_FILTER_ARTIFACT_ID + ":" + WebxmlOperationsImpl.GZIP_FILTER_VERSION) final boolean gzip,
+          @CliOption(key = "filter", mandatory = false, unspecifiedDefaultValue = "~.web.StaticCachingFilter", help = "The caching filter class to generate if it does not exist yet") final JavaType cachingFilter,
+          @CliOption(key = "modules", mandatory = false, help = "Comma separated globs of the modules to apply this to, or all, instead of the focused module") final String modules){
+       final List<String> staticExtensions = extensions == null ? null 
+             : Arrays.asList(StringUtils.stripAll(StringUtils.split(extensions.toLowerCase(), ",")));
+       return inModules(modules, new Runnable() {
+          public void run() {
+             operations.addStaticCaching(staticExtensions, maxAge, gzip, cachingFilter);
+          }
+       });
+    }
+    
+    @CliCommand(value = "webxml session", help = "Configure HTTP sessions: timeout, tracking modes, session cookie and replication")
+    public void session(@CliOption(key = "timeout", mandatory = false, help = "The session-timeout in minutes") Integer timeout,
+          @CliOption(key = "trackingModes", mandatory = false, help = "Comma separated tracking modes among COOKIE, URL and SSL, e.g. COOKIE to disable URL rewriting (requires web-app 3.0)") String trackingModes,
+          @CliOption(key = "cookieName", mandatory = false, help = "The name of the session cookie (requires web-app 3.0)") String cookieName,
+          @CliOption(key = "httpOnly", mandatory = false, specifiedDefaultValue = "true", help = "Whether the session cookie is hidden from scripts (requires web-app 3.0)") Boolean httpOnly,
+          @CliOption(key = "secure", mandatory = false, specifiedDefaultValue = "true", help = "Whether the session cookie is only sent over HTTPS (requires web-app 3.0)") Boolean secure,
+          @CliOption(key = "distributable", mandatory = false, specifiedDefaultValue = "true", help = "Whether sessions may be replicated across cluster nodes") Boolean distributable){
+       operations.configureSession(timeout, 
+             trackingModes == null ? null : Arrays.asList(StringUtils.stripAll(StringUtils.split(trackingModes.toUpperCase(), ","))), 
+             cookieName, httpOnly, secure, distributable);
+    }
+    
+    @CliCommand(value = "webxml export-initializer", help = "Move servlets, filters, listeners and context params of web.xml into a generated ServletContainerInitializer")
+    public void exportInitializer(@CliOption(key = "class", mandatory = false, unspecifiedDefaultValue = "~.web.WebxmlInitializer", help = "The initializer class to generate") JavaType initializer){
+       operations.exportInitializer(initializer);
+    }
+    
+    @CliCommand(value = "webxml import", help = "Import servlets, context params and env entries declared into a manifest file")
+    public void importDeclarations(@CliOption(key = "file", mandatory = true, help = "The .properties, .csv or .xml manifest file to import") File file){
+       operations.importDeclarations(file);
+    }
+    
+    @CliCommand(value = "webxml list-servlets", help = "List the servlets declared into web.xml with their mappings")
+    public String listServlets(){
+       final StringBuilder result = new StringBuilder();
+       for (WebxmlEntry entry : operations.findEntries("servlet", "servlet-mapping")) {
+          if ("servlet".equals(entry.getElementName())) {
+             result.append("servlet ").append(entry.getName()).append(" : ").append(entry.getValue("servlet-class"));
+          } else {
+             result.append("servlet-mapping ").append(entry.getName()).append(" : ")
+                   .append(StringUtils.join(entry.getValues("url-pattern"), ", "));
+          }
+          result.append("\n");
+       }
+       return result.toString();
+    }
+    
+    @CliCommand(value = "webxml list-params", help = "List the context parameters, environment entries and resource references declared into web.xml")
+    public String listParams(){
+       final StringBuilder result = new StringBuilder();
+       for (WebxmlEntry entry : operations.findEntries("context-param", "env-entry", "resource-ref", "resource-env-ref")) {
+          if ("context-param".equals(entry.getElementName())) {
+             result.append("context-param ").append(entry.getName()).append(" = ").append(entry.getValue("param-value"));
+          } else if ("env-entry".equals(entry.getElementName())) {
+             result.append("env-entry ").append(entry.getName()).append(" (").append(entry.getValue("env-entry-type"))
+                   .append(") = ").append(entry.getValue("env-entry-value"));
+          } else if ("resource-ref".equals(entry.getElementName())) {
+             result.append("resource-ref ").append(entry.getName()).append(" (").append(entry.getValue("res-type"))
+                   .append(") auth ").append(entry.getValue("res-auth"));
+          } else {
+             result.append("resource-env-ref ").append(entry.getName()).append(" (")
+                   .append(entry.getValue("resource-env-ref-type")).append(")");
+          }
+          result.append("\n");
+       }
+       return result.toString();
+    }
+    
+    @CliCommand(value = "webxml show", help = "Show a declaration of web.xml given its name")
+    public String show(@CliOption(key = "name", mandatory = true, help = "The servlet, filter, param or entry name of the declaration") String name){
+       final WebxmlEntry entry = operations.findEntry(name);
+       if (entry == null) {
+          return "No declaration named '" + name + "' found in web.xml";
+       }
+       return entry.toString();
+    }
+    
+    @CliCommand(value = "webxml stats", help = "Show the time spent reading, changing and writing web.xml, with byte and node counts")
+    public String stats(@CliOption(key = "json", mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "Show the figures as JSON") boolean json,
+          @CliOption(key = "file", mandatory = false, help = "A file to dump the figures into as JSON, e.g. for a build pipeline") File file,
+          @CliOption(key = "reset", mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "Start figures over once shown") boolean reset){
+       final WebxmlStats stats = operations.getStats();
+       if (file != null) {
+          operations.writeStats(file);
+       }
+       if (reset) {
+          operations.resetStats();
+       }
+       return json ? stats.toJson() : stats.toString();
+    }
+    
+    @CliCommand(value = "webxml explain-url", help = "Show the servlet and the filter chain a request path is dispatched to")
+    public String explainUrl(@CliOption(key = "path", mandatory = false, help = "The request path relative to the context, e.g. /images/logo.png") String path,
+          @CliOption(key = "all", mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "Report the filter count of every mapping and static resource directory") boolean all){
+       if (!all) {
+          Validate.notBlank(path, "Either --path or --all is required");
+          return operations.explainUrl(path).toString();
+       }
+       final StringBuilder result = new StringBuilder();
+       for (WebxmlDispatch dispatch : operations.explainUrls()) {
+          result.append(StringUtils.leftPad(String.valueOf(dispatch.getFilterNames().size()), 3)).append(" filter(s) ")
+                .append(dispatch.getPath()).append(" -> ")
+                .append(dispatch.getServletName() == null ? "(container default servlet)" : dispatch.getServletName());
+          if (!dispatch.getFilterNames().isEmpty()) {
+             result.append(" : ").append(StringUtils.join(dispatch.getFilterNames(), ", "));
+          }
+          result.append("\n");
+       }
+       return result.toString();
+    }
+    
+    /**
+     * Run an operation against the focused module or, if modules are given, against each matching module
+     * 
+     * @return the outcome of the operation by module, or null for the focused module only
+     */
+    private String inModules(String modules, Runnable operation){
+       if (modules == null) {
+          operation.run();
+          return null;
+       }
+       final StringBuilder result = new StringBuilder();
+       for (Map.Entry<String, String> outcome : operations.forEachModule(modules, operation).entrySet()) {
+          result.append(StringUtils.defaultIfEmpty(outcome.getKey(), "(root)")).append(" : ").append(outcome.getValue()).append("\n");
+       }
+       return result.toString();
+    }
+    
+    @CliAvailabilityIndicator({ "webxml batch commit", "webxml batch rollback" })
+    public boolean isBatchActive() {
+       return operations.isBatchActive();
+    }
+    
+    @CliCommand(value = "webxml batch begin", help = "Start queuing web.xml declarations so that they are written at once on commit")
+    public void beginBatch(){
+       operations.beginBatch();
+    }
+    
+    @CliCommand(value = "webxml batch commit", help = "Write all the web.xml declarations queued since batch begin")
+    public void commitBatch(){
+       operations.commitBatch();
+    }
+    
+    @CliCommand(value = "webxml batch rollback", help = "Discard all the web.xml declarations queued since batch begin")
+    public void rollbackBatch(){
+       operations.rollbackBatch();
     }
 }
\ No newline at end of file
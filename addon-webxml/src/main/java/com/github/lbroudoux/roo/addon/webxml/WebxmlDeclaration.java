@@ -0,0 +1,57 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A declaration read from an import manifest: its kind ("servlet", "context-param" or
+ * "env-entry"), its name and its attributes (class, mapping, value, ...).
+ *
+ * @since 0.1.1
+ */
+final class WebxmlDeclaration {
+
+    private final String kind;
+    private final String name;
+    private final String location;
+    private final Map<String, String> attributes = new LinkedHashMap<String, String>();
+
+    /**
+     * @param kind the declaration kind, i.e. its top-level web.xml element name
+     * @param name the declaration name
+     * @param location where the declaration was read from, used in error messages
+     */
+    WebxmlDeclaration(String kind, String name, String location) {
+        this.kind = kind;
+        this.name = name;
+        this.location = location;
+    }
+
+    String getKind() {
+        return kind;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getLocation() {
+        return location;
+    }
+
+    String getAttribute(String attribute) {
+        return attributes.get(attribute);
+    }
+
+    void setAttribute(String attribute, String value) {
+        attributes.put(attribute, value);
+    }
+
+    Iterable<String> getAttributeNames() {
+        return attributes.keySet();
+    }
+
+    public String toString() {
+        return kind + " " + name;
+    }
+}
@@ -0,0 +1,66 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of dispatching a request path through the mappings of web.xml: the servlet
+ * the request ends on and the filters it passes through, in chain order.
+ *
+ * @since 0.1.1
+ */
+public class WebxmlDispatch {
+
+    private final String path;
+    private final String servletName;
+    private final String pattern;
+    private final List<String> filterNames;
+
+    WebxmlDispatch(String path, String servletName, String pattern, List<String> filterNames) {
+        this.path = path;
+        this.servletName = servletName;
+        this.pattern = pattern;
+        this.filterNames = Collections.unmodifiableList(filterNames);
+    }
+
+    /**
+     * @return the request path relative to the context, e.g. "/images/logo.png"
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the servlet the request is dispatched to or null if it is left to the container default servlet
+     */
+    public String getServletName() {
+        return servletName;
+    }
+
+    /**
+     * @return the servlet-mapping url-pattern that matched or null if none did
+     */
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * @return the names of the filters applied to the request, in chain order
+     */
+    public List<String> getFilterNames() {
+        return filterNames;
+    }
+
+    public String toString() {
+        final StringBuilder builder = new StringBuilder(path).append(" -> ");
+        if (servletName == null) {
+            builder.append("(container default servlet)");
+        } else {
+            builder.append(servletName).append(" [").append(pattern).append("]");
+        }
+        for (int i = 0; i < filterNames.size(); i++) {
+            builder.append("\n    ").append(i + 1).append(". ").append(filterNames.get(i));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,237 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Compiled form of the servlet-mapping and filter-mapping declarations of web.xml that
+ * resolves request paths the way a servlet container does: exact match first, then the
+ * longest path prefix, then the extension and finally the default servlet. Path prefixes
+ * are held into a trie keyed by path segment so that a lookup walks the path once whatever
+ * the number of mappings.
+ *
+ * @since 0.1.1
+ */
+class WebxmlDispatcher {
+
+    private static final String REQUEST = "REQUEST";
+
+    /** A node of the path prefix trie, i.e. the prefix made of the segments leading to it. */
+    private static class PrefixNode {
+        private final Map<String, PrefixNode> children = new HashMap<String, PrefixNode>();
+        private String servletName;
+        private String servletPattern;
+        private final List<Integer> filterMappings = new ArrayList<Integer>();
+
+        private PrefixNode child(String segment, boolean create) {
+            PrefixNode child = children.get(segment);
+            if (child == null && create) {
+                child = new PrefixNode();
+                children.put(segment, child);
+            }
+            return child;
+        }
+    }
+
+    private final Map<String, String> exactServlets = new HashMap<String, String>();
+    private final Map<String, String> extensionServlets = new HashMap<String, String>();
+    private final Set<String> servletPatterns = new LinkedHashSet<String>();
+    private String defaultServlet;
+
+    private final List<String> filterNames = new ArrayList<String>();
+    private final Map<String, List<Integer>> exactFilters = new HashMap<String, List<Integer>>();
+    private final Map<String, List<Integer>> extensionFilters = new HashMap<String, List<Integer>>();
+    private final Map<String, List<Integer>> servletFilters = new HashMap<String, List<Integer>>();
+
+    private final PrefixNode root = new PrefixNode();
+
+    /**
+     * @param entries the servlet-mapping and filter-mapping declarations in document order
+     */
+    WebxmlDispatcher(List<WebxmlEntry> entries) {
+        for (WebxmlEntry entry : entries) {
+            if ("servlet-mapping".equals(entry.getElementName())) {
+                for (String pattern : entry.getValues("url-pattern")) {
+                    addServletPattern(pattern.trim(), entry.getName());
+                }
+            } else if ("filter-mapping".equals(entry.getElementName()) && isRequestDispatched(entry)) {
+                final Integer mapping = Integer.valueOf(filterNames.size());
+                filterNames.add(entry.getName());
+                for (String pattern : entry.getValues("url-pattern")) {
+                    addFilterPattern(pattern.trim(), mapping);
+                }
+                for (String servletName : entry.getValues("servlet-name")) {
+                    addTo(servletFilters, servletName.trim(), mapping);
+                }
+            }
+        }
+    }
+
+    /**
+     * Resolve the servlet and filter chain of a request
+     *
+     * @param path a request path relative to the context, query string is ignored
+     * @return the dispatch outcome
+     */
+    WebxmlDispatch dispatch(String path) {
+        path = normalize(path);
+        final String extension = extensionOf(path);
+        final List<PrefixNode> prefixes = prefixesOf(path);
+
+        String servletName = exactServlets.get(path);
+        String pattern = servletName == null ? null : path;
+        for (int i = prefixes.size() - 1; servletName == null && i >= 0; i--) {
+            servletName = prefixes.get(i).servletName;
+            pattern = prefixes.get(i).servletPattern;
+        }
+        if (servletName == null && extension != null) {
+            servletName = extensionServlets.get(extension);
+            pattern = servletName == null ? null : "*." + extension;
+        }
+        if (servletName == null && defaultServlet != null) {
+            servletName = defaultServlet;
+            pattern = WebxmlUrlPatterns.DEFAULT;
+        }
+
+        // url-pattern mappings come first then servlet-name ones, each in document order.
+        final Set<Integer> byPattern = new TreeSet<Integer>();
+        addAll(byPattern, exactFilters.get(path));
+        for (PrefixNode prefix : prefixes) {
+            byPattern.addAll(prefix.filterMappings);
+        }
+        if (extension != null) {
+            addAll(byPattern, extensionFilters.get(extension));
+        }
+        final Set<Integer> byServlet = new TreeSet<Integer>();
+        addAll(byServlet, servletFilters.get("*"));
+        if (servletName != null) {
+            addAll(byServlet, servletFilters.get(servletName));
+        }
+        final Set<String> chain = new LinkedHashSet<String>();
+        for (Integer mapping : byPattern) {
+            chain.add(filterNames.get(mapping.intValue()));
+        }
+        for (Integer mapping : byServlet) {
+            chain.add(filterNames.get(mapping.intValue()));
+        }
+        return new WebxmlDispatch(path, servletName, pattern, new ArrayList<String>(chain));
+    }
+
+    /**
+     * @return a representative request path for each url-pattern of the mappings
+     */
+    Set<String> getSamplePaths() {
+        final Set<String> paths = new LinkedHashSet<String>();
+        for (String pattern : servletPatterns) {
+            paths.add(sampleOf(pattern));
+        }
+        return paths;
+    }
+
+    private void addServletPattern(String pattern, String servletName) {
+        if (!servletPatterns.add(pattern)) {
+            // The container rejects or ignores duplicates, first declaration wins here.
+            return;
+        }
+        if (WebxmlUrlPatterns.isPathPrefix(pattern)) {
+            final PrefixNode node = nodeOf(WebxmlUrlPatterns.prefixOf(pattern));
+            node.servletName = servletName;
+            node.servletPattern = pattern;
+        } else if (WebxmlUrlPatterns.isExtension(pattern)) {
+            extensionServlets.put(pattern.substring(2), servletName);
+        } else if (WebxmlUrlPatterns.DEFAULT.equals(pattern)) {
+            defaultServlet = servletName;
+        } else {
+            exactServlets.put(pattern.length() == 0 ? "/" : pattern, servletName);
+        }
+    }
+
+    private void addFilterPattern(String pattern, Integer mapping) {
+        if (WebxmlUrlPatterns.matchesAllPaths(pattern)) {
+            // The trie root is a prefix of every path.
+            root.filterMappings.add(mapping);
+        } else if (WebxmlUrlPatterns.isPathPrefix(pattern)) {
+            nodeOf(WebxmlUrlPatterns.prefixOf(pattern)).filterMappings.add(mapping);
+        } else if (WebxmlUrlPatterns.isExtension(pattern)) {
+            addTo(extensionFilters, pattern.substring(2), mapping);
+        } else {
+            addTo(exactFilters, pattern.length() == 0 ? "/" : pattern, mapping);
+        }
+    }
+
+    private PrefixNode nodeOf(String prefix) {
+        PrefixNode node = root;
+        for (String segment : StringUtils.split(prefix, "/")) {
+            node = node.child(segment, true);
+        }
+        return node;
+    }
+
+    /**
+     * @return the trie nodes matching the path, from the shortest prefix ("/*") to the longest
+     */
+    private List<PrefixNode> prefixesOf(String path) {
+        final List<PrefixNode> nodes = new ArrayList<PrefixNode>();
+        PrefixNode node = root;
+        nodes.add(node);
+        for (String segment : StringUtils.split(path, "/")) {
+            node = node.child(segment, false);
+            if (node == null) {
+                break;
+            }
+            nodes.add(node);
+        }
+        return nodes;
+    }
+
+    private static boolean isRequestDispatched(WebxmlEntry entry) {
+        final List<String> dispatchers = entry.getValues("dispatcher");
+        return dispatchers.isEmpty() || dispatchers.contains(REQUEST);
+    }
+
+    private static String normalize(String path) {
+        final int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        return path.startsWith("/") ? path : "/" + path;
+    }
+
+    private static String extensionOf(String path) {
+        final String lastSegment = path.substring(path.lastIndexOf('/') + 1);
+        final int dot = lastSegment.lastIndexOf('.');
+        return dot < 0 ? null : lastSegment.substring(dot + 1);
+    }
+
+    private static String sampleOf(String pattern) {
+        if (WebxmlUrlPatterns.isPathPrefix(pattern)) {
+            return WebxmlUrlPatterns.prefixOf(pattern) + "/index";
+        }
+        if (WebxmlUrlPatterns.isExtension(pattern)) {
+            return "/index" + pattern.substring(1);
+        }
+        return pattern.length() == 0 ? "/" : pattern;
+    }
+
+    private static void addTo(Map<String, List<Integer>> map, String key, Integer mapping) {
+        List<Integer> mappings = map.get(key);
+        if (mappings == null) {
+            mappings = new ArrayList<Integer>();
+            map.put(key, mappings);
+        }
+        mappings.add(mapping);
+    }
+
+    private static void addAll(Set<Integer> set, List<Integer> mappings) {
+        if (mappings != null) {
+            set.addAll(mappings);
+        }
+    }
+}
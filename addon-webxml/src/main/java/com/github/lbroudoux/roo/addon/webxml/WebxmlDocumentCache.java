@@ -0,0 +1,90 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.w3c.dom.Document;
+
+/**
+ * Cache of parsed web.xml documents keyed by file path. An entry is only served while the
+ * file on disk still has the last modification time and length it had when it was parsed
+ * or last written by this add-on, so that consecutive commands share the same tree.
+ *
+ * @since 0.1.1
+ */
+final class WebxmlDocumentCache {
+
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * Get the cached document for a path if it is still up to date
+     * 
+     * @param path the canonical path of web.xml (required)
+     * @param lastModified the current modification time of the file
+     * @param length the current length of the file
+     * @return the cached document or null if none or stale
+     */
+    synchronized Document get(String path, long lastModified, long length) {
+        final Entry entry = entries.get(path);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.matches(lastModified, length)) {
+            entries.remove(path);
+            return null;
+        }
+        return entry.document;
+    }
+
+    /**
+     * Store (or re-stamp after a write) the document parsed from a path
+     * 
+     * @param path the canonical path of web.xml (required)
+     * @param document the parsed document (required)
+     * @param lastModified the modification time of the file matching document
+     * @param length the length of the file matching document
+     */
+    synchronized void put(String path, Document document, long lastModified, long length) {
+        entries.put(path, new Entry(document, lastModified, length));
+    }
+
+    /**
+     * Notify the cache that a file has changed on disk. The entry for this path is evicted
+     * unless the change is the one this add-on has written itself.
+     * 
+     * @param path the canonical path of the changed file
+     * @param lastModified the new modification time of the file or null if unknown
+     * @param length the new length of the file
+     */
+    synchronized void fileChanged(String path, Long lastModified, long length) {
+        final Entry entry = entries.get(path);
+        if (entry != null && (lastModified == null || !entry.matches(lastModified, length))) {
+            entries.remove(path);
+        }
+    }
+
+    /**
+     * Drop the document cached for a path, e.g. because it has been mutated without being written
+     * 
+     * @param path the canonical path of web.xml
+     */
+    synchronized void evict(String path) {
+        entries.remove(path);
+    }
+
+    private static class Entry {
+        private final Document document;
+        private final long lastModified;
+        private final long length;
+
+        private Entry(Document document, long lastModified, long length) {
+            this.document = document;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        private boolean matches(long lastModified, long length) {
+            return this.lastModified == lastModified && this.length == length;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-only view of a top-level web.xml declaration (servlet, context-param, ...) as a flat,
+ * ordered list of leaf values keyed by their path relative to the declaration element,
+ * e.g. "servlet-class" or "init-param/param-value".
+ *
+ * @since 0.1.1
+ */
+public class WebxmlEntry {
+
+    private final String elementName;
+    private final List<String> paths = new ArrayList<String>();
+    private final List<String> values = new ArrayList<String>();
+
+    public WebxmlEntry(String elementName) {
+        this.elementName = elementName;
+    }
+
+    /**
+     * @return the declaration element name, e.g. "servlet"
+     */
+    public String getElementName() {
+        return elementName;
+    }
+
+    /**
+     * @return the declaration name (value of servlet-name, param-name, ...) or null if unknown
+     */
+    public String getName() {
+        final String nameElement = WebxmlIndex.getNameElement(elementName);
+        return nameElement == null ? null : getValue(nameElement);
+    }
+
+    /**
+     * @param path the path of a leaf element relative to the declaration
+     * @return the first value found at this path or null if none
+     */
+    public String getValue(String path) {
+        final int index = paths.indexOf(path);
+        return index < 0 ? null : values.get(index);
+    }
+
+    /**
+     * @param path the path of a leaf element relative to the declaration
+     * @return all the values found at this path in document order
+     */
+    public List<String> getValues(String path) {
+        final List<String> result = new ArrayList<String>();
+        for (int i = 0; i < paths.size(); i++) {
+            if (paths.get(i).equals(path)) {
+                result.add(values.get(i));
+            }
+        }
+        return result;
+    }
+
+    void addValue(String path, String value) {
+        paths.add(path);
+        values.add(value);
+    }
+
+    public String toString() {
+        final StringBuilder builder = new StringBuilder(elementName);
+        for (int i = 0; i < paths.size(); i++) {
+            builder.append("\n    ").append(paths.get(i)).append(" = ").append(values.get(i));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,203 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.w3c.dom.CharacterData;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+
+/**
+ * Whitespace-insensitive structural fingerprint of web.xml elements. The fingerprint of an
+ * element is made of its name, its attributes, its text stripped of whitespace and the sorted
+ * fingerprints of its child elements, so two elements holding the same children in a different
+ * order share the same fingerprint. Fingerprints, and the set of child fingerprints of a parent,
+ * are cached on the nodes themselves and must be invalidated when a subtree is modified.
+ *
+ * @since 0.1.1
+ */
+final class WebxmlFingerprint {
+
+    private static final String FINGERPRINT_KEY = WebxmlFingerprint.class.getName() + ".fingerprint";
+    private static final String CHILDREN_KEY = WebxmlFingerprint.class.getName() + ".children";
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private WebxmlFingerprint() {
+    }
+
+    /**
+     * Get the fingerprint of an element, computing it on first access
+     * 
+     * @param element the element to fingerprint (required)
+     * @return the structural fingerprint of this element
+     */
+    static String of(Element element) {
+        String fingerprint = (String) element.getUserData(FINGERPRINT_KEY);
+        if (fingerprint == null) {
+            fingerprint = compute(element);
+            element.setUserData(FINGERPRINT_KEY, fingerprint, null);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Check whether a parent already holds a child element structurally equal to the given one
+     * 
+     * @param parent the parent element (required)
+     * @param child the candidate child element (required)
+     * @return true if an equivalent child is already present
+     */
+    static boolean containsChild(Element parent, Element child) {
+        return childFingerprints(parent).contains(of(child));
+    }
+
+    /**
+     * Update cached fingerprints after a child has been appended to a parent
+     * 
+     * @param parent the parent element (required)
+     * @param child the appended child element (required)
+     */
+    @SuppressWarnings("unchecked")
+    static void childAppended(Element parent, Element child) {
+        final Set<String> children = (Set<String>) parent.getUserData(CHILDREN_KEY);
+        invalidate(parent);
+        if (children != null) {
+            children.add(of(child));
+            parent.setUserData(CHILDREN_KEY, children, null);
+        }
+    }
+
+    /**
+     * Drop the cached fingerprints of a modified element and of all its ancestors
+     * 
+     * @param node the modified node (required)
+     */
+    static void invalidate(Node node) {
+        for (Node current = node; current instanceof Element; current = current.getParentNode()) {
+            current.setUserData(FINGERPRINT_KEY, null, null);
+            current.setUserData(CHILDREN_KEY, null, null);
+        }
+    }
+
+    /**
+     * Compute a hash of the whole content of a node, insensitive to the whitespace around text only.
+     * Unlike fingerprints, it is order-sensitive, keeps the whitespace inside values, includes
+     * comments and is never cached, so that it can be used to tell whether a document has been
+     * changed whatever the way it has been mutated.
+     * 
+     * @param node the node to hash, typically a document (required)
+     * @return a 64 bits FNV-1a hash of the node content
+     */
+    static long hash(Node node) {
+        return hash(node, FNV_OFFSET_BASIS);
+    }
+
+    private static long hash(Node node, long seed) {
+        long hash = hash(seed, node.getNodeType());
+        hash = hash(hash, node.getNodeName());
+        if (node instanceof Element) {
+            final List<String> attributes = new ArrayList<String>();
+            final NamedNodeMap attributeNodes = node.getAttributes();
+            for (int i = 0; i < attributeNodes.getLength(); i++) {
+                final Node attribute = attributeNodes.item(i);
+                attributes.add(attribute.getNodeName() + "=" + attribute.getNodeValue());
+            }
+            Collections.sort(attributes);
+            for (String attribute : attributes) {
+                hash = hash(hash, attribute);
+            }
+        } else if (node instanceof CharacterData) {
+            // Only indentation is ignored: "a b" and "ab" are different values.
+            hash = hash(hash, ((CharacterData) node).getData().trim());
+        }
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            // Indentation-only text nodes do not count, wherever they are.
+            if (!(child instanceof Text) || ((Text) child).getData().trim().length() > 0) {
+                hash = hash(child, hash);
+            }
+        }
+        return hash(hash, -1);
+    }
+
+    private static long hash(long hash, String value) {
+        long result = hash;
+        for (int i = 0; i < value.length(); i++) {
+            result = hash(result, value.charAt(i));
+        }
+        return hash(result, -1);
+    }
+
+    private static long hash(long hash, int value) {
+        return (hash ^ value) * FNV_PRIME;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<String> childFingerprints(Element parent) {
+        Set<String> children = (Set<String>) parent.getUserData(CHILDREN_KEY);
+        if (children == null) {
+            children = new HashSet<String>();
+            for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child instanceof Element) {
+                    children.add(of((Element) child));
+                }
+            }
+            parent.setUserData(CHILDREN_KEY, children, null);
+        }
+        return children;
+    }
+
+    private static String compute(Element element) {
+        final List<String> attributes = new ArrayList<String>();
+        final NamedNodeMap attributeNodes = element.getAttributes();
+        for (int i = 0; i < attributeNodes.getLength(); i++) {
+            final Node attribute = attributeNodes.item(i);
+            attributes.add(attribute.getNodeName() + "=" + attribute.getNodeValue());
+        }
+        Collections.sort(attributes);
+
+        final List<String> children = new ArrayList<String>();
+        final StringBuilder text = new StringBuilder();
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element) {
+                children.add(of((Element) child));
+            } else if (child instanceof Text) {
+                appendWithoutWhitespace(text, ((Text) child).getData());
+            }
+        }
+        Collections.sort(children);
+
+        // Length-prefix every part so that no content can be mistaken for a separator.
+        final StringBuilder fingerprint = new StringBuilder();
+        appendPart(fingerprint, element.getNodeName());
+        fingerprint.append('@');
+        for (String attribute : attributes) {
+            appendPart(fingerprint, attribute);
+        }
+        fingerprint.append('#');
+        appendPart(fingerprint, text.toString());
+        fingerprint.append('[');
+        for (String child : children) {
+            appendPart(fingerprint, child);
+        }
+        return fingerprint.append(']').toString();
+    }
+
+    private static void appendPart(StringBuilder builder, String part) {
+        builder.append(part.length()).append(':').append(part);
+    }
+
+    private static void appendWithoutWhitespace(StringBuilder builder, String data) {
+        for (int i = 0; i < data.length(); i++) {
+            final char c = data.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+                builder.append(c);
+            }
+        }
+    }
+}
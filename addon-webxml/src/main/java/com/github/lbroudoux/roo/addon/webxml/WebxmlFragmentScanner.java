@@ -0,0 +1,100 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Finds the Servlet 3.x web-fragments packaged into jar files and reads their names.
+ *
+ * @since 0.1.1
+ */
+final class WebxmlFragmentScanner {
+
+    private static final String WEB_FRAGMENT = "META-INF/web-fragment.xml";
+
+    private WebxmlFragmentScanner() {
+    }
+
+    /**
+     * Scan jars for web-fragments
+     * 
+     * @param jars the jar files to scan, missing ones are ignored
+     * @param names receives the names of the named fragments found
+     * @param unnamed receives the names of the jars holding a fragment without name
+     */
+    static void scan(Iterable<File> jars, List<String> names, List<String> unnamed) {
+        for (File jar : jars) {
+            if (!jar.isFile()) {
+                continue;
+            }
+            ZipFile zipFile = null;
+            try {
+                zipFile = new ZipFile(jar);
+                final ZipEntry fragment = zipFile.getEntry(WEB_FRAGMENT);
+                if (fragment == null) {
+                    continue;
+                }
+                final String name = readName(zipFile.getInputStream(fragment));
+                if (name == null) {
+                    unnamed.add(jar.getName());
+                } else if (!names.contains(name)) {
+                    names.add(name);
+                }
+            } catch (IOException ioe) {
+                throw new IllegalStateException("Unable to read '" + jar + "'", ioe);
+            } finally {
+                if (zipFile != null) {
+                    try {
+                        zipFile.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the value of the top-level name element of a web-fragment or null if none
+     */
+    private static String readName(InputStream inputStream) {
+        final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        XMLStreamReader reader = null;
+        try {
+            reader = inputFactory.createXMLStreamReader(inputStream);
+            int depth = 0;
+            while (reader.hasNext()) {
+                final int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    if (depth == 2 && "name".equals(reader.getLocalName())) {
+                        return reader.getElementText().trim();
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                }
+            }
+            return null;
+        } catch (XMLStreamException xse) {
+            throw new IllegalStateException("Malformed web-fragment.xml", xse);
+        } finally {
+            try {
+                if (reader != null) {
+                    reader.close();
+                }
+                inputStream.close();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.w3c.dom.Comment;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Index of the top-level declarations of a web.xml document. Declarations are looked up by
+ * their name (servlet-name, param-name, ...) through hash maps instead of evaluating an XPath
+ * expression against the whole tree. The index is built once per document, kept attached to
+ * it and must be told about every node inserted under <code>web-app</code>.
+ *
+ * @since 0.1.1
+ */
+final class WebxmlIndex {
+
+    private static final String USER_DATA_KEY = WebxmlIndex.class.getName();
+
+    /** Name of the child element holding the declaration name, by declaration element. */
+    private static final Map<String, String> NAME_ELEMENTS = new HashMap<String, String>();
+    static {
+        NAME_ELEMENTS.put("servlet", "servlet-name");
+        NAME_ELEMENTS.put("servlet-mapping", "servlet-name");
+        NAME_ELEMENTS.put("filter", "filter-name");
+        NAME_ELEMENTS.put("filter-mapping", "filter-name");
+        NAME_ELEMENTS.put("context-param", "param-name");
+        NAME_ELEMENTS.put("env-entry", "env-entry-name");
+        NAME_ELEMENTS.put("resource-ref", "res-ref-name");
+        NAME_ELEMENTS.put("resource-env-ref", "resource-env-ref-name");
+        NAME_ELEMENTS.put("mime-mapping", "extension");
+    }
+
+    private final Map<String, Map<String, Element>> elementsByName = new HashMap<String, Map<String, Element>>();
+    private final Map<String, Element> firstElements = new HashMap<String, Element>();
+    private final Map<String, Element> lastElements = new HashMap<String, Element>();
+    private final Set<String> comments = new HashSet<String>();
+
+    /**
+     * @param elementName a declaration element name, e.g. "servlet"
+     * @return the name of the child element holding the declaration name or null if none
+     */
+    static String getNameElement(String elementName) {
+        return NAME_ELEMENTS.get(elementName);
+    }
+
+    /**
+     * Get the index of a document, building it on first access
+     * 
+     * @param document the web.xml document (required)
+     * @return the index attached to this document
+     */
+    static WebxmlIndex of(Document document) {
+        WebxmlIndex index = (WebxmlIndex) document.getUserData(USER_DATA_KEY);
+        if (index == null) {
+            index = new WebxmlIndex(document);
+            document.setUserData(USER_DATA_KEY, index, null);
+        }
+        return index;
+    }
+
+    /**
+     * Drop the index of a document after top-level nodes have been removed from it, so that it
+     * is rebuilt on next access
+     * 
+     * @param document the web.xml document (required)
+     */
+    static void discard(Document document) {
+        document.setUserData(USER_DATA_KEY, null, null);
+    }
+
+    private WebxmlIndex(Document document) {
+        final NodeList children = document.getDocumentElement().getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            final Node child = children.item(i);
+            if (child instanceof Element) {
+                final Element element = (Element) child;
+                if (!firstElements.containsKey(element.getNodeName())) {
+                    firstElements.put(element.getNodeName(), element);
+                }
+                lastElements.put(element.getNodeName(), element);
+                indexName(element);
+            }
+        }
+        indexComments(document.getDocumentElement());
+    }
+
+    /**
+     * Find the first declaration of the given kind having the given name
+     * 
+     * @param elementName the declaration element name, e.g. "servlet"
+     * @param name the declaration name, e.g. the servlet-name value
+     * @return the matching element or null if none
+     */
+    Element find(String elementName, String name) {
+        final Map<String, Element> elements = elementsByName.get(elementName);
+        return elements == null ? null : elements.get(name);
+    }
+
+    /**
+     * @param elementName a top-level element name
+     * @return the first top-level element having this name in document order or null if none
+     */
+    Element first(String elementName) {
+        return firstElements.get(elementName);
+    }
+
+    /**
+     * @param elementName a top-level element name
+     * @return the last top-level element having this name in document order or null if none
+     */
+    Element last(String elementName) {
+        return lastElements.get(elementName);
+    }
+
+    /**
+     * @param text the exact comment data
+     * @return true if the document already holds a comment with this data
+     */
+    boolean hasComment(String text) {
+        return comments.contains(text);
+    }
+
+    /**
+     * Register a node that has just been inserted as a child of <code>web-app</code>
+     * 
+     * @param node the inserted element or comment (required)
+     */
+    void register(Node node) {
+        if (node instanceof Comment) {
+            comments.add(((Comment) node).getData());
+            return;
+        }
+        if (!(node instanceof Element)) {
+            return;
+        }
+        final Element element = (Element) node;
+        final String elementName = element.getNodeName();
+        final Element first = firstElements.get(elementName);
+        if (first == null || isBefore(element, first)) {
+            firstElements.put(elementName, element);
+        }
+        final Element last = lastElements.get(elementName);
+        if (last == null || isBefore(last, element)) {
+            lastElements.put(elementName, element);
+        }
+        indexName(element);
+    }
+
+    private void indexName(Element element) {
+        final String nameElementName = NAME_ELEMENTS.get(element.getNodeName());
+        if (nameElementName == null) {
+            return;
+        }
+        final Element nameElement = firstChildElement(element, nameElementName);
+        if (nameElement == null) {
+            return;
+        }
+        Map<String, Element> elements = elementsByName.get(element.getNodeName());
+        if (elements == null) {
+            elements = new HashMap<String, Element>();
+            elementsByName.put(element.getNodeName(), elements);
+        }
+        // Names are compared trimmed, as XPath lookups on normalized values and Roo's own
+        // formatted output would do.
+        final String name = nameElement.getTextContent().trim();
+        final Element existing = elements.get(name);
+        if (existing == null || isBefore(element, existing)) {
+            elements.put(name, element);
+        }
+    }
+
+    private void indexComments(Node node) {
+        final NodeList children = node.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            final Node child = children.item(i);
+            if (child instanceof Comment) {
+                comments.add(((Comment) child).getData());
+            } else if (child instanceof Element) {
+                indexComments(child);
+            }
+        }
+    }
+
+    private static Element firstChildElement(Element parent, String name) {
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element && name.equals(child.getNodeName())) {
+                return (Element) child;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isBefore(Node node, Node other) {
+        return (node.compareDocumentPosition(other) & Node.DOCUMENT_POSITION_FOLLOWING) != 0;
+    }
+}
@@ -0,0 +1,235 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Builds the source of a <code>ServletContainerInitializer</code> registering through the
+ * Servlet 3 API the context params, listeners, filters and servlets of web.xml, so that the
+ * container does not have to parse and merge them at startup. Declarations are registered
+ * group by group, each group in document order, which keeps the filter chain order.
+ *
+ * @since 0.1.1
+ */
+class WebxmlInitializerBuilder {
+
+    private static final String INDENT = "        ";
+
+    /** Children of a servlet declaration the Servlet 3 registration API can express. */
+    static final List<String> SERVLET_CHILDREN = Arrays.asList("description", "display-name", "servlet-name",
+            "servlet-class", "init-param", "load-on-startup", "async-supported");
+    /** Children of a filter declaration the Servlet 3 registration API can express. */
+    static final List<String> FILTER_CHILDREN = Arrays.asList("description", "display-name", "filter-name",
+            "filter-class", "init-param", "async-supported");
+
+    private final String packageName;
+    private final String simpleTypeName;
+    private final StringBuilder contextParams = new StringBuilder();
+    private final StringBuilder listeners = new StringBuilder();
+    private final StringBuilder filters = new StringBuilder();
+    private final StringBuilder filterMappings = new StringBuilder();
+    private final StringBuilder servlets = new StringBuilder();
+    private final StringBuilder servletMappings = new StringBuilder();
+    private boolean dispatcherTypes;
+
+    /**
+     * @param packageName the package of the initializer, may be empty
+     * @param simpleTypeName the simple name of the initializer class
+     */
+    WebxmlInitializerBuilder(String packageName, String simpleTypeName) {
+        this.packageName = packageName;
+        this.simpleTypeName = simpleTypeName;
+    }
+
+    /**
+     * Check whether a servlet or filter declaration only holds children the registration API can express
+     */
+    static boolean isExportable(Element declaration, List<String> supportedChildren) {
+        for (Node child = declaration.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element && !supportedChildren.contains(child.getNodeName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void addContextParam(Element contextParam, String comment) {
+        appendComment(contextParams, comment);
+        contextParams.append(INDENT).append("servletContext.setInitParameter(")
+                .append(literal(childValue(contextParam, "param-name"))).append(", ")
+                .append(literal(childValue(contextParam, "param-value"))).append(");\n");
+    }
+
+    void addListener(Element listener, String comment) {
+        appendComment(listeners, comment);
+        listeners.append(INDENT).append("servletContext.addListener(")
+                .append(literal(childValue(listener, "listener-class"))).append(");\n");
+    }
+
+    void addFilter(Element filter, String comment) {
+        appendComment(filters, comment);
+        filters.append(INDENT).append("filter = servletContext.addFilter(")
+                .append(literal(childValue(filter, "filter-name"))).append(", ")
+                .append(literal(childValue(filter, "filter-class"))).append(");\n");
+        appendInitParams(filters, "filter", filter);
+        if (childValue(filter, "async-supported") != null) {
+            filters.append(INDENT).append("filter.setAsyncSupported(")
+                    .append(Boolean.valueOf(childValue(filter, "async-supported"))).append(");\n");
+        }
+    }
+
+    void addFilterMapping(Element filterMapping) {
+        final String registration = "servletContext.getFilterRegistration(" + literal(childValue(filterMapping, "filter-name")) + ")";
+        final String dispatchers = dispatcherTypesOf(filterMapping);
+        final List<String> urlPatterns = childValues(filterMapping, "url-pattern");
+        if (!urlPatterns.isEmpty()) {
+            filterMappings.append(INDENT).append(registration).append(".addMappingForUrlPatterns(")
+                    .append(dispatchers).append(", true, ").append(literals(urlPatterns)).append(");\n");
+        }
+        final List<String> servletNames = childValues(filterMapping, "servlet-name");
+        if (!servletNames.isEmpty()) {
+            filterMappings.append(INDENT).append(registration).append(".addMappingForServletNames(")
+                    .append(dispatchers).append(", true, ").append(literals(servletNames)).append(");\n");
+        }
+    }
+
+    void addServlet(Element servlet, String comment) {
+        appendComment(servlets, comment);
+        servlets.append(INDENT).append("servlet = servletContext.addServlet(")
+                .append(literal(childValue(servlet, "servlet-name"))).append(", ")
+                .append(literal(childValue(servlet, "servlet-class"))).append(");\n");
+        appendInitParams(servlets, "servlet", servlet);
+        if (childValue(servlet, "load-on-startup") != null) {
+            servlets.append(INDENT).append("servlet.setLoadOnStartup(")
+                    .append(Integer.parseInt(childValue(servlet, "load-on-startup"))).append(");\n");
+        }
+        if (childValue(servlet, "async-supported") != null) {
+            servlets.append(INDENT).append("servlet.setAsyncSupported(")
+                    .append(Boolean.valueOf(childValue(servlet, "async-supported"))).append(");\n");
+        }
+    }
+
+    void addServletMapping(Element servletMapping) {
+        servletMappings.append(INDENT).append("servletContext.getServletRegistration(")
+                .append(literal(childValue(servletMapping, "servlet-name"))).append(").addMapping(")
+                .append(literals(childValues(servletMapping, "url-pattern"))).append(");\n");
+    }
+
+    /**
+     * @return the Java source of the initializer
+     */
+    String build() {
+        final StringBuilder source = new StringBuilder();
+        if (StringUtils.isNotEmpty(packageName)) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        if (dispatcherTypes) {
+            source.append("import java.util.EnumSet;\n");
+        }
+        source.append("import java.util.Set;\n\n");
+        if (dispatcherTypes) {
+            source.append("import javax.servlet.DispatcherType;\n");
+        }
+        if (filters.length() > 0) {
+            source.append("import javax.servlet.FilterRegistration;\n");
+        }
+        source.append("import javax.servlet.ServletContainerInitializer;\n");
+        source.append("import javax.servlet.ServletContext;\n");
+        source.append("import javax.servlet.ServletException;\n");
+        if (servlets.length() > 0) {
+            source.append("import javax.servlet.ServletRegistration;\n");
+        }
+        source.append("\n/**\n");
+        source.append(" * Registers the declarations exported from web.xml by 'webxml export-initializer'.\n");
+        source.append(" * Generated code: re-run the command instead of editing this file.\n");
+        source.append(" */\n");
+        source.append("public class ").append(simpleTypeName).append(" implements ServletContainerInitializer {\n\n");
+        source.append("    public void onStartup(Set<Class<?>> classes, ServletContext servletContext) throws ServletException {\n");
+        if (filters.length() > 0) {
+            source.append(INDENT).append("FilterRegistration.Dynamic filter;\n");
+        }
+        if (servlets.length() > 0) {
+            source.append(INDENT).append("ServletRegistration.Dynamic servlet;\n");
+        }
+        appendGroup(source, contextParams);
+        appendGroup(source, listeners);
+        appendGroup(source, filters);
+        appendGroup(source, filterMappings);
+        appendGroup(source, servlets);
+        appendGroup(source, servletMappings);
+        source.append("    }\n");
+        source.append("}\n");
+        return source.toString();
+    }
+
+    private String dispatcherTypesOf(Element filterMapping) {
+        final List<String> dispatchers = childValues(filterMapping, "dispatcher");
+        if (dispatchers.isEmpty()) {
+            // Null stands for REQUEST only, as an absent dispatcher element does.
+            return "null";
+        }
+        dispatcherTypes = true;
+        final StringBuilder result = new StringBuilder("EnumSet.of(");
+        for (int i = 0; i < dispatchers.size(); i++) {
+            result.append(i == 0 ? "" : ", ").append("DispatcherType.").append(dispatchers.get(i));
+        }
+        return result.append(")").toString();
+    }
+
+    private static void appendInitParams(StringBuilder builder, String variable, Element declaration) {
+        for (Node child = declaration.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element && "init-param".equals(child.getNodeName())) {
+                builder.append(INDENT).append(variable).append(".setInitParameter(")
+                        .append(literal(childValue((Element) child, "param-name"))).append(", ")
+                        .append(literal(childValue((Element) child, "param-value"))).append(");\n");
+            }
+        }
+    }
+
+    private static void appendComment(StringBuilder builder, String comment) {
+        if (StringUtils.isNotBlank(comment)) {
+            builder.append(INDENT).append("// ").append(StringUtils.normalizeSpace(comment)).append("\n");
+        }
+    }
+
+    private static void appendGroup(StringBuilder source, StringBuilder group) {
+        if (group.length() > 0) {
+            source.append("\n").append(group);
+        }
+    }
+
+    private static String literals(List<String> values) {
+        final StringBuilder result = new StringBuilder();
+        for (int i = 0; i < values.size(); i++) {
+            result.append(i == 0 ? "" : ", ").append(literal(values.get(i)));
+        }
+        return result.toString();
+    }
+
+    private static String literal(String value) {
+        if (value == null) {
+            return "null";
+        }
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    private static List<String> childValues(Element parent, String name) {
+        final List<String> values = new ArrayList<String>();
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element && name.equals(child.getNodeName())) {
+                values.add(child.getTextContent().trim());
+            }
+        }
+        return values;
+    }
+
+    private static String childValue(Element parent, String name) {
+        final List<String> values = childValues(parent, name);
+        return values.isEmpty() ? null : values.get(0);
+    }
+}
@@ -0,0 +1,353 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Reader of the manifests imported by <code>webxml import</code>. Three formats are supported,
+ * chosen from the file extension:
+ * <ul>
+ * <li>.properties: <code>kind.name.attribute=value</code>, e.g. <code>servlet.myServlet.class=com.MyServlet</code>,
+ * read by {@link Properties#load(InputStream)} so the usual rules apply (ISO-8859-1 with unicode
+ * escapes, line continuations, '=', ':' or whitespace separators, '#' and '!' comments). The
+ * attributes of a declaration may be spread over the whole file, so its declarations are only
+ * complete once the file has been read.</li>
+ * <li>.csv: <code>kind,name,attribute1,attribute2,attribute3,comment</code> in UTF-8 where attributes are
+ * class, mapping and loading for servlets, value for context params and type and value for env entries</li>
+ * <li>.xml: <code>&lt;webxml&gt;&lt;servlet name="" class="" mapping="" loading="" comment=""/&gt;...&lt;/webxml&gt;</code></li>
+ * </ul>
+ * Csv and xml manifests are read line by line or event by event and each declaration is handed
+ * over as soon as it has been read and validated, so that only the names already seen are kept in
+ * memory. Reading goes on after an invalid declaration to report all of them, but nothing more is
+ * handed over and the whole manifest is rejected at the end: callers must then discard what they
+ * have applied.
+ *
+ * @since 0.1.1
+ */
+final class WebxmlManifest {
+
+    private static final String SERVLET = "servlet";
+    private static final String CONTEXT_PARAM = "context-param";
+    private static final String ENV_ENTRY = "env-entry";
+
+    /** Ordered attributes of each declaration kind, as they appear in csv manifests. */
+    private static final Map<String, List<String>> ATTRIBUTES = new LinkedHashMap<String, List<String>>();
+    static {
+        ATTRIBUTES.put(SERVLET, Arrays.asList("class", "mapping", "loading"));
+        ATTRIBUTES.put(CONTEXT_PARAM, Arrays.asList("value"));
+        ATTRIBUTES.put(ENV_ENTRY, Arrays.asList("type", "value"));
+    }
+
+    /** The env-entry-type values allowed by the JEE reference. */
+    private static final Set<String> ENV_ENTRY_TYPES = new LinkedHashSet<String>(Arrays.asList("java.lang.String",
+            "java.lang.Character", "java.lang.Integer", "java.lang.Boolean", "java.lang.Double",
+            "java.lang.Byte", "java.lang.Short", "java.lang.Long", "java.lang.Float"));
+
+    private static final String COMMENT = "comment";
+
+    /**
+     * Callback receiving the valid declarations of a manifest.
+     */
+    interface DeclarationHandler {
+
+        /**
+         * @param declaration a complete and valid declaration, in manifest order
+         */
+        void handle(WebxmlDeclaration declaration);
+    }
+
+    private WebxmlManifest() {
+    }
+
+    /**
+     * Read and validate the declarations of a manifest, handing the valid ones over as they are read
+     * 
+     * @param manifest the manifest file (required)
+     * @param handler the callback receiving the declarations (required)
+     * @throws IllegalArgumentException listing all the invalid declarations if any
+     */
+    static void read(File manifest, DeclarationHandler handler) {
+        final String fileName = manifest.getName().toLowerCase();
+        final Declarations declarations = new Declarations(handler);
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(manifest);
+            if (fileName.endsWith(".properties")) {
+                readProperties(inputStream, declarations);
+            } else if (fileName.endsWith(".csv")) {
+                readCsv(inputStream, declarations);
+            } else if (fileName.endsWith(".xml")) {
+                readXml(inputStream, declarations);
+            } else {
+                throw new IllegalArgumentException("Unsupported manifest '" + manifest.getName()
+                        + "', expecting a .properties, .csv or .xml file");
+            }
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Unable to read manifest '" + manifest + "'", ioe);
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        if (!declarations.errors.isEmpty()) {
+            throw new IllegalArgumentException("Invalid manifest '" + manifest.getName() + "', nothing imported:\n  "
+                    + StringUtils.join(declarations.errors, "\n  "));
+        }
+    }
+
+    private static void readProperties(InputStream inputStream, Declarations declarations) throws IOException {
+        final OrderedProperties properties = new OrderedProperties();
+        properties.load(inputStream);
+        // Attributes of a declaration may come from anywhere in the file, group them first.
+        final Map<String, WebxmlDeclaration> grouped = new LinkedHashMap<String, WebxmlDeclaration>();
+        for (String key : properties.keys) {
+            final String location = "key '" + key + "'";
+            final int kindEnd = key.indexOf('.');
+            final int attributeStart = key.lastIndexOf('.');
+            if (kindEnd < 0 || attributeStart <= kindEnd) {
+                declarations.errors.add(location + " should be kind.name.attribute");
+                continue;
+            }
+            final String kind = key.substring(0, kindEnd);
+            final String name = key.substring(kindEnd + 1, attributeStart);
+            WebxmlDeclaration declaration = grouped.get(kind + "|" + name);
+            if (declaration == null) {
+                declaration = declarations.create(kind, name, "keys '" + kind + "." + name + ".*'");
+                if (declaration == null) {
+                    continue;
+                }
+                grouped.put(kind + "|" + name, declaration);
+            }
+            declaration.setAttribute(key.substring(attributeStart + 1), properties.getProperty(key).trim());
+        }
+        for (WebxmlDeclaration declaration : grouped.values()) {
+            declarations.complete(declaration);
+        }
+    }
+
+    private static void readCsv(InputStream inputStream, Declarations declarations) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().length() == 0 || line.startsWith("#") || (lineNumber == 1 && line.startsWith("kind,"))) {
+                continue;
+            }
+            final List<String> fields = splitCsv(line);
+            if (fields.size() < 2) {
+                declarations.errors.add("line " + lineNumber + ": expecting at least a kind and a name");
+                continue;
+            }
+            final String location = "line " + lineNumber;
+            final WebxmlDeclaration declaration = declarations.create(fields.get(0), fields.get(1), location);
+            if (declaration == null) {
+                continue;
+            }
+            final List<String> attributes = ATTRIBUTES.get(declaration.getKind());
+            boolean valid = true;
+            for (int i = 2; i < fields.size(); i++) {
+                final String attribute = i - 2 < attributes.size() ? attributes.get(i - 2)
+                        : i - 2 == attributes.size() ? COMMENT : null;
+                if (attribute == null) {
+                    declarations.errors.add(location + ": too many fields for " + declaration);
+                    valid = false;
+                    break;
+                }
+                if (fields.get(i).length() > 0) {
+                    declaration.setAttribute(attribute, fields.get(i));
+                }
+            }
+            if (valid) {
+                declarations.complete(declaration);
+            }
+        }
+    }
+
+    private static void readXml(InputStream inputStream, Declarations declarations) {
+        final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        XMLStreamReader reader = null;
+        try {
+            reader = inputFactory.createXMLStreamReader(inputStream);
+            int depth = 0;
+            while (reader.hasNext()) {
+                final int event = reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                } else if (event == XMLStreamConstants.START_ELEMENT && ++depth == 2) {
+                    final String location = "line " + reader.getLocation().getLineNumber();
+                    final WebxmlDeclaration declaration = declarations.create(reader.getLocalName(),
+                            reader.getAttributeValue(null, "name"), location);
+                    if (declaration == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        final String attribute = reader.getAttributeLocalName(i);
+                        if (!"name".equals(attribute)) {
+                            declaration.setAttribute(attribute, reader.getAttributeValue(i));
+                        }
+                    }
+                    declarations.complete(declaration);
+                }
+            }
+        } catch (XMLStreamException xse) {
+            throw new IllegalArgumentException("Malformed xml manifest: " + xse.getMessage(), xse);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Declarations of the manifest being read: the locations of the names already seen, to
+     * report duplicates, and the errors found so far.
+     */
+    private static class Declarations {
+
+        private final DeclarationHandler handler;
+        private final Map<String, String> locations = new HashMap<String, String>();
+        private final List<String> errors = new ArrayList<String>();
+
+        private Declarations(DeclarationHandler handler) {
+            this.handler = handler;
+        }
+
+        /**
+         * Create the declaration of the given kind and name
+         * 
+         * @return the declaration or null if invalid, in which case an error has been recorded
+         */
+        private WebxmlDeclaration create(String kind, String name, String location) {
+            if (!ATTRIBUTES.containsKey(kind)) {
+                errors.add(location + ": unknown declaration kind '" + kind + "', expecting one of "
+                        + StringUtils.join(ATTRIBUTES.keySet(), ", "));
+                return null;
+            }
+            if (StringUtils.isBlank(name)) {
+                errors.add(location + ": " + kind + " name required");
+                return null;
+            }
+            final String key = kind + "|" + name;
+            if (locations.containsKey(key)) {
+                errors.add(location + ": " + kind + " " + name + " already declared at " + locations.get(key));
+                return null;
+            }
+            locations.put(key, location);
+            return new WebxmlDeclaration(kind, name, location);
+        }
+
+        /**
+         * Validate a declaration whose attributes have all been read and hand it over if the
+         * manifest is valid so far
+         */
+        private void complete(WebxmlDeclaration declaration) {
+            validate(declaration, errors);
+            if (errors.isEmpty()) {
+                handler.handle(declaration);
+            }
+        }
+    }
+
+    /**
+     * Properties remembering the order in which their keys have been loaded.
+     */
+    private static class OrderedProperties extends Properties {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Set<String> keys = new LinkedHashSet<String>();
+
+        public synchronized Object put(Object key, Object value) {
+            keys.add((String) key);
+            return super.put(key, value);
+        }
+    }
+
+    private static void validate(WebxmlDeclaration declaration, List<String> errors) {
+        final String prefix = declaration.getLocation() + ": " + declaration;
+        final List<String> attributes = ATTRIBUTES.get(declaration.getKind());
+        for (String attribute : declaration.getAttributeNames()) {
+            if (!attributes.contains(attribute) && !COMMENT.equals(attribute)) {
+                errors.add(prefix + " has unknown attribute '" + attribute + "'");
+            }
+        }
+        for (String attribute : attributes) {
+            if (StringUtils.isBlank(declaration.getAttribute(attribute)) && !"loading".equals(attribute)) {
+                errors.add(prefix + " requires a " + attribute);
+            }
+        }
+        final String loading = declaration.getAttribute("loading");
+        if (SERVLET.equals(declaration.getKind()) && StringUtils.isNotBlank(loading)) {
+            try {
+                Integer.valueOf(loading.trim());
+            } catch (NumberFormatException nfe) {
+                errors.add(prefix + " has a non numeric loading '" + loading + "'");
+            }
+        }
+        final String type = declaration.getAttribute("type");
+        if (ENV_ENTRY.equals(declaration.getKind()) && type != null && !ENV_ENTRY_TYPES.contains(type)) {
+            errors.add(prefix + " has an invalid type '" + type + "', expecting one of "
+                    + StringUtils.join(ENV_ENTRY_TYPES, ", "));
+        }
+    }
+
+    /**
+     * Split a csv line on commas, honoring double-quoted fields ("" being an escaped quote)
+     */
+    private static List<String> splitCsv(String line) {
+        final List<String> fields = new ArrayList<String>();
+        final StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+        return fields;
+    }
+}
@@ -1,29 +1,27 @@
 package com.github.lbroudoux.roo.addon.webxml;
 
-import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+import org.apache.commons.lang3.ObjectUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.springframework.roo.classpath.PhysicalTypeIdentifierNamingUtils;
 import org.springframework.roo.classpath.PhysicalTypeMetadata;
-import org.springframework.roo.classpath.details.FieldMetadata;
-import org.springframework.roo.classpath.details.FieldMetadataBuilder;
-import org.springframework.roo.classpath.details.MethodMetadata;
-import org.springframework.roo.classpath.details.MethodMetadataBuilder;
-import org.springframework.roo.classpath.details.annotations.AnnotatedJavaType;
-import org.springframework.roo.classpath.details.annotations.AnnotationMetadataBuilder;
 import org.springframework.roo.classpath.itd.AbstractItdTypeDetailsProvidingMetadataItem;
-import org.springframework.roo.classpath.itd.InvocableMemberBodyBuilder;
 import org.springframework.roo.metadata.MetadataIdentificationUtils;
-import org.springframework.roo.model.JavaSymbolName;
 import org.springframework.roo.model.JavaType;
 import org.springframework.roo.project.LogicalPath;
 
 /**
- * This type produces metadata for a new ITD. It uses an {@link ItdTypeDetailsBuilder} provided by 
- * {@link AbstractItdTypeDetailsProvidingMetadataItem} to register a field in the ITD and a new method.
+ * This type produces metadata for a {@link RooWebxml} annotated servlet: the servlet declaration
+ * it contributes to web.xml. It does not introduce any member into the annotated type, so that
+ * no ITD is generated.
  * 
  * @since 1.1.0
  */
@@ -53,84 +51,69 @@ public class WebxmlMetadata extends AbstractItdTypeDetailsProvidingMetadataItem
         return PhysicalTypeIdentifierNamingUtils.isValid(PROVIDES_TYPE_STRING, metadataIdentificationString);
     }
     
-    public WebxmlMetadata(String identifier, JavaType aspectName, PhysicalTypeMetadata governorPhysicalTypeMetadata) {
+    private final String servletName;
+    private final String servletClass;
+    private final List<String> mappings;
+    private final Map<String, String> initParams = new LinkedHashMap<String, String>();
+    private final Integer loadOnStartup;
+    private final Boolean async;
+    
+    public WebxmlMetadata(String identifier, JavaType aspectName, PhysicalTypeMetadata governorPhysicalTypeMetadata, 
+            WebxmlAnnotationValues annotationValues) {
         super(identifier, aspectName, governorPhysicalTypeMetadata);
         Validate.isTrue(isValid(identifier), "Metadata identification string '" + identifier + "' does not appear to be a valid");
+        Validate.notNull(annotationValues, "Annotation values required");
 
-        // Adding a new sample field definition
-        builder.addField(getSampleField());
-            
-        // Adding a new sample method definition
-        builder.addMethod(getSampleMethod());
+        final JavaType servletType = getJavaType(identifier);
+        servletClass = servletType.getFullyQualifiedTypeName();
+        servletName = StringUtils.isBlank(annotationValues.getServletName()) 
+                ? StringUtils.uncapitalize(servletType.getSimpleTypeName()) : annotationValues.getServletName().trim();
+        mappings = annotationValues.getMappings().length == 0 ? Collections.singletonList("/" + servletName + "/*") 
+                : Collections.unmodifiableList(new ArrayList<String>(Arrays.asList(annotationValues.getMappings())));
+        for (String initParam : annotationValues.getInitParams()) {
+            final int equals = initParam.indexOf('=');
+            Validate.isTrue(equals > 0, "Init param '%s' of %s must be written as name=value", initParam, servletClass);
+            initParams.put(initParam.substring(0, equals).trim(), initParam.substring(equals + 1).trim());
+        }
+        loadOnStartup = annotationValues.getLoadOnStartup() < 0 ? null : Integer.valueOf(annotationValues.getLoadOnStartup());
+        async = annotationValues.isAsync() ? Boolean.TRUE : null;
         
-        // Create a representation of the desired output ITD
+        // Create a representation of the desired output ITD, empty as the declaration goes to web.xml
         itdTypeDetails = builder.build();
     }
     
-    /**
-     * Create metadata for a field definition. 
-     *
-     * @return a FieldMetadata object
-     */
-    private FieldMetadata getSampleField() {
-        // Note private fields are private to the ITD, not the target type, this is undesirable if a dependent method is pushed in to the target type
-        int modifier = 0;
-        
-        // Using the FieldMetadataBuilder to create the field definition. 
-        final FieldMetadataBuilder fieldBuilder = new FieldMetadataBuilder(getId(), // Metadata ID provided by supertype
-            modifier, // Using package protection rather than private
-            new ArrayList<AnnotationMetadataBuilder>(), // No annotations for this field
-            new JavaSymbolName("sampleField"), // Field name
-            JavaType.STRING); // Field type
-        
-        return fieldBuilder.build(); // Build and return a FieldMetadata instance
+    public String getServletName() {
+        return servletName;
     }
     
-    private MethodMetadata getSampleMethod() {
-        // Specify the desired method name
-        JavaSymbolName methodName = new JavaSymbolName("sampleMethod");
-        
-        // Check if a method with the same signature already exists in the target type
-        final MethodMetadata method = methodExists(methodName, new ArrayList<AnnotatedJavaType>());
-        if (method != null) {
-            // If it already exists, just return the method and omit its generation via the ITD
-            return method;
-        }
-        
-        // Define method annotations (none in this case)
-        List<AnnotationMetadataBuilder> annotations = new ArrayList<AnnotationMetadataBuilder>();
-        
-        // Define method throws types (none in this case)
-        List<JavaType> throwsTypes = new ArrayList<JavaType>();
-        
-        // Define method parameter types (none in this case)
-        List<AnnotatedJavaType> parameterTypes = new ArrayList<AnnotatedJavaType>();
-        
-        // Define method parameter names (none in this case)
-        List<JavaSymbolName> parameterNames = new ArrayList<JavaSymbolName>();
-        
-        // Create the method body
-        InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
-        bodyBuilder.appendFormalLine("System.out.println(\"Hello World\");");
-        
-        // Use the MethodMetadataBuilder for easy creation of MethodMetadata
-        MethodMetadataBuilder methodBuilder = new MethodMetadataBuilder(getId(), Modifier.PUBLIC, methodName, JavaType.VOID_PRIMITIVE, parameterTypes, parameterNames, bodyBuilder);
-        methodBuilder.setAnnotations(annotations);
-        methodBuilder.setThrowsTypes(throwsTypes);
-        
-        return methodBuilder.build(); // Build and return a MethodMetadata instance
+    public String getServletClass() {
+        return servletClass;
     }
-        
-    private MethodMetadata methodExists(JavaSymbolName methodName, List<AnnotatedJavaType> paramTypes) {
-        // We have no access to method parameter information, so we scan by name alone and treat any match as authoritative
-        // We do not scan the superclass, as the caller is expected to know we'll only scan the current class
-        for (MethodMetadata method : governorTypeDetails.getDeclaredMethods()) {
-            if (method.getMethodName().equals(methodName) && method.getParameterTypes().equals(paramTypes)) {
-                // Found a method of the expected name; we won't check method parameters though
-                return method;
-            }
-        }
-        return null;
+    
+    public List<String> getMappings() {
+        return mappings;
+    }
+    
+    public Map<String, String> getInitParams() {
+        return Collections.unmodifiableMap(initParams);
+    }
+    
+    public Integer getLoadOnStartup() {
+        return loadOnStartup;
+    }
+    
+    public Boolean getAsync() {
+        return async;
+    }
+    
+    /**
+     * @param other the metadata previously produced for the same type, may be null
+     * @return true if both contribute the same servlet declaration to web.xml
+     */
+    public boolean hasSameDeclaration(WebxmlMetadata other) {
+        return other != null && servletName.equals(other.servletName) && servletClass.equals(other.servletClass)
+                && mappings.equals(other.mappings) && initParams.equals(other.initParams)
+                && ObjectUtils.equals(loadOnStartup, other.loadOnStartup) && ObjectUtils.equals(async, other.async);
     }
     
     // Typically, no changes are required beyond this point
@@ -143,6 +126,8 @@ public class WebxmlMetadata extends AbstractItdTypeDetailsProvidingMetadataItem
         builder.append("destinationType", destination);
         builder.append("governor", governorPhysicalTypeMetadata.getId());
         builder.append("itdTypeDetails", itdTypeDetails);
+        builder.append("servletName", servletName);
+        builder.append("mappings", mappings);
         return builder.toString();
     }
 }
@@ -1,6 +1,14 @@
 package com.github.lbroudoux.roo.addon.webxml;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
 import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
 import org.osgi.service.component.ComponentContext;
 import org.springframework.roo.classpath.PhysicalTypeIdentifier;
@@ -8,18 +16,39 @@ import org.springframework.roo.classpath.PhysicalTypeMetadata;
 import org.springframework.roo.classpath.itd.AbstractItdMetadataProvider;
 import org.springframework.roo.classpath.itd.ItdTypeDetailsProvidingMetadataItem;
 import org.springframework.roo.model.JavaType;
+import org.springframework.roo.process.manager.CommandCallback;
+import org.springframework.roo.process.manager.ProcessManager;
+import org.springframework.roo.process.manager.ProcessManagerStatus;
+import org.springframework.roo.process.manager.ProcessManagerStatusListener;
 import org.springframework.roo.project.LogicalPath;
+import org.springframework.roo.support.logging.HandlerUtils;
 
 /**
  * Provides {@link WebxmlMetadata}. This type is called by Roo to retrieve the metadata for this add-on.
  * Use this type to reference external types and services needed by the metadata type. Register metadata triggers and
  * dependencies here. Also define the unique add-on ITD identifier.
+ * <p>
+ * Roo only asks for the metadata of the types whose physical type metadata changed. The servlet declaration of
+ * each annotated type is kept by metadata identifier so that only the changed ones are queued, and the queue is
+ * flushed into web.xml in a single write once the process manager is available again, i.e. once per metadata cycle.
  * 
  * @since 1.1
  */
 @Component
 @Service
-public final class WebxmlMetadataProvider extends AbstractItdMetadataProvider {
+public final class WebxmlMetadataProvider extends AbstractItdMetadataProvider implements ProcessManagerStatusListener {
+
+    private static final Logger LOGGER = HandlerUtils.getLogger(WebxmlMetadataProvider.class);
+
+    @Reference private WebxmlOperations webxmlOperations;
+    @Reference private ProcessManager processManager;
+    
+    /** The servlet declarations written to web.xml, by metadata identifier. */
+    private final Map<String, WebxmlMetadata> contributions = new HashMap<String, WebxmlMetadata>();
+    /** The servlet declarations changed since the last flush, by metadata identifier. */
+    private final Map<String, WebxmlMetadata> pendingContributions = new LinkedHashMap<String, WebxmlMetadata>();
+    /** Whether pending declarations are being written, guarded by pendingContributions. */
+    private boolean flushing;
 
     /**
      * The activate method for this OSGi component, this will be called by the OSGi container upon bundle activation 
@@ -30,6 +59,7 @@ public final class WebxmlMetadataProvider extends AbstractItdMetadataProvider {
     protected void activate(ComponentContext context) {
         metadataDependencyRegistry.registerDependency(PhysicalTypeIdentifier.getMetadataIdentiferType(), getProvidesType());
         addMetadataTrigger(new JavaType(RooWebxml.class.getName()));
+        processManager.addProcessManagerStatusListener(this);
     }
     
     /**
@@ -41,6 +71,7 @@ public final class WebxmlMetadataProvider extends AbstractItdMetadataProvider {
     protected void deactivate(ComponentContext context) {
         metadataDependencyRegistry.deregisterDependency(PhysicalTypeIdentifier.getMetadataIdentiferType(), getProvidesType());
         removeMetadataTrigger(new JavaType(RooWebxml.class.getName()));    
+        processManager.removeProcessManagerStatusListener(this);
     }
     
     /**
@@ -48,7 +79,59 @@ public final class WebxmlMetadataProvider extends AbstractItdMetadataProvider {
      */
     protected ItdTypeDetailsProvidingMetadataItem getMetadata(String metadataIdentificationString, JavaType aspectName, PhysicalTypeMetadata governorPhysicalTypeMetadata, String itdFilename) {
         // Pass dependencies required by the metadata in through its constructor
-        return new WebxmlMetadata(metadataIdentificationString, aspectName, governorPhysicalTypeMetadata);
+        final WebxmlMetadata metadata = new WebxmlMetadata(metadataIdentificationString, aspectName, governorPhysicalTypeMetadata,
+                new WebxmlAnnotationValues(governorPhysicalTypeMetadata));
+        synchronized (pendingContributions) {
+            if (metadata.hasSameDeclaration(contributions.get(metadataIdentificationString))) {
+                pendingContributions.remove(metadataIdentificationString);
+            } else {
+                pendingContributions.put(metadataIdentificationString, metadata);
+            }
+        }
+        return metadata;
+    }
+    
+    /**
+     * Flush the servlet declarations queued during the metadata cycle that just ended. Declarations
+     * that fail to be written stay queued for the next cycle.
+     */
+    public void onProcessManagerStatusChange(ProcessManagerStatus oldStatus, ProcessManagerStatus newStatus) {
+        if (newStatus != ProcessManagerStatus.AVAILABLE) {
+            return;
+        }
+        final Map<String, WebxmlMetadata> flushed;
+        synchronized (pendingContributions) {
+            // The process manager becomes available again once the flush itself is executed.
+            if (flushing || pendingContributions.isEmpty()) {
+                return;
+            }
+            flushing = true;
+            flushed = new LinkedHashMap<String, WebxmlMetadata>(pendingContributions);
+        }
+        final List<WebxmlMetadata> servlets = new ArrayList<WebxmlMetadata>(flushed.values());
+        try {
+            processManager.execute(new CommandCallback<Void>() {
+                public Void callback() {
+                    webxmlOperations.addAnnotatedServlets(servlets);
+                    return null;
+                }
+            });
+            synchronized (pendingContributions) {
+                for (Map.Entry<String, WebxmlMetadata> contribution : flushed.entrySet()) {
+                    // A declaration changed during the flush stays queued.
+                    if (pendingContributions.get(contribution.getKey()) == contribution.getValue()) {
+                        pendingContributions.remove(contribution.getKey());
+                    }
+                }
+                contributions.putAll(flushed);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warning("Unable to declare @RooWebxml servlets into web.xml, retrying on next change: " + e.getMessage());
+        } finally {
+            synchronized (pendingContributions) {
+                flushing = false;
+            }
+        }
     }
     
     /**
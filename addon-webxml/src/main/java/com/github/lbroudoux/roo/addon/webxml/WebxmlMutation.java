@@ -0,0 +1,19 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import org.w3c.dom.Document;
+
+/**
+ * A change to be applied to an in-memory web.xml document. Mutations are either applied
+ * and written straight away or queued within a batch (see {@link WebxmlOperations#beginBatch()}).
+ *
+ * @since 0.1.1
+ */
+interface WebxmlMutation {
+
+    /**
+     * Apply this change to the given web.xml document
+     * 
+     * @param document the web.xml document to mutate (required)
+     */
+    void apply(Document document);
+}
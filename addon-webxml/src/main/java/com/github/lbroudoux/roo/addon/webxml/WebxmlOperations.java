@@ -1,5 +1,12 @@
 package com.github.lbroudoux.roo.addon.webxml;
 
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.roo.model.JavaType;
+
 /**
  * Interface of operations this add-on offers. Typically used by a command type or an external add-on.
  *
@@ -17,7 +24,20 @@ public interface WebxmlOperations {
     /**
      * 
      */
-    void addServlet(String name, String clazz, String mapping, Integer loading, String comment);
+    void addServlet(String name, String clazz, String mapping, Integer loading, Boolean async, String comment);
+    
+    /**
+     * Add a filter and its mapping to web.xml
+     * 
+     * @param name the filter name
+     * @param clazz the filter class
+     * @param mapping the url-pattern the filter is mapped to, may be null if servletName is given
+     * @param servletName the servlet the filter is mapped to, may be null if mapping is given
+     * @param dispatchers the dispatcher types of the mapping (REQUEST, FORWARD, INCLUDE, ERROR, ASYNC), may be null
+     * @param async true if the filter supports asynchronous processing
+     * @param comment a comment to add before the filter, may be null
+     */
+    void addFilter(String name, String clazz, String mapping, String servletName, List<String> dispatchers, Boolean async, String comment);
     
     /**
      * 
@@ -28,4 +48,180 @@ public interface WebxmlOperations {
      * 
      */
     void addEnvironmentEntry(String name, String type, String value, String comment);
+    
+    /**
+     * Declare a resource manager connection factory, e.g. a pooled DataSource or a JMS connection
+     * factory, to be looked up from JNDI instead of created by the application
+     * 
+     * @param name the res-ref-name, e.g. "jdbc/MyDataSource"
+     * @param type the res-type, e.g. "javax.sql.DataSource"
+     * @param auth the res-auth, "Container" or "Application", or null to leave it unset
+     * @param sharingScope the res-sharing-scope, "Shareable" or "Unshareable", or null to leave it unset
+     * @param comment a comment to add before the declaration, may be null
+     */
+    void addResourceReference(String name, String type, String auth, String sharingScope, String comment);
+    
+    /**
+     * Declare an administered object to be looked up from JNDI, e.g. a JMS queue or topic
+     * 
+     * @param name the resource-env-ref-name, e.g. "jms/MyQueue"
+     * @param type the resource-env-ref-type, e.g. "javax.jms.Queue"
+     * @param comment a comment to add before the declaration, may be null
+     */
+    void addResourceEnvironmentReference(String name, String type, String comment);
+    
+    /**
+     * Let browsers cache and uncompress static resources: generate a filter setting Cache-Control
+     * and Expires headers, map it and a gzip filter to the given extensions ahead of the existing
+     * filters, and declare the matching mime-mappings.
+     * 
+     * @param extensions the static resource extensions, e.g. "css", or null for the usual asset types
+     * @param maxAge the Cache-Control max-age in seconds, must be positive
+     * @param gzip true to add the gzip filter, and its dependency, for text asset types
+     * @param cachingFilter the caching filter class to generate unless it already exists
+     */
+    void addStaticCaching(List<String> extensions, int maxAge, boolean gzip, JavaType cachingFilter);
+    
+    /**
+     * Configure the HTTP sessions. Null arguments leave the matching configuration untouched.
+     * 
+     * @param timeout the session-timeout in minutes
+     * @param trackingModes the tracking-mode values among COOKIE, URL and SSL, requires web-app 3.0
+     * @param cookieName the name of the session cookie, requires web-app 3.0
+     * @param httpOnly whether the session cookie is hidden from scripts, requires web-app 3.0
+     * @param secure whether the session cookie is only sent over HTTPS, requires web-app 3.0
+     * @param distributable true to declare the application distributable, i.e. its sessions may be
+     *        replicated across nodes, false to remove the declaration
+     */
+    void configureSession(Integer timeout, List<String> trackingModes, String cookieName, Boolean httpOnly, 
+          Boolean secure, Boolean distributable);
+    
+    /**
+     * Move the context params, listeners, filters and servlets of web.xml into a generated
+     * <code>ServletContainerInitializer</code> registering them through the Servlet 3 API, and mark
+     * web.xml metadata-complete. Exported declarations are kept into web-initializer.xml at the
+     * module root, outside the packaged webapp, so that running the command again regenerates the
+     * initializer with the previously exported declarations and the ones added to web.xml since.
+     * A javax.servlet servlet-api dependency is replaced by the Servlet 3 one.
+     * 
+     * @param initializer the initializer class to generate
+     */
+    void exportInitializer(JavaType initializer);
+    
+    /**
+     * Declare the servlets of {@link RooWebxml} annotated types, writing web.xml once
+     * 
+     * @param servlets the metadata of the annotated types
+     */
+    void addAnnotatedServlets(Collection<WebxmlMetadata> servlets);
+    
+    /**
+     * Import all the servlets, context params and env entries of a manifest file, writing web.xml
+     * once, or not at all if any declaration of the manifest is invalid.
+     * 
+     * @param manifest a .properties, .csv or .xml manifest file
+     */
+    void importDeclarations(File manifest);
+    
+    /**
+     * Tune web.xml so that the container does less work at startup: upgrade the descriptor to at
+     * least the given version, set metadata-complete so that annotations are not scanned and
+     * write an explicit absolute-ordering so that only the listed web-fragments are processed.
+     * 
+     * @param version the minimum web-app version, 3.0 or later
+     * @param fragments the names of the web-fragments to keep or null to keep the named fragments
+     *        found into the project dependencies
+     * @param others true to add &lt;others/&gt; to the ordering, i.e. keep processing unlisted jars
+     */
+    void tuneStartup(String version, List<String> fragments, boolean others);
+    
+    /**
+     * Start a batch: following declarations are applied to a single in-memory web.xml
+     * document that is only written to disk when the batch is committed.
+     */
+    void beginBatch();
+    
+    /**
+     * Write all the declarations queued since {@link #beginBatch()} in a single write.
+     */
+    void commitBatch();
+    
+    /**
+     * Discard all the declarations queued since {@link #beginBatch()}, leaving web.xml untouched.
+     */
+    void rollbackBatch();
+    
+    /**
+     * Indicate whether a batch is in progress
+     * 
+     * @return true if declarations are currently queued into a batch, otherwise false
+     */
+    boolean isBatchActive();
+    
+    /**
+     * Write the pending web.xml changes now instead of at the end of the current command or
+     * once no change came in for a while. Changes held by a batch are left pending.
+     */
+    void flush();
+    
+    /**
+     * Run an operation against the web.xml of several modules at once. Descriptors are parsed and
+     * changed in parallel, then written one after the other. Project changes the operation requires,
+     * such as dependencies or generated sources, are made once the module web.xml is written, failed
+     * modules being left untouched.
+     * 
+     * @param modules comma separated globs of the module names to target, or "all" (required)
+     * @param operation the operation to run for each module, e.g. a call to {@link #addContextParam(String, String, String)} (required)
+     * @return the outcome by module name: "updated", "unchanged" or "failed: " followed by the cause
+     */
+    Map<String, String> forEachModule(String modules, Runnable operation);
+    
+    /**
+     * @return the timings and counters of reading, changing and writing web.xml since the last reset
+     */
+    WebxmlStats getStats();
+    
+    /**
+     * Start timings and counters over
+     */
+    void resetStats();
+    
+    /**
+     * Dump the timings and counters as JSON
+     * 
+     * @param file the file to write, overwritten if it exists (required)
+     */
+    void writeStats(File file);
+    
+    /**
+     * Read the declarations of web.xml without building a DOM
+     * 
+     * @param elementNames the top-level element names of the declarations to read, e.g. "servlet"
+     * @return the matching declarations in document order
+     */
+    List<WebxmlEntry> findEntries(String... elementNames);
+    
+    /**
+     * Read the first declaration of web.xml having the given name, stopping as soon as it is found
+     * 
+     * @param name the declaration name (servlet-name, param-name, ...)
+     * @return the matching declaration or null if none
+     */
+    WebxmlEntry findEntry(String name);
+    
+    /**
+     * Resolve the servlet and the filter chain a request would go through given the mappings of web.xml
+     * 
+     * @param path the request path relative to the context, e.g. "/images/logo.png"
+     * @return the dispatch outcome
+     */
+    WebxmlDispatch explainUrl(String path);
+    
+    /**
+     * Resolve the servlet and the filter chain of a representative path of every servlet mapping
+     * and of every static resource directory of the webapp
+     * 
+     * @return the dispatch outcomes, the ones going through the most filters first
+     */
+    List<WebxmlDispatch> explainUrls();
 }
\ No newline at end of file
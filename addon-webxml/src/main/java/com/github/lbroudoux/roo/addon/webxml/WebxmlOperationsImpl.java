@@ -1,36 +1,71 @@
 package com.github.lbroudoux.roo.addon.webxml;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
+import org.osgi.service.component.ComponentContext;
 import org.springframework.roo.classpath.TypeLocationService;
 import org.springframework.roo.classpath.TypeManagementService;
 import org.springframework.roo.classpath.details.MemberFindingUtils;
 import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetails;
 import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetailsBuilder;
 import org.springframework.roo.classpath.details.annotations.AnnotationMetadataBuilder;
+import org.springframework.roo.file.monitor.event.FileDetails;
+import org.springframework.roo.file.monitor.event.FileEvent;
+import org.springframework.roo.file.monitor.event.FileEventListener;
 import org.springframework.roo.model.JavaType;
+import org.springframework.roo.process.manager.CommandCallback;
 import org.springframework.roo.process.manager.FileManager;
+import org.springframework.roo.process.manager.ProcessManager;
+import org.springframework.roo.process.manager.ProcessManagerStatus;
+import org.springframework.roo.process.manager.ProcessManagerStatusListener;
+import org.springframework.roo.project.LogicalPath;
 import org.springframework.roo.project.Path;
+import org.springframework.roo.project.Property;
 import org.springframework.roo.project.PathResolver;
 import org.springframework.roo.project.ProjectOperations;
 import org.springframework.roo.project.Dependency;
 import org.springframework.roo.project.DependencyScope;
 import org.springframework.roo.project.DependencyType;
 import org.springframework.roo.project.Repository;
-import org.springframework.roo.support.util.WebXmlUtils;
+import org.springframework.roo.project.maven.Pom;
+import org.springframework.roo.support.logging.HandlerUtils;
 import org.springframework.roo.support.util.XmlElementBuilder;
-import org.springframework.roo.support.util.WebXmlUtils.WebXmlParam;
 import org.springframework.roo.support.util.XmlUtils;
+import org.w3c.dom.Comment;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 /**
  * Implementation of operations this add-on offers.
@@ -39,18 +74,88 @@ import org.w3c.dom.NodeList;
  */
 @Component // Use these Apache Felix annotations to register your commands class in the Roo container
 @Service
-public class WebxmlOperationsImpl implements WebxmlOperations {
+public class WebxmlOperationsImpl implements WebxmlOperations, FileEventListener, ProcessManagerStatusListener {
+    
+    private static final Logger LOGGER = HandlerUtils.getLogger(WebxmlOperationsImpl.class);
+    
+    /** The dispatcher types a filter-mapping may declare. */
+    private static final List<String> DISPATCHERS = Arrays.asList("REQUEST", "FORWARD", "INCLUDE", "ERROR", "ASYNC");
+    
+    /** The children of a servlet declaration following its init-params. */
+    private static final String[] SERVLET_CHILDREN_AFTER_INIT_PARAMS = { "load-on-startup", "enabled", "async-supported", 
+          "run-as", "security-role-ref", "multipart-config" };
+    
+    /** The static resource extensions add-static-caching knows the mime type of. */
+    private static final Map<String, String> STATIC_MIME_TYPES = new LinkedHashMap<String, String>();
+    /** The static resource extensions worth compressing, i.e. the text ones. */
+    private static final Set<String> COMPRESSIBLE_EXTENSIONS = new HashSet<String>(Arrays.asList("css", "js", "svg"));
+    
+    static {
+       STATIC_MIME_TYPES.put("css", "text/css");
+       STATIC_MIME_TYPES.put("js", "application/javascript");
+       STATIC_MIME_TYPES.put("svg", "image/svg+xml");
+       STATIC_MIME_TYPES.put("png", "image/png");
+       STATIC_MIME_TYPES.put("gif", "image/gif");
+       STATIC_MIME_TYPES.put("jpg", "image/jpeg");
+       STATIC_MIME_TYPES.put("ico", "image/x-icon");
+       STATIC_MIME_TYPES.put("woff", "application/font-woff");
+    }
+    
+    /** The tracking modes a session-config may declare. */
+    private static final List<String> TRACKING_MODES = Arrays.asList("COOKIE", "URL", "SSL");
+    
+    /** Declarations moved into the generated initializer, relative to the module root: outside the webapp, never packaged. */
+    private static final String INITIALIZER_STORE = "web-initializer.xml";
+    
+    /** The res-auth values of a resource-ref. */
+    private static final List<String> RESOURCE_AUTHS = Arrays.asList("Container", "Application");
+    /** The res-sharing-scope values of a resource-ref. */
+    private static final List<String> SHARING_SCOPES = Arrays.asList("Shareable", "Unshareable");
+    
+    private static final String GZIP_FILTER_CLASS = "net.sf.ehcache.constructs.web.filter.GzipFilter";
+    static final String GZIP_FILTER_GROUP_ID = "net.sf.ehcache";
+    static final String GZIP_FILTER_ARTIFACT_ID = "ehcache-web";
+    static final String GZIP_FILTER_VERSION = "2.0.4";
+    
+    /** Timings and counters of the add-on phases, shared by all instances as phases are static helpers. */
+    private static final WebxmlStats STATS = new WebxmlStats();
+    
+    /** Time without new change after which pending web.xml changes are written, in milliseconds. */
+    private static final long QUIET_PERIOD = 250;
     
     @Reference private FileManager fileManager;
     @Reference private PathResolver pathResolver;
     
-    private static final String WEB_APP_XPATH = "/web-app/";
-    private static final String WHITESPACE = "[ \t\r\n]";
+    @Reference private ProcessManager processManager;
+    
+    /** Parsed web.xml documents, reused until the file changes on disk. */
+    private final WebxmlDocumentCache documentCache = new WebxmlDocumentCache();
+    
+    /** Apply the mutations of shell commands and metadata updates to one shared document per web.xml path. */
+    private final Map<String, WebxmlWriter> writers = new HashMap<String, WebxmlWriter>();
+    
+    /** The web.xml path operations of the current thread target instead of the focused module one. */
+    private final ThreadLocal<String> moduleWebXmlPath = new ThreadLocal<String>();
+    
+    /** The module operations of the current thread target instead of the focused one. */
+    private final ThreadLocal<String> targetModuleName = new ThreadLocal<String>();
+    
+    /** Project changes required by the operations run for a module, made once its web.xml is written. */
+    private final Map<String, List<Runnable>> moduleProjectChanges = new ConcurrentHashMap<String, List<Runnable>>();
    
     /**
      * Use ProjectOperations to install new dependencies, plugins, properties, etc into the project configuration
      */
     @Reference private ProjectOperations projectOperations;
+    
+    protected void activate(ComponentContext context) {
+       processManager.addProcessManagerStatusListener(this);
+    }
+    
+    protected void deactivate(ComponentContext context) {
+       processManager.removeProcessManagerStatusListener(this);
+       flushWithinProcess();
+    }
 
 
     /** {@inheritDoc} */
@@ -60,73 +165,1457 @@ public class WebxmlOperationsImpl implements WebxmlOperations {
     }
     
     /** {@inheritDoc} */
-    public void addServlet(String name, String clazz, String mapping, Integer loading, String comment){
-       Document webXmlDoc = retrieveWebXmlDocument();
-       WebXmlUtils.addServlet(name, clazz, mapping, loading, webXmlDoc, comment);
-       writeWebXmlDocument(webXmlDoc);
+    public void addServlet(final String name, final String clazz, final String mapping, final Integer loading, final Boolean async, final String comment){
+       applyMutation(new WebxmlMutation() {
+          public void apply(Document document) {
+             addServlet(document, name, clazz, mapping, loading, async, comment);
+             warnAboutBlockingFilters(document, null, name);
+          }
+       });
     }
     
     /** {@inheritDoc} */
-    public void addContextParam(String name, String value, String comment){
-       Document webXmlDoc = retrieveWebXmlDocument();
-       WebXmlUtils.addContextParam(new WebXmlParam(name, value), webXmlDoc, comment);
-       writeWebXmlDocument(webXmlDoc);
+    public void addFilter(final String name, final String clazz, final String mapping, final String servletName, 
+          final List<String> dispatchers, final Boolean async, final String comment){
+       applyMutation(new WebxmlMutation() {
+          public void apply(Document document) {
+             addFilter(document, name, clazz, mapping, servletName, dispatchers, async, comment, false);
+             warnAboutBlockingFilters(document, name, null);
+          }
+       });
     }
     
     /** {@inheritDoc} */
-    public void addEnvironmentEntry(String name, String type, String value, String comment){
-       Document webXmlDoc = retrieveWebXmlDocument();
-       addEnvironmentEntry(webXmlDoc, name, type, value, comment);
-       writeWebXmlDocument(webXmlDoc);
+    public void addContextParam(final String name, final String value, final String comment){
+       applyMutation(new WebxmlMutation() {
+          public void apply(Document document) {
+             addContextParam(document, name, value, comment);
+          }
+       });
     }
     
-    private Document retrieveWebXmlDocument(){
-       // Verify that the web.xml already exists
-       final String webXmlPath = pathResolver.getFocusedIdentifier( Path.SRC_MAIN_WEBAPP, "WEB-INF/web.xml");
-       Validate.isTrue(fileManager.exists(webXmlPath), "'" + webXmlPath + "' does not exist");
-
-       final Document webXmlDoc = XmlUtils.readXml(fileManager.getInputStream(webXmlPath));
+    /** {@inheritDoc} */
+    public void addEnvironmentEntry(final String name, final String type, final String value, final String comment){
+       applyMutation(new WebxmlMutation() {
+          public void apply(Document document) {
+             addEnvironmentEntry(document, name, type, value, comment);
+          }
+       });
+    }
+    
+    /** {@inheritDoc} */
+    public void addResourceReference(final String name, final String type, final String auth, final String sharingScope, 
+          final String comment){
+       applyMutation(new WebxmlMutation() {
+          public void apply(Document document) {
+             addResourceReference(document, name, type, auth, sharingScope, comment);
+          }
+       });
+    }
+    
+    /** {@inheritDoc} */
+    public void addResourceEnvironmentReference(final String name, final String type, final String comment){
+       applyMutation(new WebxmlMutation() {
+          public void apply(Document document) {
+             addResourceEnvironmentReference(document, name, type, comment);
+          }
+       });
+    }
+    
+    /** {@inheritDoc} */
+    public void addStaticCaching(List<String> extensions, final int maxAge, final boolean gzip, final JavaType cachingFilter){
+       final List<String> staticExtensions = extensions == null || extensions.isEmpty() 
+             ? new ArrayList<String>(STATIC_MIME_TYPES.keySet()) : extensions;
+       for (String extension : staticExtensions) {
+          Validate.isTrue(STATIC_MIME_TYPES.containsKey(extension), "Unsupported static resource extension '%s', expecting one of %s", 
+                extension, StringUtils.join(STATIC_MIME_TYPES.keySet(), ", "));
+       }
+       Validate.isTrue(maxAge > 0, "Max age must be a positive number of seconds");
+       Validate.notNull(cachingFilter, "Caching filter class required");
+       applyMutation(new WebxmlMutation() {
+          public void apply(Document document) {
+             addStaticCaching(document, staticExtensions, maxAge, gzip, cachingFilter.getFullyQualifiedTypeName());
+          }
+       });
+       final String moduleName = getTargetModuleName();
+       changeProject(new Runnable() {
+          public void run() {
+             // An existing filter is the user's own, possibly customized, one.
+             final String cachingFilterPath = pathResolver.getIdentifier(LogicalPath.getInstance(Path.SRC_MAIN_JAVA, moduleName), 
+                   cachingFilter.getFullyQualifiedTypeName().replace('.', '/') + ".java");
+             if (!fileManager.exists(cachingFilterPath)) {
+                fileManager.createOrUpdateTextFileIfRequired(cachingFilterPath, buildCachingFilter(cachingFilter), false);
+             }
+             if (gzip) {
+                projectOperations.addDependency(moduleName, 
+                      new Dependency(GZIP_FILTER_GROUP_ID, GZIP_FILTER_ARTIFACT_ID, GZIP_FILTER_VERSION));
+             }
+          }
+       });
+    }
+    
+    /** {@inheritDoc} */
+    public void configureSession(final Integer timeout, final List<String> trackingModes, final String cookieName, 
+          final Boolean httpOnly, final Boolean secure, final Boolean distributable){
+       Validate.isTrue(timeout != null || trackingModes != null || cookieName != null || httpOnly != null 
+             || secure != null || distributable != null, "At least one session option is required");
+       if (trackingModes != null) {
+          Validate.notEmpty(trackingModes, "At least one tracking mode is required");
+          for (String trackingMode : trackingModes) {
+             Validate.isTrue(TRACKING_MODES.contains(trackingMode), "Unknown tracking mode '%s', expecting one of %s", 
+                   trackingMode, StringUtils.join(TRACKING_MODES, ", "));
+          }
+          Validate.isTrue(!trackingModes.contains("SSL") || trackingModes.size() == 1, 
+                "SSL tracking mode cannot be combined with other tracking modes");
+       }
+       applyMutation(new WebxmlMutation() {
+          public void apply(Document document) {
+             configureSession(document, timeout, trackingModes, cookieName, httpOnly, secure, distributable);
+          }
+       });
+    }
+    
+    /** {@inheritDoc} */
+    public void exportInitializer(final JavaType initializer){
+       Validate.notNull(initializer, "Initializer class required");
+       Validate.isTrue(!isBatchActive(), "Initializer cannot be exported while a webxml batch is in progress");
+       final String storePath = pathResolver.getFocusedIdentifier(Path.ROOT, INITIALIZER_STORE);
+       final Document store = fileManager.exists(storePath) ? XmlUtils.readXml(fileManager.getInputStream(storePath)) 
+             : XmlUtils.getDocumentBuilder().newDocument();
+       if (store.getDocumentElement() == null) {
+          store.appendChild(store.createElement("web-app"));
+       }
+       applyMutation(new WebxmlMutation() {
+          public void apply(Document document) {
+             Validate.isTrue(WebxmlVersions.isAtLeast(document, "3.0"), "Programmatic registration requires web-app version 3.0 "
+                   + "or later while web.xml is %s, run 'webxml tune-startup' to upgrade it", WebxmlVersions.of(document));
+             exportDeclarations(document, store);
+             setAttribute(document.getDocumentElement(), "metadata-complete", "true");
+          }
+       });
+       // Declarations move out of web.xml and into the store within the same command.
+       getWriter().flush();
+       
+       final ByteArrayOutputStream storeContent = new ByteArrayOutputStream();
+       XmlUtils.writeFormattedXml(storeContent, store);
+       try {
+          fileManager.createOrUpdateTextFileIfRequired(storePath, storeContent.toString("UTF-8"), false);
+       } catch (IOException ioe) {
+          throw new IllegalStateException(ioe);
+       }
+       fileManager.createOrUpdateTextFileIfRequired(pathResolver.getFocusedIdentifier(Path.SRC_MAIN_JAVA, 
+             initializer.getFullyQualifiedTypeName().replace('.', '/') + ".java"), buildInitializer(initializer, store), false);
+       registerInitializerService(initializer);
        
-       return webXmlDoc;
+       // Registration API is Servlet 3: replace the 2.5 API Roo projects are created with.
+       final Pom pom = projectOperations.getFocusedModule();
+       for (Dependency dependency : new ArrayList<Dependency>(pom.getDependencies())) {
+          if ("javax.servlet".equals(dependency.getGroupId()) && "servlet-api".equals(dependency.getArtifactId())) {
+             projectOperations.removeDependency(pom.getModuleName(), dependency);
+             LOGGER.warning("Replaced dependency javax.servlet:servlet-api:" + dependency.getVersion() 
+                   + " with javax.servlet:javax.servlet-api:3.0.1, the initializer needs the Servlet 3 API");
+          }
+       }
+       projectOperations.addDependency(pom.getModuleName(), new Dependency("javax.servlet", "javax.servlet-api", "3.0.1", 
+             DependencyType.JAR, DependencyScope.PROVIDED));
+    }
+    
+    /** {@inheritDoc} */
+    public void addAnnotatedServlets(final Collection<WebxmlMetadata> servlets){
+       applyMutation(new WebxmlMutation() {
+          public void apply(Document document) {
+             for (WebxmlMetadata servlet : servlets) {
+                addServlet(document, servlet.getServletName(), servlet.getServletClass(), servlet.getMappings().get(0), 
+                      servlet.getLoadOnStartup(), servlet.getAsync(), null);
+                final Element servletElement = WebxmlIndex.of(document).find("servlet", servlet.getServletName());
+                for (Map.Entry<String, String> initParam : servlet.getInitParams().entrySet()) {
+                   setInitParam(servletElement, initParam.getKey(), initParam.getValue(), SERVLET_CHILDREN_AFTER_INIT_PARAMS);
+                }
+                final Element servletMappingElement = WebxmlIndex.of(document).find("servlet-mapping", servlet.getServletName());
+                for (String mapping : servlet.getMappings()) {
+                   appendChildIfNotPresent(servletMappingElement, new XmlElementBuilder("url-pattern", document)
+                         .setText(mapping).build());
+                }
+                warnAboutBlockingFilters(document, null, servlet.getServletName());
+             }
+          }
+       });
+    }
+    
+    /** {@inheritDoc} */
+    public void importDeclarations(final File manifest){
+       Validate.notNull(manifest, "Manifest file required");
+       Validate.isTrue(manifest.isFile(), "'" + manifest + "' does not exist");
+       final List<String> added = new ArrayList<String>();
+       final List<String> updated = new ArrayList<String>();
+       final List<String> skipped = new ArrayList<String>();
+       // Declarations are applied as they are read; an invalid manifest fails the mutation, which
+       // discards the document so that nothing is written.
+       applyMutation(new WebxmlMutation() {
+          public void apply(final Document document) {
+             final WebxmlIndex index = WebxmlIndex.of(document);
+             WebxmlManifest.read(manifest, new WebxmlManifest.DeclarationHandler() {
+                public void handle(WebxmlDeclaration declaration) {
+                   final Element existing = index.find(declaration.getKind(), declaration.getName());
+                   final long hashBefore = existing == null ? 0 : hashDeclaration(index, declaration);
+                   applyDeclaration(document, declaration);
+                   if (existing == null) {
+                      added.add(declaration.toString());
+                   } else if (hashDeclaration(index, declaration) != hashBefore) {
+                      updated.add(declaration.toString());
+                   } else {
+                      skipped.add(declaration.toString());
+                   }
+                }
+             });
+          }
+       });
+       LOGGER.info("Imported " + manifest.getName() + ": " + added.size() + " added, " + updated.size()
+             + " updated, " + skipped.size() + " skipped");
+       logDeclarations("Added", added);
+       logDeclarations("Updated", updated);
+       logDeclarations("Skipped", skipped);
+    }
+    
+    /** {@inheritDoc} */
+    public void tuneStartup(final String version, final List<String> fragments, final boolean others){
+       Validate.isTrue(WebxmlVersions.isSupported(version) && WebxmlVersions.compare(version, "3.0") >= 0,
+             "Version must be 3.0 or later to support metadata-complete and absolute-ordering");
+       final List<String> names = new ArrayList<String>();
+       if (fragments == null) {
+          final List<String> unnamed = new ArrayList<String>();
+          WebxmlFragmentScanner.scan(getDependencyJars(), names, unnamed);
+          if (!unnamed.isEmpty()) {
+             LOGGER.warning("Web-fragments without name cannot be listed in absolute-ordering, they will be "
+                   + (others ? "ordered as <others/>" : "ignored") + ": " + StringUtils.join(unnamed, ", "));
+          }
+       } else {
+          names.addAll(fragments);
+       }
+       applyMutation(new WebxmlMutation() {
+          public void apply(Document document) {
+             if (!WebxmlVersions.isAtLeast(document, version)) {
+                WebxmlVersions.upgrade(document, version);
+                WebxmlSplicer.requireFullWrite(document);
+             }
+             setAttribute(document.getDocumentElement(), "metadata-complete", "true");
+             setAbsoluteOrdering(document, names, others);
+          }
+       });
+       LOGGER.info("Absolute ordering set to " + (names.isEmpty() ? "no web-fragment" : StringUtils.join(names, ", "))
+             + (others ? " then others" : ""));
+    }
+    
+    /** {@inheritDoc} */
+    public List<WebxmlEntry> findEntries(final String... elementNames){
+       final List<WebxmlEntry> entries = new ArrayList<WebxmlEntry>();
+       streamWebXmlDocument(new HashSet<String>(Arrays.asList(elementNames)), new WebxmlReader.EntryHandler() {
+          public boolean handle(WebxmlEntry entry) {
+             entries.add(entry);
+             return true;
+          }
+       });
+       return entries;
+    }
+    
+    /** {@inheritDoc} */
+    public WebxmlEntry findEntry(final String name){
+       Validate.notBlank(name, "Declaration name required");
+       final List<WebxmlEntry> found = new ArrayList<WebxmlEntry>(1);
+       streamWebXmlDocument(null, new WebxmlReader.EntryHandler() {
+          public boolean handle(WebxmlEntry entry) {
+             if (name.equals(entry.getName())) {
+                found.add(entry);
+                return false;
+             }
+             return true;
+          }
+       });
+       return found.isEmpty() ? null : found.get(0);
+    }
+    
+    /** {@inheritDoc} */
+    public WebxmlDispatch explainUrl(String path){
+       Validate.notBlank(path, "Request path required");
+       return compileDispatcher().dispatch(path);
+    }
+    
+    /** {@inheritDoc} */
+    public List<WebxmlDispatch> explainUrls(){
+       final WebxmlDispatcher dispatcher = compileDispatcher();
+       final Set<String> paths = new LinkedHashSet<String>(dispatcher.getSamplePaths());
+       paths.addAll(getStaticResourcePaths());
+       final List<WebxmlDispatch> dispatches = new ArrayList<WebxmlDispatch>();
+       for (String path : paths) {
+          dispatches.add(dispatcher.dispatch(path));
+       }
+       Collections.sort(dispatches, new Comparator<WebxmlDispatch>() {
+          public int compare(WebxmlDispatch d1, WebxmlDispatch d2) {
+             return d2.getFilterNames().size() - d1.getFilterNames().size();
+          }
+       });
+       return dispatches;
+    }
+    
+    /** {@inheritDoc} */
+    public void beginBatch(){
+       getWriter().hold();
+    }
+    
+    /** {@inheritDoc} */
+    public void commitBatch(){
+       final WebxmlWriter writer = getWriter();
+       Validate.isTrue(writer.isHeld(), "No webxml batch in progress");
+       writer.release();
+    }
+    
+    /** {@inheritDoc} */
+    public void rollbackBatch(){
+       final WebxmlWriter writer = getWriter();
+       Validate.isTrue(writer.isHeld(), "No webxml batch in progress");
+       writer.discard();
+    }
+    
+    /** {@inheritDoc} */
+    public boolean isBatchActive(){
+       return getWriter().isHeld();
+    }
+    
+    /** {@inheritDoc} */
+    public void flush(){
+       for (WebxmlWriter writer : getWriters()) {
+          writer.flush();
+       }
+    }
+    
+    /** {@inheritDoc} */
+    public Map<String, String> forEachModule(final String modules, final Runnable operation){
+       Validate.notBlank(modules, "Modules required");
+       Validate.notNull(operation, "Operation required");
+       Validate.isTrue(!isBatchActive(), "Modules cannot be targeted while a webxml batch is in progress");
+       final Map<String, String> webXmlPaths = new LinkedHashMap<String, String>();
+       for (String moduleName : projectOperations.getModuleNames()) {
+          final String webXmlPath = pathResolver.getIdentifier(LogicalPath.getInstance(Path.SRC_MAIN_WEBAPP, moduleName), 
+                "WEB-INF/web.xml");
+          if (matchesModules(moduleName, modules) && fileManager.exists(webXmlPath)) {
+             webXmlPaths.put(moduleName, webXmlPath);
+          }
+       }
+       Validate.isTrue(!webXmlPaths.isEmpty(), "No module having a web.xml matches '%s'", modules);
+       
+       // Parse and mutate every descriptor in parallel, each one having its own writer. The pool is a
+       // bounded fixed one: ForkJoinPool is a Java 7 API and Roo 1.2 still runs on Java 6.
+       final ExecutorService executor = Executors.newFixedThreadPool(Math.min(webXmlPaths.size(), 
+             Runtime.getRuntime().availableProcessors()));
+       final Map<String, Future<?>> results = new LinkedHashMap<String, Future<?>>();
+       try {
+          for (Map.Entry<String, String> webXmlPath : webXmlPaths.entrySet()) {
+             final String moduleName = webXmlPath.getKey();
+             final String path = webXmlPath.getValue();
+             // Changes made before are not part of this run and must survive a module failure.
+             getWriter(path).flush();
+             moduleProjectChanges.put(moduleName, new ArrayList<Runnable>());
+             results.put(moduleName, executor.submit(new Runnable() {
+                public void run() {
+                   moduleWebXmlPath.set(path);
+                   targetModuleName.set(moduleName);
+                   try {
+                      operation.run();
+                   } finally {
+                      moduleWebXmlPath.remove();
+                      targetModuleName.remove();
+                   }
+                }
+             }));
+          }
+          // Writes and project changes go through the services of the current command, hence from this thread only.
+          final Map<String, String> outcomes = new LinkedHashMap<String, String>();
+          for (Map.Entry<String, Future<?>> result : results.entrySet()) {
+             final String moduleName = result.getKey();
+             try {
+                result.getValue().get();
+                outcomes.put(moduleName, getWriter(webXmlPaths.get(moduleName)).flush() ? "updated" : "unchanged");
+                for (Runnable change : moduleProjectChanges.get(moduleName)) {
+                   change.run();
+                }
+             } catch (ExecutionException ee) {
+                getWriter(webXmlPaths.get(moduleName)).discard();
+                outcomes.put(moduleName, "failed: " + ee.getCause().getMessage());
+             } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while updating module '" + moduleName + "'", ie);
+             }
+          }
+          return outcomes;
+       } finally {
+          executor.shutdownNow();
+          for (String moduleName : webXmlPaths.keySet()) {
+             moduleProjectChanges.remove(moduleName);
+          }
+       }
+    }
+    
+    /** {@inheritDoc} */
+    public WebxmlStats getStats(){
+       return STATS.snapshot();
+    }
+    
+    /** {@inheritDoc} */
+    public void resetStats(){
+       STATS.reset();
+    }
+    
+    /** {@inheritDoc} */
+    public void writeStats(File file){
+       Validate.notNull(file, "Stats file required");
+       try {
+          writeFully(new FileOutputStream(file), STATS.snapshot().toJson().getBytes("UTF-8"));
+       } catch (IOException ioe) {
+          throw new IllegalStateException("Unable to write stats to '" + file + "'", ioe);
+       }
+       LOGGER.info("Stats written to " + file.getAbsolutePath());
+    }
+    
+    /**
+     * Write the pending changes once the shell command or metadata update that made them is over.
+     */
+    public void onProcessManagerStatusChange(ProcessManagerStatus oldStatus, ProcessManagerStatus newStatus){
+       if (newStatus != ProcessManagerStatus.AVAILABLE) {
+          return;
+       }
+       for (WebxmlWriter writer : getWriters()) {
+          if (writer.hasPendingChanges()) {
+             flushWithinProcess();
+             return;
+          }
+       }
+    }
+    
+    /**
+     * Flush the pending changes through the process manager, so that the write is undoable and
+     * never interleaves with a running command.
+     */
+    private void flushWithinProcess(){
+       processManager.execute(new CommandCallback<Void>() {
+          public Void callback() {
+             flush();
+             return null;
+          }
+       });
+    }
+    
+    /**
+     * Check whether a module name matches a comma separated list of globs, "all" matching every module
+     */
+    private static boolean matchesModules(String moduleName, String modules){
+       for (String glob : StringUtils.stripAll(StringUtils.split(modules, ","))) {
+          if ("all".equals(glob)) {
+             return true;
+          }
+          final StringBuilder regex = new StringBuilder();
+          for (char c : glob.toCharArray()) {
+             if (c == '*') {
+                regex.append(".*");
+             } else if (c == '?') {
+                regex.append('.');
+             } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+             }
+          }
+          if (Pattern.matches(regex.toString(), moduleName)) {
+             return true;
+          }
+       }
+       return false;
     }
     
-    private void writeWebXmlDocument(Document document){
-       final String webXmlPath = pathResolver.getFocusedIdentifier( Path.SRC_MAIN_WEBAPP, "WEB-INF/web.xml");
+    /**
+     * Apply a mutation to web.xml. The mutation is applied to the document shared by all callers
+     * and written with the other pending changes at the end of the command or batch, or once no
+     * change came in for a quiet period. A failing mutation rolls back the whole batch if any.
+     * 
+     * @param mutation the change to apply (required)
+     */
+    private void applyMutation(final WebxmlMutation mutation){
+       getWriter().apply(mutation);
+    }
+    
+    /**
+     * @return the writer of the web.xml the current thread targets
+     */
+    private WebxmlWriter getWriter(){
+       return getWriter(getWebXmlPath());
+    }
+    
+    private WebxmlWriter getWriter(final String webXmlPath){
+       synchronized (writers) {
+          WebxmlWriter writer = writers.get(webXmlPath);
+          if (writer == null) {
+             writer = new WebxmlWriter(new WebxmlWriter.Storage() {
+                public Document load() {
+                   return retrieveWebXmlDocument(webXmlPath);
+                }
+                public boolean store(Document document, long hashBefore) {
+                   return writeWebXmlDocumentIfChanged(document, hashBefore, webXmlPath);
+                }
+                public void discard() {
+                   // Cached document has been mutated in place, it no longer reflects the file.
+                   documentCache.evict(webXmlPath);
+                }
+             }, QUIET_PERIOD, new Runnable() {
+                public void run() {
+                   flushWithinProcess();
+                }
+             });
+             writers.put(webXmlPath, writer);
+          }
+          return writer;
+       }
+    }
+    
+    private List<WebxmlWriter> getWriters(){
+       synchronized (writers) {
+          return new ArrayList<WebxmlWriter>(writers.values());
+       }
+    }
+    
+    /**
+     * Write web.xml unless the document content is the same as before it was mutated. Skipping
+     * the write also avoids undo entries and file monitor notifications for no-op commands.
+     * 
+     * @param document the mutated document (required)
+     * @param hashBefore the content hash of the document before mutations
+     * @param webXmlPath the path of the web.xml file to write (required)
+     * @return true if the file has been written, false if unchanged
+     */
+    private boolean writeWebXmlDocumentIfChanged(Document document, long hashBefore, String webXmlPath){
+       if (WebxmlFingerprint.hash(document) == hashBefore) {
+          LOGGER.info("web.xml unchanged");
+          return false;
+       }
+       writeWebXmlDocument(document, webXmlPath);
+       return true;
+    }
+    
+    /**
+     * Evict cached web.xml documents when they are changed on disk by anyone but us.
+     */
+    public void onFileEvent(final FileEvent fileEvent){
+       final FileDetails fileDetails = fileEvent.getFileDetails();
+       final File file = fileDetails.getFile();
+       documentCache.fileChanged(fileDetails.getCanonicalPath(), file.exists() ? fileDetails.getLastModified() : null, file.length());
+    }
+    
+    private WebxmlDispatcher compileDispatcher(){
+       return new WebxmlDispatcher(findEntries("servlet-mapping", "filter-mapping"));
+    }
+    
+    /**
+     * Build a sample request path for each top-level file and resource directory of the webapp,
+     * using the first file found into the directory so that extension mappings apply.
+     */
+    private List<String> getStaticResourcePaths(){
+       final List<String> paths = new ArrayList<String>();
+       final File[] files = new File(pathResolver.getFocusedIdentifier(Path.SRC_MAIN_WEBAPP, "")).listFiles();
+       if (files == null) {
+          return paths;
+       }
+       Arrays.sort(files);
+       for (File file : files) {
+          if ("WEB-INF".equals(file.getName()) || "META-INF".equals(file.getName())) {
+             continue;
+          }
+          String path = "/" + file.getName();
+          File current = file;
+          while (current.isDirectory()) {
+             final File[] children = current.listFiles();
+             if (children == null || children.length == 0) {
+                path += "/";
+                break;
+             }
+             Arrays.sort(children);
+             current = children[0];
+             path += "/" + current.getName();
+          }
+          paths.add(path);
+       }
+       return paths;
+    }
+    
+    private String getTargetModuleName(){
+       final String moduleName = targetModuleName.get();
+       return moduleName != null ? moduleName : projectOperations.getFocusedModuleName();
+    }
+    
+    /**
+     * Make a change to the project of the module targeted by the current operation, such as adding a
+     * dependency or a source file. Within {@link #forEachModule} it is only recorded, project changes
+     * being made from the command thread once the module web.xml is written.
+     */
+    private void changeProject(Runnable change){
+       final String moduleName = targetModuleName.get();
+       if (moduleName == null) {
+          change.run();
+       } else {
+          moduleProjectChanges.get(moduleName).add(change);
+       }
+    }
+    
+    private String getWebXmlPath(){
+       final String webXmlPath = moduleWebXmlPath.get();
+       return webXmlPath != null ? webXmlPath : pathResolver.getFocusedIdentifier(Path.SRC_MAIN_WEBAPP, "WEB-INF/web.xml");
+    }
+    
+    private Document retrieveWebXmlDocument(String webXmlPath){
+       final long start = System.nanoTime();
+       try {
+          // Verify that the web.xml already exists
+          Validate.isTrue(fileManager.exists(webXmlPath), "'" + webXmlPath + "' does not exist");
+
+          // Reuse the already parsed tree as long as the file has not changed.
+          final FileDetails webXmlDetails = fileManager.readFile(webXmlPath);
+          final long lastModified = webXmlDetails.getLastModified();
+          final long length = webXmlDetails.getFile().length();
+          Document webXmlDoc = documentCache.get(webXmlPath, lastModified, length);
+          if (webXmlDoc == null) {
+             // Keep the original bytes along with the tree so that it can be written back by splicing.
+             final byte[] source = readFully(fileManager.getInputStream(webXmlPath));
+             webXmlDoc = XmlUtils.readXml(new ByteArrayInputStream(source));
+             WebxmlSplicer.attachSource(webXmlDoc, source);
+             STATS.read(source.length, webXmlDoc);
+             documentCache.put(webXmlPath, webXmlDoc, lastModified, length);
+          }
+          return webXmlDoc;
+       } finally {
+          STATS.record(WebxmlStats.RETRIEVE, start);
+       }
+    }
+    
+    /**
+     * Read web.xml declarations straight from disk without building a DOM
+     * 
+     * @param elementNames the top-level element names to report, or null for all of them
+     * @param handler the callback receiving the declarations (required)
+     */
+    private void streamWebXmlDocument(Set<String> elementNames, WebxmlReader.EntryHandler handler){
+       // Pending changes must be on disk to be read back, held ones are only visible once committed.
+       final String webXmlPath = getWebXmlPath();
+       getWriter(webXmlPath).flush();
        Validate.isTrue(fileManager.exists(webXmlPath), "'" + webXmlPath + "' does not exist");
        
-       XmlUtils.writeFormattedXml(fileManager.updateFile(webXmlPath).getOutputStream(), document);
+       WebxmlReader.read(fileManager.getInputStream(webXmlPath), elementNames, handler);
+    }
+    
+    private void writeWebXmlDocument(Document document, String webXmlPath){
+       final long start = System.nanoTime();
+       try {
+          Validate.isTrue(fileManager.exists(webXmlPath), "'" + webXmlPath + "' does not exist");
+       
+          // Only splice the inserted nodes into the original content if possible, so that hand-edited
+          // sections are left untouched. Fall back to a formatted write of the whole tree otherwise.
+          byte[] content = WebxmlSplicer.splice(document);
+          if (content == null) {
+             final ByteArrayOutputStream formatted = new ByteArrayOutputStream();
+             XmlUtils.writeFormattedXml(formatted, document);
+             content = formatted.toByteArray();
+          }
+          // Catch a misplaced element or a bad value now rather than when the container deploys the application.
+          final long validationStart = System.nanoTime();
+          try {
+             WebxmlSchemas.validate(content, WebxmlVersions.of(document));
+          } finally {
+             STATS.record(WebxmlStats.VALIDATE, validationStart);
+          }
+          writeFully(fileManager.updateFile(webXmlPath).getOutputStream(), content);
+          STATS.written(content.length, document);
+          WebxmlSplicer.attachSource(document, content);
+       
+          // Re-stamp the cached tree so that it is still served after our own write.
+          final FileDetails webXmlDetails = fileManager.readFile(webXmlPath);
+          documentCache.put(webXmlPath, document, webXmlDetails.getLastModified(), webXmlDetails.getFile().length());
+       } finally {
+          STATS.record(WebxmlStats.WRITE, start);
+       }
+    }
+    
+    private void applyDeclaration(Document document, WebxmlDeclaration declaration){
+       final String kind = declaration.getKind();
+       final String comment = declaration.getAttribute("comment");
+       if ("servlet".equals(kind)) {
+          final String loading = declaration.getAttribute("loading");
+          addServlet(document, declaration.getName(), declaration.getAttribute("class"), declaration.getAttribute("mapping"),
+                StringUtils.isBlank(loading) ? null : Integer.valueOf(loading.trim()), null, comment);
+       } else if ("context-param".equals(kind)) {
+          addContextParam(document, declaration.getName(), declaration.getAttribute("value"), comment);
+       } else {
+          addEnvironmentEntry(document, declaration.getName(), declaration.getAttribute("type"), declaration.getAttribute("value"), comment);
+       }
+    }
+    
+    private static long hashDeclaration(WebxmlIndex index, WebxmlDeclaration declaration){
+       long hash = WebxmlFingerprint.hash(index.find(declaration.getKind(), declaration.getName()));
+       if ("servlet".equals(declaration.getKind())) {
+          final Element servletMapping = index.find("servlet-mapping", declaration.getName());
+          hash = 31 * hash + (servletMapping == null ? 0 : WebxmlFingerprint.hash(servletMapping));
+       }
+       return hash;
+    }
+    
+    private static void logDeclarations(String status, List<String> declarations){
+       if (!declarations.isEmpty()) {
+          LOGGER.info(status + ": " + StringUtils.join(declarations, ", "));
+       }
+    }
+    
+    /**
+     * Locate the jars of the runtime dependencies of the focused module into the local Maven
+     * repository. Transitive dependencies are not part of the project model, they are not returned.
+     */
+    private List<File> getDependencyJars(){
+       final Pom pom = projectOperations.getFocusedModule();
+       final File repository = new File(System.getProperty("maven.repo.local",
+             System.getProperty("user.home") + File.separator + ".m2" + File.separator + "repository"));
+       final List<File> jars = new ArrayList<File>();
+       for (Dependency dependency : pom.getDependencies()) {
+          if (dependency.getType() != DependencyType.JAR || dependency.getScope() == DependencyScope.TEST
+                || dependency.getScope() == DependencyScope.PROVIDED) {
+             continue;
+          }
+          if (dependency.getScope() == DependencyScope.SYSTEM) {
+             jars.add(new File(resolveProperty(pom, dependency.getSystemPath())));
+             continue;
+          }
+          final String version = resolveProperty(pom, dependency.getVersion());
+          jars.add(new File(repository, dependency.getGroupId().replace('.', File.separatorChar) + File.separator
+                + dependency.getArtifactId() + File.separator + version + File.separator
+                + dependency.getArtifactId() + "-" + version + ".jar"));
+       }
+       return jars;
+    }
+    
+    private static String resolveProperty(Pom pom, String value){
+       if (value != null && value.startsWith("${") && value.endsWith("}")) {
+          final Property property = pom.getProperty(value.substring(2, value.length() - 1));
+          if (property != null) {
+             return property.getValue();
+          }
+       }
+       return value;
+    }
+    
+    /**
+     * Set an attribute, flagging the document for a full write if its value actually changes
+     */
+    private static void setAttribute(Element element, String name, String value){
+       if (!value.equals(element.getAttribute(name)) || !element.hasAttribute(name)) {
+          element.setAttribute(name, value);
+          WebxmlFingerprint.invalidate(element);
+          WebxmlSplicer.requireFullWrite(element.getOwnerDocument());
+       }
+    }
+    
+    private static void setAbsoluteOrdering(Document document, List<String> names, boolean others){
+       final Element ordering = new XmlElementBuilder("absolute-ordering", document).build();
+       for (String name : names) {
+          ordering.appendChild(new XmlElementBuilder("name", document).setText(name).build());
+       }
+       if (others) {
+          ordering.appendChild(new XmlElementBuilder("others", document).build());
+       }
+       
+       final Element existing = WebxmlIndex.of(document).first("absolute-ordering");
+       if (existing == null) {
+          insertBetween(ordering, "display-name", "context-param", document);
+          return;
+       }
+       // Ordering matters here, so compare the sequence of children instead of fingerprints.
+       if (!childSequence(existing).equals(childSequence(ordering))) {
+          while (existing.getFirstChild() != null) {
+             existing.removeChild(existing.getFirstChild());
+          }
+          while (ordering.getFirstChild() != null) {
+             existing.appendChild(ordering.getFirstChild());
+          }
+          WebxmlFingerprint.invalidate(existing);
+          WebxmlSplicer.requireFullWrite(document);
+       }
+    }
+    
+    private static List<String> childSequence(Element element){
+       final List<String> sequence = new ArrayList<String>();
+       for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+          if (child instanceof Element) {
+             sequence.add(child.getNodeName() + "=" + child.getTextContent().trim());
+          }
+       }
+       return sequence;
+    }
+    
+    private static byte[] readFully(final InputStream inputStream){
+       try {
+          final ByteArrayOutputStream content = new ByteArrayOutputStream();
+          final byte[] buffer = new byte[8192];
+          int read;
+          while ((read = inputStream.read(buffer)) != -1) {
+             content.write(buffer, 0, read);
+          }
+          return content.toByteArray();
+       } catch (IOException ioe) {
+          throw new IllegalStateException("Unable to read web.xml", ioe);
+       } finally {
+          closeQuietly(inputStream);
+       }
+    }
+    
+    private static void writeFully(final OutputStream outputStream, final byte[] content){
+       try {
+          outputStream.write(content);
+       } catch (IOException ioe) {
+          throw new IllegalStateException("Unable to write web.xml", ioe);
+       } finally {
+          closeQuietly(outputStream);
+       }
+    }
+    
+    private static void closeQuietly(final Closeable closeable){
+       try {
+          closeable.close();
+       } catch (IOException ignored) {
+       }
+    }
+    
+    private void addServlet(Document document, String name, String clazz, String mapping, Integer loading, Boolean async, String comment){
+       Validate.notNull(document, "Web XML document required");
+       Validate.notBlank(name, "Servlet name required");
+       Validate.notBlank(clazz, "Fully qualified class name required");
+       final WebxmlIndex index = WebxmlIndex.of(document);
+       
+       Element servletElement = index.find("servlet", name);
+       if (servletElement == null) {
+          servletElement = new XmlElementBuilder("servlet", document)
+             .addChild(new XmlElementBuilder("servlet-name", document).setText(name).build())
+             .build();
+          insertBetween(servletElement, "listener", "servlet-mapping", document);
+          if (StringUtils.isNotBlank(comment)) {
+             addCommentBefore(servletElement, comment, document);
+          }
+       }
+       setChildValue(servletElement, "servlet-class", clazz, "init-param", "load-on-startup", "enabled", "async-supported", 
+             "run-as", "security-role-ref", "multipart-config");
+       if (loading != null) {
+          setChildValue(servletElement, "load-on-startup", loading.toString(), 
+                childrenAfter(SERVLET_CHILDREN_AFTER_INIT_PARAMS, "load-on-startup"));
+       }
+       if (async != null) {
+          validateAsyncSupport(document);
+          setChildValue(servletElement, "async-supported", async.toString(), 
+                childrenAfter(SERVLET_CHILDREN_AFTER_INIT_PARAMS, "async-supported"));
+       }
+       
+       Element servletMappingElement = index.find("servlet-mapping", name);
+       if (servletMappingElement == null) {
+          servletMappingElement = new XmlElementBuilder("servlet-mapping", document)
+             .addChild(new XmlElementBuilder("servlet-name", document).setText(name).build())
+             .build();
+          insertBetween(servletMappingElement, "servlet", "session-config", document);
+       }
+       appendChildIfNotPresent(servletMappingElement, new XmlElementBuilder(
+             "url-pattern", document).setText(mapping)
+             .build());
+    }
+    
+    private Element addFilter(Document document, String name, String clazz, String mapping, String servletName, 
+          List<String> dispatchers, Boolean async, String comment, boolean mappedFirst){
+       Validate.notNull(document, "Web XML document required");
+       Validate.notBlank(name, "Filter name required");
+       Validate.notBlank(clazz, "Fully qualified class name required");
+       Validate.isTrue(StringUtils.isNotBlank(mapping) || StringUtils.isNotBlank(servletName), 
+             "A url-pattern mapping or a servlet name is required to map filter '%s'", name);
+       final WebxmlIndex index = WebxmlIndex.of(document);
+       
+       Element filterElement = index.find("filter", name);
+       if (filterElement == null) {
+          filterElement = new XmlElementBuilder("filter", document)
+             .addChild(new XmlElementBuilder("filter-name", document).setText(name).build())
+             .build();
+          insertBetween(filterElement, "context-param", "filter-mapping", document);
+          if (StringUtils.isNotBlank(comment)) {
+             addCommentBefore(filterElement, comment, document);
+          }
+       }
+       setChildValue(filterElement, "filter-class", clazz, "async-supported", "init-param");
+       if (async != null) {
+          validateAsyncSupport(document);
+          setChildValue(filterElement, "async-supported", async.toString(), "init-param");
+       }
+       
+       Element filterMappingElement = index.find("filter-mapping", name);
+       if (filterMappingElement == null) {
+          filterMappingElement = new XmlElementBuilder("filter-mapping", document)
+             .addChild(new XmlElementBuilder("filter-name", document).setText(name).build())
+             .build();
+          if (mappedFirst) {
+             insertBetween(filterMappingElement, "filter", "filter-mapping", document);
+          } else {
+             insertBetween(filterMappingElement, "filter-mapping", "listener", document);
+          }
+       }
+       // Targets of the mapping must come before its dispatchers.
+       if (StringUtils.isNotBlank(mapping)) {
+          insertChildIfNotPresent(filterMappingElement, new XmlElementBuilder(
+                "url-pattern", document).setText(mapping)
+                .build(), "dispatcher");
+       }
+       if (StringUtils.isNotBlank(servletName)) {
+          insertChildIfNotPresent(filterMappingElement, new XmlElementBuilder(
+                "servlet-name", document).setText(servletName)
+                .build(), "dispatcher");
+       }
+       if (dispatchers != null) {
+          for (String dispatcher : dispatchers) {
+             Validate.isTrue(DISPATCHERS.contains(dispatcher), "Unknown dispatcher '%s', expecting one of %s", 
+                   dispatcher, StringUtils.join(DISPATCHERS, ", "));
+             if ("ASYNC".equals(dispatcher)) {
+                validateAsyncSupport(document);
+             }
+             appendChildIfNotPresent(filterMappingElement, new XmlElementBuilder(
+                   "dispatcher", document).setText(dispatcher)
+                   .build());
+          }
+       }
+       return filterElement;
+    }
+    
+    /**
+     * Mapped first, the filters wrap the rest of the chain: each filter-mapping is inserted before
+     * the current first one, hence the reverse order: the caching filter ends up first, setting its
+     * headers before the gzip filter compresses the response.
+     */
+    private void addStaticCaching(Document document, List<String> extensions, int maxAge, boolean gzip, String cachingFilterClass){
+       if (gzip) {
+          for (String extension : extensions) {
+             if (COMPRESSIBLE_EXTENSIONS.contains(extension)) {
+                addFilter(document, "StaticGzipFilter", GZIP_FILTER_CLASS, "*." + extension, null, null, null, 
+                      "Compresses text static resources", true);
+             }
+          }
+       }
+       Element cachingFilterElement = null;
+       for (String extension : extensions) {
+          cachingFilterElement = addFilter(document, "StaticCachingFilter", cachingFilterClass, "*." + extension, 
+                null, null, null, "Lets browsers cache static resources", true);
+       }
+       setInitParam(cachingFilterElement, "maxAge", String.valueOf(maxAge));
+       final WebxmlIndex index = WebxmlIndex.of(document);
+       for (String extension : extensions) {
+          if (index.find("mime-mapping", extension) == null) {
+             final Element mimeMappingElement = new XmlElementBuilder("mime-mapping", document)
+                .addChild(new XmlElementBuilder("extension", document).setText(extension).build())
+                .addChild(new XmlElementBuilder("mime-type", document).setText(STATIC_MIME_TYPES.get(extension)).build())
+                .build();
+             insertBetween(mimeMappingElement, "mime-mapping", "error-page", document);
+          }
+       }
+    }
+    
+    private void configureSession(Document document, Integer timeout, List<String> trackingModes, String cookieName, 
+          Boolean httpOnly, Boolean secure, Boolean distributable){
+       if (trackingModes != null || cookieName != null || httpOnly != null || secure != null) {
+          Validate.isTrue(WebxmlVersions.isAtLeast(document, "3.0"), "Session tracking modes and cookie configuration require "
+                + "web-app version 3.0 or later while web.xml is %s, run 'webxml tune-startup' to upgrade it", WebxmlVersions.of(document));
+       }
+       final WebxmlIndex index = WebxmlIndex.of(document);
+       if (timeout != null || trackingModes != null || cookieName != null || httpOnly != null || secure != null) {
+          Element sessionConfigElement = index.first("session-config");
+          if (sessionConfigElement == null) {
+             sessionConfigElement = new XmlElementBuilder("session-config", document).build();
+             insertBetween(sessionConfigElement, "servlet-mapping", "mime-mapping", document);
+          }
+          // Children are a sequence: session-timeout, cookie-config then tracking-mode.
+          if (timeout != null) {
+             setChildValue(sessionConfigElement, "session-timeout", timeout.toString(), "cookie-config", "tracking-mode");
+          }
+          if (cookieName != null || httpOnly != null || secure != null) {
+             final Element cookieConfigElement = getOrInsertChild(sessionConfigElement, "cookie-config", "tracking-mode");
+             if (cookieName != null) {
+                setChildValue(cookieConfigElement, "name", cookieName, "domain", "path", "comment", "http-only", "secure", "max-age");
+             }
+             if (httpOnly != null) {
+                setChildValue(cookieConfigElement, "http-only", httpOnly.toString(), "secure", "max-age");
+             }
+             if (secure != null) {
+                setChildValue(cookieConfigElement, "secure", secure.toString(), "max-age");
+             }
+          }
+          if (trackingModes != null && !childValues(sessionConfigElement, "tracking-mode").equals(trackingModes)) {
+             for (Element trackingModeElement : childElements(sessionConfigElement, "tracking-mode")) {
+                removeNode(trackingModeElement);
+             }
+             for (String trackingMode : trackingModes) {
+                appendChildIfNotPresent(sessionConfigElement, new XmlElementBuilder("tracking-mode", document)
+                      .setText(trackingMode).build());
+             }
+          }
+       }
+       if (distributable != null) {
+          final Element distributableElement = index.first("distributable");
+          if (distributable.booleanValue() && distributableElement == null) {
+             insertBetween(new XmlElementBuilder("distributable", document).build(), "description", "context-param", document);
+          } else if (!distributable.booleanValue() && distributableElement != null) {
+             removeNode(distributableElement);
+             WebxmlIndex.discard(document);
+          }
+       }
+    }
+    
+    private static Element getOrInsertChild(Element parent, String name, String... beforeChildNames){
+       final List<Element> existing = childElements(parent, name);
+       if (!existing.isEmpty()) {
+          return existing.get(0);
+       }
+       final Element child = new XmlElementBuilder(name, parent.getOwnerDocument()).build();
+       insertChildIfNotPresent(parent, child, beforeChildNames);
+       return child;
+    }
+    
+    /**
+     * Remove a node together with the indentation preceding it
+     */
+    private static void removeNode(Node node){
+       final Node parent = node.getParentNode();
+       final Node previous = node.getPreviousSibling();
+       if (previous != null && previous.getNodeType() == Node.TEXT_NODE && StringUtils.isBlank(previous.getNodeValue())) {
+          parent.removeChild(previous);
+       }
+       parent.removeChild(node);
+       WebxmlFingerprint.invalidate(parent);
+       WebxmlSplicer.requireFullWrite(node.getOwnerDocument());
+    }
+    
+    /**
+     * Move the exportable declarations of web.xml, with the comment preceding them, at the end of
+     * the matching group of the store; a declaration replaces a stored one having the same name. Filters
+     * and servlets are exported all or none: a single one the registration API cannot express (a jsp-file
+     * servlet, ...) keeps them all in web.xml so that the order of the filter chain is unchanged.
+     * Filter mappings of web.xml are applied before programmatic ones by the container, so they are
+     * moved before the ones already exported.
+     */
+    private static void exportDeclarations(Document document, Document store){
+       final Element webApp = document.getDocumentElement();
+       final List<String> exported = new ArrayList<String>(Arrays.asList("context-param", "listener"));
+       if (isExportable(webApp, "filter", WebxmlInitializerBuilder.FILTER_CHILDREN)) {
+          exported.addAll(Arrays.asList("filter", "filter-mapping"));
+       }
+       if (isExportable(webApp, "servlet", WebxmlInitializerBuilder.SERVLET_CHILDREN)) {
+          exported.addAll(Arrays.asList("servlet", "servlet-mapping"));
+       }
+       final Element storeRoot = store.getDocumentElement();
+       final Element firstStoredMapping = childElements(storeRoot, "filter-mapping").isEmpty() ? null 
+             : childElements(storeRoot, "filter-mapping").get(0);
+       boolean removed = false;
+       for (String elementName : exported) {
+          for (Element element : childElements(webApp, elementName)) {
+             final Comment comment = precedingComment(element);
+             final Element stored = (Element) withoutNamespace(store.importNode(element, true));
+             final String key = WebxmlIndex.getNameElement(elementName) == null ? "listener-class" 
+                   : WebxmlIndex.getNameElement(elementName);
+             if (!elementName.endsWith("-mapping")) {
+                for (Element existing : childElements(storeRoot, elementName)) {
+                   if (StringUtils.equals(childValue(existing, key), childValue(element, key))) {
+                      if (precedingComment(existing) != null) {
+                         removeNode(precedingComment(existing));
+                      }
+                      removeNode(existing);
+                   }
+                }
+             }
+             if (!WebxmlFingerprint.containsChild(storeRoot, stored)) {
+                final Node before = "filter-mapping".equals(elementName) ? firstStoredMapping : null;
+                if (comment != null) {
+                   storeRoot.insertBefore(store.importNode(comment, false), before);
+                }
+                storeRoot.insertBefore(stored, before);
+                WebxmlFingerprint.invalidate(storeRoot);
+             }
+             if (comment != null) {
+                removeNode(comment);
+             }
+             removeNode(element);
+             removed = true;
+          }
+       }
+       if (removed) {
+          WebxmlIndex.discard(document);
+       }
+    }
+    
+    /**
+     * Move an imported node and its descendants out of the javaee namespace, so that the store
+     * holds them the way XmlElementBuilder creates them
+     */
+    private static Node withoutNamespace(Node node){
+       Node result = node;
+       if (node instanceof Element && node.getNamespaceURI() != null) {
+          result = node.getOwnerDocument().renameNode(node, null, node.getLocalName());
+       }
+       for (Node child = result.getFirstChild(); child != null; child = child.getNextSibling()) {
+          withoutNamespace(child);
+       }
+       return result;
+    }
+    
+    private static boolean isExportable(Element webApp, String elementName, List<String> supportedChildren){
+       for (Element element : childElements(webApp, elementName)) {
+          if (!WebxmlInitializerBuilder.isExportable(element, supportedChildren)) {
+             LOGGER.warning("'" + childValue(element, WebxmlIndex.getNameElement(elementName)) + "' " + elementName 
+                   + " cannot be registered programmatically, all " + elementName + "s are kept into web.xml");
+             return false;
+          }
+       }
+       return true;
+    }
+    
+    private static String buildInitializer(JavaType initializer, Document store){
+       final String typeName = initializer.getFullyQualifiedTypeName();
+       final int dot = typeName.lastIndexOf('.');
+       final WebxmlInitializerBuilder builder = new WebxmlInitializerBuilder(dot < 0 ? "" : typeName.substring(0, dot), 
+             typeName.substring(dot + 1));
+       final Element storeRoot = store.getDocumentElement();
+       for (Element element : childElements(storeRoot, "context-param")) {
+          builder.addContextParam(element, commentData(element));
+       }
+       for (Element element : childElements(storeRoot, "listener")) {
+          builder.addListener(element, commentData(element));
+       }
+       for (Element element : childElements(storeRoot, "filter")) {
+          builder.addFilter(element, commentData(element));
+       }
+       for (Element element : childElements(storeRoot, "filter-mapping")) {
+          builder.addFilterMapping(element);
+       }
+       for (Element element : childElements(storeRoot, "servlet")) {
+          builder.addServlet(element, commentData(element));
+       }
+       for (Element element : childElements(storeRoot, "servlet-mapping")) {
+          builder.addServletMapping(element);
+       }
+       return builder.build();
+    }
+    
+    /**
+     * Declare the initializer to the container through the services API, which unlike
+     * web-fragments is not subject to absolute-ordering for classes of the webapp itself.
+     */
+    private void registerInitializerService(JavaType initializer){
+       final String servicePath = pathResolver.getFocusedIdentifier(Path.SRC_MAIN_RESOURCES, 
+             "META-INF/services/javax.servlet.ServletContainerInitializer");
+       String services = "";
+       if (fileManager.exists(servicePath)) {
+          try {
+             services = new String(readFully(fileManager.getInputStream(servicePath)), "UTF-8");
+          } catch (IOException ioe) {
+             throw new IllegalStateException(ioe);
+          }
+       }
+       for (String line : StringUtils.split(services, "\r\n")) {
+          if (initializer.getFullyQualifiedTypeName().equals(line.trim())) {
+             return;
+          }
+       }
+       if (services.length() > 0 && !services.endsWith("\n")) {
+          services += "\n";
+       }
+       fileManager.createOrUpdateTextFileIfRequired(servicePath, services + initializer.getFullyQualifiedTypeName() + "\n", false);
+    }
+    
+    /**
+     * @return the comment preceding an element, only separated from it by whitespace, or null if none
+     */
+    private static Comment precedingComment(Element element){
+       Node previous = element.getPreviousSibling();
+       while (previous != null && previous.getNodeType() == Node.TEXT_NODE && StringUtils.isBlank(previous.getNodeValue())) {
+          previous = previous.getPreviousSibling();
+       }
+       return previous instanceof Comment ? (Comment) previous : null;
+    }
+    
+    private static String commentData(Element element){
+       final Comment comment = precedingComment(element);
+       return comment == null ? null : comment.getData().trim();
+    }
+    
+    /**
+     * Set the value of the init-param having the given name, inserting the init-param before the
+     * first of the given following children if missing
+     */
+    private static void setInitParam(Element parent, String name, String value, String... beforeChildNames){
+       for (Element initParam : childElements(parent, "init-param")) {
+          if (name.equals(childValue(initParam, "param-name"))) {
+             setChildValue(initParam, "param-value", value);
+             return;
+          }
+       }
+       final Document document = parent.getOwnerDocument();
+       insertChildIfNotPresent(parent, new XmlElementBuilder("init-param", document)
+             .addChild(new XmlElementBuilder("param-name", document).setText(name).build())
+             .addChild(new XmlElementBuilder("param-value", document).setText(value).build())
+             .build(), beforeChildNames);
+    }
+    
+    /**
+     * @return the source of a container independent filter setting the Cache-Control and Expires
+     *         headers from its maxAge init-param, in seconds
+     */
+    private static String buildCachingFilter(JavaType cachingFilter){
+       final String typeName = cachingFilter.getFullyQualifiedTypeName();
+       final int dot = typeName.lastIndexOf('.');
+       final StringBuilder source = new StringBuilder();
+       if (dot > 0) {
+          source.append("package ").append(typeName.substring(0, dot)).append(";\n\n");
+       }
+       source.append("import java.io.IOException;\n\n")
+          .append("import javax.servlet.Filter;\n")
+          .append("import javax.servlet.FilterChain;\n")
+          .append("import javax.servlet.FilterConfig;\n")
+          .append("import javax.servlet.ServletException;\n")
+          .append("import javax.servlet.ServletRequest;\n")
+          .append("import javax.servlet.ServletResponse;\n")
+          .append("import javax.servlet.http.HttpServletResponse;\n\n")
+          .append("/**\n")
+          .append(" * Lets browsers cache the static resources it is mapped to for maxAge seconds.\n")
+          .append(" * Generated by 'webxml add-static-caching'.\n")
+          .append(" */\n")
+          .append("public class ").append(typeName.substring(dot + 1)).append(" implements Filter {\n\n")
+          .append("    private String cacheControl;\n")
+          .append("    private long maxAgeMillis;\n\n")
+          .append("    public void init(FilterConfig filterConfig) throws ServletException {\n")
+          .append("        final long maxAge = Long.parseLong(filterConfig.getInitParameter(\"maxAge\").trim());\n")
+          .append("        cacheControl = \"public, max-age=\" + maxAge;\n")
+          .append("        maxAgeMillis = maxAge * 1000L;\n")
+          .append("    }\n\n")
+          .append("    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)\n")
+          .append("            throws IOException, ServletException {\n")
+          .append("        if (response instanceof HttpServletResponse) {\n")
+          .append("            final HttpServletResponse httpResponse = (HttpServletResponse) response;\n")
+          .append("            httpResponse.setHeader(\"Cache-Control\", cacheControl);\n")
+          .append("            httpResponse.setDateHeader(\"Expires\", System.currentTimeMillis() + maxAgeMillis);\n")
+          .append("        }\n")
+          .append("        chain.doFilter(request, response);\n")
+          .append("    }\n\n")
+          .append("    public void destroy() {\n")
+          .append("    }\n")
+          .append("}\n");
+       return source.toString();
+    }
+    
+    private static void validateAsyncSupport(Document document){
+       Validate.isTrue(WebxmlVersions.isAtLeast(document, "3.0"), "Asynchronous processing requires web-app version 3.0 or later "
+             + "while web.xml is %s, run 'webxml tune-startup' to upgrade it", WebxmlVersions.of(document));
+    }
+    
+    /**
+     * Warn about filters that are not async-supported while mapped in front of an async-supported
+     * servlet: the container then silently processes requests to this servlet as blocking ones.
+     * Checks are restricted to the given filter and/or servlet when not null.
+     */
+    private static void warnAboutBlockingFilters(Document document, String onlyFilter, String onlyServlet){
+       final WebxmlIndex index = WebxmlIndex.of(document);
+       final Element webApp = document.getDocumentElement();
+       final List<Element> asyncServlets = new ArrayList<Element>();
+       for (Element servlet : childElements(webApp, "servlet")) {
+          if ("true".equals(childValue(servlet, "async-supported"))
+                && (onlyServlet == null || onlyServlet.equals(childValue(servlet, "servlet-name")))) {
+             asyncServlets.add(servlet);
+          }
+       }
+       if (asyncServlets.isEmpty()) {
+          return;
+       }
+       final Set<String> warned = new HashSet<String>();
+       for (Element filterMapping : childElements(webApp, "filter-mapping")) {
+          final String filterName = childValue(filterMapping, "filter-name");
+          if (onlyFilter != null && !onlyFilter.equals(filterName)) {
+             continue;
+          }
+          final Element filter = index.find("filter", filterName);
+          if (filter == null || "true".equals(childValue(filter, "async-supported"))) {
+             continue;
+          }
+          for (Element servlet : asyncServlets) {
+             final String servletName = childValue(servlet, "servlet-name");
+             if (isMappedTo(webApp, filterMapping, servletName) && warned.add(filterName + "|" + servletName)) {
+                LOGGER.warning("Filter '" + filterName + "' is mapped in front of async servlet '" + servletName 
+                      + "' but is not async-supported: requests to this servlet will be processed as blocking ones");
+             }
+          }
+       }
+    }
+    
+    private static boolean isMappedTo(Element webApp, Element filterMapping, String servletName){
+       if (childValues(filterMapping, "servlet-name").contains(servletName)) {
+          return true;
+       }
+       final List<String> filterPatterns = childValues(filterMapping, "url-pattern");
+       for (Element servletMapping : childElements(webApp, "servlet-mapping")) {
+          if (!servletName.equals(childValue(servletMapping, "servlet-name"))) {
+             continue;
+          }
+          for (String servletPattern : childValues(servletMapping, "url-pattern")) {
+             for (String filterPattern : filterPatterns) {
+                if (WebxmlUrlPatterns.overlaps(filterPattern, servletPattern)) {
+                   return true;
+                }
+             }
+          }
+       }
+       return false;
+    }
+    
+    /**
+     * @return the names following the given one in a sequence of child names
+     */
+    private static String[] childrenAfter(String[] sequence, String name){
+       final List<String> names = Arrays.asList(sequence);
+       final List<String> following = names.subList(names.indexOf(name) + 1, names.size());
+       return following.toArray(new String[following.size()]);
+    }
+    
+    private static List<Element> childElements(Element parent, String name){
+       final List<Element> children = new ArrayList<Element>();
+       for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+          if (child instanceof Element && name.equals(child.getNodeName())) {
+             children.add((Element) child);
+          }
+       }
+       return children;
+    }
+    
+    private static List<String> childValues(Element parent, String name){
+       final List<String> values = new ArrayList<String>();
+       for (Element child : childElements(parent, name)) {
+          values.add(child.getTextContent().trim());
+       }
+       return values;
+    }
+    
+    private static String childValue(Element parent, String name){
+       final List<String> values = childValues(parent, name);
+       return values.isEmpty() ? null : values.get(0);
+    }
+    
+    /**
+     * Set the text of the single child element having the given name, inserting the child before
+     * the first of the given following children if missing
+     */
+    private static void setChildValue(Element parent, String name, String value, String... beforeChildNames){
+       final List<Element> existing = childElements(parent, name);
+       if (existing.isEmpty()) {
+          insertChildIfNotPresent(parent, new XmlElementBuilder(name, parent.getOwnerDocument()).setText(value).build(), 
+                beforeChildNames);
+       } else if (!value.equals(existing.get(0).getTextContent().trim())) {
+          existing.get(0).setTextContent(value);
+          WebxmlFingerprint.invalidate(existing.get(0));
+          WebxmlSplicer.requireFullWrite(parent.getOwnerDocument());
+       }
+    }
+    
+    private void addContextParam(Document document, String name, String value, String comment){
+       Validate.notNull(document, "Web XML document required");
+       Validate.notBlank(name, "Context param name required");
+       Validate.notNull(value, "Context param value required");
+       
+       Element contextParamElement = WebxmlIndex.of(document).find("context-param", name);
+       if (contextParamElement == null) {
+          contextParamElement = new XmlElementBuilder("context-param", document)
+             .addChild(new XmlElementBuilder("param-name", document).setText(name).build())
+             .build();
+          insertBetween(contextParamElement, "description", "filter", document);
+          if (StringUtils.isNotBlank(comment)) {
+             addCommentBefore(contextParamElement, comment, document);
+          }
+       }
+       setChildValue(contextParamElement, "param-value", value);
     }
     
     private void addEnvironmentEntry(Document document, String name, String type, String value, String comment){
        Validate.notNull(document, "Web XML document required");
        Validate.notNull(name, "Env entry name required");
+       Validate.notNull(type, "Env entry type required");
+       Validate.notNull(value, "Env entry value required");
        
-       Element envEntryElement = XmlUtils.findFirstElement(WEB_APP_XPATH
-             + "env-entry[env-entry-name = '" + name + "']", document.getDocumentElement());
+       Element envEntryElement = WebxmlIndex.of(document).find("env-entry", name);
        
        if (envEntryElement == null) {
           envEntryElement = new XmlElementBuilder("env-entry", document)
              .addChild(new XmlElementBuilder("env-entry-name", document).setText(name).build())
              .build();
-          insertBetween(envEntryElement, "error-page[last()]", "the-end", document);
+          insertBetween(envEntryElement, "error-page", "the-end", document);
           if (StringUtils.isNotBlank(comment)) {
               addCommentBefore(envEntryElement, comment, document);
           }
       }
-       appendChildIfNotPresent(envEntryElement, new XmlElementBuilder(
-             "env-entry-type", document).setText(type)
-             .build());
-      appendChildIfNotPresent(envEntryElement, new XmlElementBuilder(
-              "env-entry-value", document).setText(value)
-              .build());
+       setChildValue(envEntryElement, "env-entry-type", type, "env-entry-value", "mapped-name", "injection-target", 
+             "lookup-name");
+       setChildValue(envEntryElement, "env-entry-value", value, "mapped-name", "injection-target", "lookup-name");
+    }
+    
+    private void addResourceReference(Document document, String name, String type, String auth, String sharingScope, 
+          String comment){
+       Validate.notNull(document, "Web XML document required");
+       Validate.notBlank(name, "Resource reference name required");
+       Validate.notBlank(type, "Resource reference type required");
+       Validate.isTrue(auth == null || RESOURCE_AUTHS.contains(auth), "Resource auth must be one of %s", RESOURCE_AUTHS);
+       Validate.isTrue(sharingScope == null || SHARING_SCOPES.contains(sharingScope), "Sharing scope must be one of %s", 
+             SHARING_SCOPES);
+       
+       Element resourceRefElement = WebxmlIndex.of(document).find("resource-ref", name);
+       if (resourceRefElement == null) {
+          resourceRefElement = new XmlElementBuilder("resource-ref", document)
+             .addChild(new XmlElementBuilder("res-ref-name", document).setText(name).build())
+             .build();
+          insertBetween(resourceRefElement, "resource-ref", "resource-env-ref", document);
+          if (StringUtils.isNotBlank(comment)) {
+             addCommentBefore(resourceRefElement, comment, document);
+          }
+       }
+       // Update values in place rather than appending a second type, auth or scope to a redeclared reference.
+       setChildValue(resourceRefElement, "res-type", type, "res-auth", "res-sharing-scope", "mapped-name", 
+             "injection-target", "lookup-name");
+       if (auth != null) {
+          setChildValue(resourceRefElement, "res-auth", auth, "res-sharing-scope", "mapped-name", "injection-target", 
+                "lookup-name");
+       }
+       if (sharingScope != null) {
+          setChildValue(resourceRefElement, "res-sharing-scope", sharingScope, "mapped-name", "injection-target", "lookup-name");
+       }
+    }
+    
+    private void addResourceEnvironmentReference(Document document, String name, String type, String comment){
+       Validate.notNull(document, "Web XML document required");
+       Validate.notBlank(name, "Resource environment reference name required");
+       Validate.notBlank(type, "Resource environment reference type required");
+       
+       Element resourceEnvRefElement = WebxmlIndex.of(document).find("resource-env-ref", name);
+       if (resourceEnvRefElement == null) {
+          resourceEnvRefElement = new XmlElementBuilder("resource-env-ref", document)
+             .addChild(new XmlElementBuilder("resource-env-ref-name", document).setText(name).build())
+             .build();
+          insertBetween(resourceEnvRefElement, "resource-env-ref", "message-destination-ref", document);
+          if (StringUtils.isNotBlank(comment)) {
+             addCommentBefore(resourceEnvRefElement, comment, document);
+          }
+       }
+       setChildValue(resourceEnvRefElement, "resource-env-ref-type", type, "mapped-name", "injection-target", "lookup-name");
     }
     
     private static void addCommentBefore(final Element element,
           final String comment, final Document document) {
-       if (null == XmlUtils.findNode("//comment()[.=' " + comment + " ']",
-             document.getDocumentElement())) {
-          document.getDocumentElement().insertBefore(
-                document.createComment(" " + comment + " "), element);
+       final WebxmlIndex index = WebxmlIndex.of(document);
+       if (!index.hasComment(" " + comment + " ")) {
+          final Comment commentNode = document.createComment(" " + comment + " ");
+          document.getDocumentElement().insertBefore(commentNode, element);
+          index.register(commentNode);
+          WebxmlSplicer.markInserted(commentNode);
           addLineBreakBefore(element, document);
       }
     }
@@ -137,32 +1626,67 @@ public class WebxmlOperationsImpl implements WebxmlOperations {
              document.createTextNode("\n    "), element);
     }
     
+    /**
+     * Inserts a top-level element before the first <code>beforeElementName</code> element or,
+     * if there's none, after the last <code>afterElementName</code> element. Element is appended
+     * at the end of the document as a last resort.
+     */
     private static void insertBetween(final Element element,
           final String afterElementName, final String beforeElementName,
           final Document document) {
-       final Element beforeElement = XmlUtils.findFirstElement(WEB_APP_XPATH
-             + beforeElementName, document.getDocumentElement());
-       if (beforeElement != null) {
-          document.getDocumentElement().insertBefore(element, beforeElement);
-          addLineBreakBefore(element, document);
-          addLineBreakBefore(element, document);
-          return;
-       }
+       final long start = System.nanoTime();
+       try {
+          final WebxmlIndex index = WebxmlIndex.of(document);
+          final Element beforeElement = index.first(beforeElementName);
+          if (beforeElement != null) {
+             document.getDocumentElement().insertBefore(element, beforeElement);
+             index.register(element);
+             WebxmlSplicer.markInserted(element);
+             addLineBreakBefore(element, document);
+             addLineBreakBefore(element, document);
+             return;
+          }
 
-       final Element afterElement = XmlUtils.findFirstElement(WEB_APP_XPATH
-             + afterElementName, document.getDocumentElement());
-       if (afterElement != null && afterElement.getNextSibling() != null
-             && afterElement.getNextSibling() instanceof Element) {
-          document.getDocumentElement().insertBefore(element,
-                afterElement.getNextSibling());
+          final Element afterElement = index.last(afterElementName);
+          if (afterElement != null && afterElement.getNextSibling() != null
+                && afterElement.getNextSibling() instanceof Element) {
+             document.getDocumentElement().insertBefore(element,
+                   afterElement.getNextSibling());
+             index.register(element);
+             WebxmlSplicer.markInserted(element);
+             addLineBreakBefore(element, document);
+             addLineBreakBefore(element, document);
+             return;
+          }
+
+          document.getDocumentElement().appendChild(element);
+          index.register(element);
+          WebxmlSplicer.markInserted(element);
           addLineBreakBefore(element, document);
           addLineBreakBefore(element, document);
-          return;
+       } finally {
+          STATS.record(WebxmlStats.INSERT, start);
        }
-
-       document.getDocumentElement().appendChild(element);
-       addLineBreakBefore(element, document);
-       addLineBreakBefore(element, document);
+    }
+    
+    /**
+     * Inserts the given child before the first child named after one of beforeChildNames, or at
+     * the end if there's none, if it's not already there
+     */
+    private static void insertChildIfNotPresent(final Element parent,
+            final Element child, final String... beforeChildNames) {
+        final List<String> names = Arrays.asList(beforeChildNames);
+        Node before = parent.getFirstChild();
+        while (before != null && !(before instanceof Element && names.contains(before.getNodeName()))) {
+            before = before.getNextSibling();
+        }
+        if (before == null || WebxmlFingerprint.containsChild(parent, child)) {
+            appendChildIfNotPresent(parent, child);
+            return;
+        }
+        parent.insertBefore(child, before);
+        WebxmlFingerprint.childAppended(parent, child);
+        WebxmlSplicer.markInserted(child);
     }
     
     /**
@@ -171,30 +1695,20 @@ public class WebxmlOperationsImpl implements WebxmlOperations {
      * @param parent the parent to which to add a child (required)
      * @param child the child to add if not present (required)
      */
-    private static void appendChildIfNotPresent(final Node parent,
+    private static void appendChildIfNotPresent(final Element parent,
             final Element child) {
-        final NodeList existingChildren = parent.getChildNodes();
-        for (int i = 0; i < existingChildren.getLength(); i++) {
-            final Node existingChild = existingChildren.item(i);
-            if (existingChild instanceof Element) {
-                // Attempt matching of possibly nested structures by using of
-                // 'getTextContent' as 'isEqualNode' does not match due to line
-                // returns, etc
-                // Note, this does not work if child nodes are appearing in a
-                // different order than expected
-                if (existingChild.getNodeName().equals(child.getNodeName())
-                        && existingChild
-                                .getTextContent()
-                                .replaceAll(WHITESPACE, "")
-                                .trim()
-                                .equals(child.getTextContent().replaceAll(
-                                        WHITESPACE, ""))) {
-                    // If we found a match, there is no need to append the child
-                    // element
-                    return;
-                }
+        final long start = System.nanoTime();
+        try {
+            // Match possibly nested structures through their fingerprint that ignores
+            // line returns, etc and the order in which nested child nodes are appearing
+            if (WebxmlFingerprint.containsChild(parent, child)) {
+                return;
             }
+            parent.appendChild(child);
+            WebxmlFingerprint.childAppended(parent, child);
+            WebxmlSplicer.markInserted(child);
+        } finally {
+            STATS.record(WebxmlStats.APPEND, start);
         }
-        parent.appendChild(child);
     }
 }
\ No newline at end of file
@@ -0,0 +1,116 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Streaming reader of web.xml top-level declarations. It does not build a DOM: only the
+ * declaration currently read is held in memory and reading stops as soon as the handler
+ * says so, making queries on large descriptors cheap.
+ *
+ * @since 0.1.1
+ */
+final class WebxmlReader {
+
+    /**
+     * Callback receiving the declarations read from web.xml.
+     */
+    interface EntryHandler {
+
+        /**
+         * @param entry a declaration read from web.xml
+         * @return true to continue reading, false to stop here
+         */
+        boolean handle(WebxmlEntry entry);
+    }
+
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+    static {
+        // Never fetch anything from the network while reading a descriptor.
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    private WebxmlReader() {
+    }
+
+    /**
+     * Read the top-level declarations of web.xml
+     * 
+     * @param inputStream the web.xml content (required), closed when done
+     * @param elementNames the declaration element names to report, or null for all of them
+     * @param handler the callback receiving each matching declaration (required)
+     */
+    static void read(InputStream inputStream, Set<String> elementNames, EntryHandler handler) {
+        XMLStreamReader reader = null;
+        try {
+            reader = INPUT_FACTORY.createXMLStreamReader(inputStream);
+            WebxmlEntry entry = null;
+            final List<String> path = new ArrayList<String>();
+            final StringBuilder text = new StringBuilder();
+            boolean leaf = false;
+            int depth = 0;
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    if (depth == 2 && (elementNames == null || elementNames.contains(reader.getLocalName()))) {
+                        entry = new WebxmlEntry(reader.getLocalName());
+                    } else if (depth > 2 && entry != null) {
+                        path.add(reader.getLocalName());
+                        text.setLength(0);
+                        leaf = true;
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                    if (entry != null && leaf) {
+                        text.append(reader.getText());
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (depth > 2 && entry != null) {
+                        if (leaf) {
+                            entry.addValue(StringUtils.join(path, "/"), text.toString().trim());
+                        }
+                        path.remove(path.size() - 1);
+                        leaf = false;
+                    } else if (depth == 2 && entry != null) {
+                        final WebxmlEntry read = entry;
+                        entry = null;
+                        if (!handler.handle(read)) {
+                            return;
+                        }
+                    }
+                    depth--;
+                    break;
+                default:
+                    break;
+                }
+            }
+        } catch (XMLStreamException xse) {
+            throw new IllegalStateException("Unable to read web.xml", xse);
+        } finally {
+            close(reader, inputStream);
+        }
+    }
+
+    private static void close(XMLStreamReader reader, InputStream inputStream) {
+        try {
+            if (reader != null) {
+                reader.close();
+            }
+            inputStream.close();
+        } catch (Exception ignored) {
+        }
+    }
+}
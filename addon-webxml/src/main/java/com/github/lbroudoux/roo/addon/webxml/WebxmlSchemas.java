@@ -0,0 +1,201 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.roo.support.logging.HandlerUtils;
+import org.w3c.dom.ls.LSInput;
+import org.w3c.dom.ls.LSResourceResolver;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Validation of web.xml content against the schema of its web-app version. Schemas are bundled
+ * with the add-on and compiled once per version; every schema, DTD or import they refer to is
+ * resolved from the bundle, so validation never goes to the network.
+ *
+ * @since 0.1.1
+ */
+final class WebxmlSchemas {
+
+    private static final Logger LOGGER = HandlerUtils.getLogger(WebxmlSchemas.class);
+
+    /** Location of the bundled schemas, relative to this class. */
+    private static final String SCHEMAS_LOCATION = "schemas/";
+
+    /** Compiled schemas by web-app version, null values standing for schemas that could not be compiled. */
+    private static final Map<String, Schema> SCHEMAS = new HashMap<String, Schema>();
+
+    private static final LSResourceResolver BUNDLED_RESOLVER = new LSResourceResolver() {
+        public LSInput resolveResource(String type, String namespaceURI, String publicId, String systemId, String baseURI) {
+            if (systemId == null) {
+                // Import without location: let the namespace be resolved against the grammars already loaded.
+                return null;
+            }
+            final String fileName = StringUtils.substringAfterLast("/" + systemId, "/");
+            final InputStream resource = WebxmlSchemas.class.getResourceAsStream(SCHEMAS_LOCATION + fileName);
+            if (resource == null) {
+                throw new IllegalStateException("'" + systemId + "' is not bundled with the add-on and will not be fetched");
+            }
+            return new BundledInput(publicId, systemId, baseURI, resource);
+        }
+    };
+
+    private WebxmlSchemas() {
+    }
+
+    /**
+     * Check that web.xml content is valid against the schema of its version. Versions without
+     * bundled schema, e.g. DTD based descriptors, are not checked, nor are versions whose schema
+     * or one of its imports is missing from the bundle.
+     *
+     * @param content the web.xml content about to be written (required)
+     * @param version the web-app version declared by the content
+     * @throws IllegalArgumentException if the content is not valid
+     */
+    static void validate(byte[] content, String version) {
+        final Schema schema = getSchema(version);
+        if (schema == null) {
+            return;
+        }
+        // Validators are not thread-safe but cheap to create from a compiled schema.
+        final Validator validator = schema.newValidator();
+        validator.setResourceResolver(BUNDLED_RESOLVER);
+        try {
+            validator.validate(new StreamSource(new ByteArrayInputStream(content)));
+        } catch (SAXParseException spe) {
+            throw new IllegalArgumentException("web.xml would not be valid against " + WebxmlVersions.getSchemaFileName(version)
+                    + " (line " + spe.getLineNumber() + "): " + spe.getMessage(), spe);
+        } catch (SAXException se) {
+            throw new IllegalArgumentException("web.xml would not be valid against " + WebxmlVersions.getSchemaFileName(version)
+                    + ": " + se.getMessage(), se);
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Unable to validate web.xml", ioe);
+        }
+    }
+
+    private static synchronized Schema getSchema(String version) {
+        if (!WebxmlVersions.isSupported(version)) {
+            return null;
+        }
+        if (SCHEMAS.containsKey(version)) {
+            return SCHEMAS.get(version);
+        }
+        final String fileName = WebxmlVersions.getSchemaFileName(version);
+        final InputStream resource = WebxmlSchemas.class.getResourceAsStream(SCHEMAS_LOCATION + fileName);
+        Schema schema = null;
+        if (resource == null) {
+            LOGGER.warning(fileName + " is not bundled with the add-on, web-app " + version + " descriptors are not validated");
+        } else {
+            final SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+            factory.setResourceResolver(BUNDLED_RESOLVER);
+            final Source source = new StreamSource(resource, fileName);
+            try {
+                schema = factory.newSchema(source);
+            } catch (SAXException se) {
+                LOGGER.warning("Unable to compile " + fileName + ", web-app " + version + " descriptors are not validated: "
+                        + se.getMessage());
+            } catch (RuntimeException re) {
+                // Raised by the resolver for an import or include that is not bundled.
+                LOGGER.warning("Unable to compile " + fileName + ", web-app " + version + " descriptors are not validated: "
+                        + re.getMessage());
+            } finally {
+                try {
+                    resource.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        SCHEMAS.put(version, schema);
+        return schema;
+    }
+
+    /** A schema or DTD read from the bundle. */
+    private static class BundledInput implements LSInput {
+
+        private String publicId;
+        private String systemId;
+        private String baseURI;
+        private InputStream byteStream;
+
+        BundledInput(String publicId, String systemId, String baseURI, InputStream byteStream) {
+            this.publicId = publicId;
+            this.systemId = systemId;
+            this.baseURI = baseURI;
+            this.byteStream = byteStream;
+        }
+
+        public Reader getCharacterStream() {
+            return null;
+        }
+
+        public void setCharacterStream(Reader characterStream) {
+        }
+
+        public InputStream getByteStream() {
+            return byteStream;
+        }
+
+        public void setByteStream(InputStream byteStream) {
+            this.byteStream = byteStream;
+        }
+
+        public String getStringData() {
+            return null;
+        }
+
+        public void setStringData(String stringData) {
+        }
+
+        public String getSystemId() {
+            return systemId;
+        }
+
+        public void setSystemId(String systemId) {
+            this.systemId = systemId;
+        }
+
+        public String getPublicId() {
+            return publicId;
+        }
+
+        public void setPublicId(String publicId) {
+            this.publicId = publicId;
+        }
+
+        public String getBaseURI() {
+            return baseURI;
+        }
+
+        public void setBaseURI(String baseURI) {
+            this.baseURI = baseURI;
+        }
+
+        public String getEncoding() {
+            return null;
+        }
+
+        public void setEncoding(String encoding) {
+        }
+
+        public boolean getCertifiedText() {
+            return false;
+        }
+
+        public void setCertifiedText(boolean certifiedText) {
+        }
+    }
+}
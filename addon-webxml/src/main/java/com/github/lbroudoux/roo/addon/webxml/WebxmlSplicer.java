@@ -0,0 +1,364 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Comment;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Minimal-diff writer for web.xml. It keeps the bytes a document has been parsed from and the
+ * nodes inserted since, and produces the new file content by splicing the serialized inserted
+ * nodes into the original bytes: untouched regions stay byte-identical and serialization cost
+ * scales with the size of the change. Any change that is not a plain insertion must be flagged
+ * through {@link #requireFullWrite(Document)} so that the caller falls back to a formatted write.
+ *
+ * @since 0.1.1
+ */
+final class WebxmlSplicer {
+
+    private static final String SOURCE_KEY = WebxmlSplicer.class.getName() + ".source";
+    private static final String INSERTED_KEY = WebxmlSplicer.class.getName() + ".inserted";
+    private static final String FULL_WRITE_KEY = WebxmlSplicer.class.getName() + ".fullWrite";
+    private static final String ENCODING = "UTF-8";
+    private static final String INDENT = "    ";
+
+    private WebxmlSplicer() {
+    }
+
+    /**
+     * Remember the bytes a document has been parsed from or has just been written to
+     * 
+     * @param document the web.xml document (required)
+     * @param source the file content matching this document (required)
+     */
+    static void attachSource(Document document, byte[] source) {
+        @SuppressWarnings("unchecked")
+        final List<Node> inserted = (List<Node>) document.getUserData(INSERTED_KEY);
+        if (inserted != null) {
+            for (Node node : inserted) {
+                node.setUserData(INSERTED_KEY, null, null);
+            }
+        }
+        document.setUserData(INSERTED_KEY, null, null);
+        document.setUserData(FULL_WRITE_KEY, null, null);
+        document.setUserData(SOURCE_KEY, source, null);
+    }
+
+    /**
+     * Record a node that has just been inserted into the document
+     * 
+     * @param node the inserted element or comment (required)
+     */
+    @SuppressWarnings("unchecked")
+    static void markInserted(Node node) {
+        final Document document = node.getOwnerDocument();
+        List<Node> inserted = (List<Node>) document.getUserData(INSERTED_KEY);
+        if (inserted == null) {
+            inserted = new ArrayList<Node>();
+            document.setUserData(INSERTED_KEY, inserted, null);
+        }
+        inserted.add(node);
+        node.setUserData(INSERTED_KEY, Boolean.TRUE, null);
+    }
+
+    /**
+     * Flag a document as modified in a way splicing cannot reproduce (attribute change, removal, ...)
+     * 
+     * @param document the web.xml document (required)
+     */
+    static void requireFullWrite(Document document) {
+        document.setUserData(FULL_WRITE_KEY, Boolean.TRUE, null);
+    }
+
+    /**
+     * Compute the new file content by splicing inserted nodes into the original bytes
+     * 
+     * @param document the mutated web.xml document (required)
+     * @return the new file content or null if the document must be fully re-serialized
+     */
+    @SuppressWarnings("unchecked")
+    static byte[] splice(Document document) {
+        final byte[] source = (byte[]) document.getUserData(SOURCE_KEY);
+        if (source == null || document.getUserData(FULL_WRITE_KEY) != null
+                || (document.getXmlEncoding() != null && !ENCODING.equalsIgnoreCase(document.getXmlEncoding()))) {
+            return null;
+        }
+        final List<Node> inserted = (List<Node>) document.getUserData(INSERTED_KEY);
+        if (inserted == null || inserted.isEmpty()) {
+            return source;
+        }
+
+        // Anchor each top-most inserted node right after its previous original sibling,
+        // or right after the start tag of its parent if it has none.
+        final List<Insertion> insertions = new ArrayList<Insertion>();
+        final Set<String> neededKeys = new HashSet<String>();
+        for (Node node : inserted) {
+            final Node parent = node.getParentNode();
+            if (!(parent instanceof Element) || node.getOwnerDocument() != document || !isAttached(node)) {
+                return null;
+            }
+            if (isInserted(parent)) {
+                continue;
+            }
+            final Node previous = previousOriginalSibling(node);
+            final Insertion insertion = previous == null ? new Insertion(node, keyOf(parent), true)
+                    : new Insertion(node, keyOf(previous), false);
+            insertions.add(insertion);
+            neededKeys.add(insertion.anchorKey);
+        }
+
+        final Map<String, int[]> offsets = scanOffsets(source, neededKeys);
+        for (Insertion insertion : insertions) {
+            final int[] anchorOffsets = offsets.get(insertion.anchorKey);
+            if (anchorOffsets == null) {
+                return null;
+            }
+            insertion.offset = insertion.afterStartTag ? anchorOffsets[0] : anchorOffsets[1];
+            // A self-closing parent has no room for children: let the formatted write handle it.
+            if (insertion.afterStartTag && anchorOffsets[0] == anchorOffsets[1]) {
+                return null;
+            }
+        }
+        Collections.sort(insertions, new Comparator<Insertion>() {
+            public int compare(Insertion first, Insertion second) {
+                if (first.offset != second.offset) {
+                    return first.offset < second.offset ? -1 : 1;
+                }
+                return isBefore(first.node, second.node) ? -1 : 1;
+            }
+        });
+
+        try {
+            final ByteArrayOutputStream content = new ByteArrayOutputStream(source.length + 256 * insertions.size());
+            int copied = 0;
+            for (Insertion insertion : insertions) {
+                content.write(source, copied, insertion.offset - copied);
+                copied = insertion.offset;
+                final String indent = indentOf(insertion.node);
+                final byte[] fragment = ("\n" + indent + serialize(insertion.node).replace("\n", "\n" + indent)).getBytes(ENCODING);
+                content.write(fragment, 0, fragment.length);
+            }
+            content.write(source, copied, source.length - copied);
+            return content.toByteArray();
+        } catch (UnsupportedEncodingException uee) {
+            throw new IllegalStateException(uee);
+        }
+    }
+
+    private static boolean isInserted(Node node) {
+        return node.getUserData(INSERTED_KEY) != null;
+    }
+
+    private static boolean isAttached(Node node) {
+        Node current = node;
+        while (current.getParentNode() != null) {
+            current = current.getParentNode();
+        }
+        return current instanceof Document;
+    }
+
+    private static boolean isOriginalMarkup(Node node) {
+        return (node instanceof Element || node instanceof Comment) && !isInserted(node);
+    }
+
+    private static Node previousOriginalSibling(Node node) {
+        for (Node sibling = node.getPreviousSibling(); sibling != null; sibling = sibling.getPreviousSibling()) {
+            if (isOriginalMarkup(sibling)) {
+                return sibling;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Key of an original node: the ordinals of the node and its ancestors among the original
+     * elements and comments of their parent, e.g. "/0/5/1".
+     */
+    private static String keyOf(Node node) {
+        final StringBuilder key = new StringBuilder();
+        for (Node current = node; current != null && !(current instanceof Document); current = current.getParentNode()) {
+            int ordinal = 0;
+            for (Node sibling = current.getPreviousSibling(); sibling != null; sibling = sibling.getPreviousSibling()) {
+                if (isOriginalMarkup(sibling)) {
+                    ordinal++;
+                }
+            }
+            key.insert(0, "/" + ordinal);
+        }
+        return key.toString();
+    }
+
+    private static String indentOf(Node node) {
+        final StringBuilder indent = new StringBuilder();
+        for (Node parent = node.getParentNode(); parent instanceof Element; parent = parent.getParentNode()) {
+            indent.append(INDENT);
+        }
+        return indent.toString();
+    }
+
+    private static String serialize(Node node) {
+        try {
+            final Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+            transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", String.valueOf(INDENT.length()));
+            final StringWriter writer = new StringWriter();
+            transformer.transform(new DOMSource(node), new StreamResult(writer));
+            return writer.toString().trim().replace("\r\n", "\n");
+        } catch (TransformerException te) {
+            throw new IllegalStateException("Unable to serialize web.xml fragment", te);
+        }
+    }
+
+    /**
+     * Scan the markup of the original bytes, stopping as soon as all the needed keys are found.
+     * 
+     * @return for each needed key found, the offset following the start tag (or comment) and
+     *         the offset following the end of the node
+     */
+    private static Map<String, int[]> scanOffsets(byte[] source, Set<String> neededKeys) {
+        final Map<String, int[]> offsets = new HashMap<String, int[]>();
+        final List<String> openKeys = new ArrayList<String>();
+        final List<int[]> openOffsets = new ArrayList<int[]>();
+        final List<Integer> ordinals = new ArrayList<Integer>();
+        ordinals.add(0);
+        int i = 0;
+        while (i < source.length && offsets.size() < neededKeys.size()) {
+            if (source[i] != '<') {
+                i++;
+                continue;
+            }
+            if (startsWith(source, i, "<!--")) {
+                final int end = indexOf(source, i + 4, "-->") + 3;
+                final String key = nextKey(openKeys, ordinals);
+                if (neededKeys.contains(key)) {
+                    offsets.put(key, new int[] { end, end });
+                }
+                i = end;
+            } else if (startsWith(source, i, "<![CDATA[")) {
+                i = indexOf(source, i + 9, "]]>") + 3;
+            } else if (startsWith(source, i, "<?")) {
+                i = indexOf(source, i + 2, "?>") + 2;
+            } else if (startsWith(source, i, "<!")) {
+                i = endOfTag(source, i, true);
+            } else if (startsWith(source, i, "</")) {
+                i = endOfTag(source, i, false);
+                final int last = openKeys.size() - 1;
+                if (last < 0) {
+                    break;
+                }
+                final String key = openKeys.remove(last);
+                final int[] keyOffsets = openOffsets.remove(last);
+                ordinals.remove(ordinals.size() - 1);
+                if (keyOffsets != null) {
+                    keyOffsets[1] = i;
+                    offsets.put(key, keyOffsets);
+                }
+            } else {
+                i = endOfTag(source, i, false);
+                final String key = nextKey(openKeys, ordinals);
+                final boolean needed = neededKeys.contains(key);
+                if (source[i - 2] == '/') {
+                    if (needed) {
+                        offsets.put(key, new int[] { i, i });
+                    }
+                } else {
+                    openKeys.add(key);
+                    openOffsets.add(needed ? new int[] { i, -1 } : null);
+                    ordinals.add(0);
+                }
+            }
+        }
+        return offsets;
+    }
+
+    private static String nextKey(List<String> openKeys, List<Integer> ordinals) {
+        final int depth = ordinals.size() - 1;
+        final int ordinal = ordinals.get(depth);
+        ordinals.set(depth, ordinal + 1);
+        return (openKeys.isEmpty() ? "" : openKeys.get(openKeys.size() - 1)) + "/" + ordinal;
+    }
+
+    private static boolean startsWith(byte[] source, int offset, String prefix) {
+        if (offset + prefix.length() > source.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (source[offset + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] source, int from, String token) {
+        for (int i = from; i < source.length; i++) {
+            if (startsWith(source, i, token)) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Malformed web.xml: '" + token + "' expected");
+    }
+
+    /**
+     * @return the offset following the '&gt;' closing the tag starting at offset, skipping quoted
+     *         attribute values and, for declarations, internal subsets
+     */
+    private static int endOfTag(byte[] source, int offset, boolean declaration) {
+        byte quote = 0;
+        int brackets = 0;
+        for (int i = offset + 1; i < source.length; i++) {
+            final byte b = source[i];
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (declaration && b == '[') {
+                brackets++;
+            } else if (declaration && b == ']') {
+                brackets--;
+            } else if (b == '>' && brackets == 0) {
+                return i + 1;
+            }
+        }
+        throw new IllegalStateException("Malformed web.xml: unterminated tag");
+    }
+
+    private static boolean isBefore(Node node, Node other) {
+        return (node.compareDocumentPosition(other) & Node.DOCUMENT_POSITION_FOLLOWING) != 0;
+    }
+
+    private static class Insertion {
+        private final Node node;
+        private final String anchorKey;
+        private final boolean afterStartTag;
+        private int offset;
+
+        private Insertion(Node node, String anchorKey, boolean afterStartTag) {
+            this.node = node;
+            this.anchorKey = anchorKey;
+            this.afterStartTag = afterStartTag;
+        }
+    }
+}
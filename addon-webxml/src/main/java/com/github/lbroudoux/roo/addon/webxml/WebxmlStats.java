@@ -0,0 +1,244 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.w3c.dom.Node;
+
+/**
+ * Timings and counters of the add-on internal phases: reading, inserting, validating and writing
+ * web.xml. Latencies are kept for the last {@value #SAMPLES} calls of each phase so that
+ * percentiles reflect recent work; counts and byte totals cover everything since the last reset.
+ *
+ * @since 0.1.1
+ */
+public class WebxmlStats {
+
+    /** Retrieval of the web.xml document, parsing it if it is not cached. */
+    public static final String RETRIEVE = "retrieve";
+    /** Insertion of a top-level declaration. */
+    public static final String INSERT = "insert";
+    /** Appending of a child to a declaration, once checked it is not already there. */
+    public static final String APPEND = "append";
+    /** Validation of web.xml against the schema of its version, before it is written. */
+    public static final String VALIDATE = "validate";
+    /** Serialization and write of web.xml, validation included. */
+    public static final String WRITE = "write";
+
+    private static final int SAMPLES = 1024;
+
+    private final Map<String, Phase> phases = new LinkedHashMap<String, Phase>();
+    private long bytesRead;
+    private long bytesWritten;
+    private int lastNodeCount;
+    private int maxNodeCount;
+
+    WebxmlStats() {
+        for (String name : Arrays.asList(RETRIEVE, INSERT, APPEND, VALIDATE, WRITE)) {
+            phases.put(name, new Phase());
+        }
+    }
+
+    private WebxmlStats(WebxmlStats other) {
+        for (Map.Entry<String, Phase> phase : other.phases.entrySet()) {
+            phases.put(phase.getKey(), new Phase(phase.getValue()));
+        }
+        bytesRead = other.bytesRead;
+        bytesWritten = other.bytesWritten;
+        lastNodeCount = other.lastNodeCount;
+        maxNodeCount = other.maxNodeCount;
+    }
+
+    /**
+     * Record a call of a phase
+     *
+     * @param phase one of the phase constants
+     * @param startNanos the {@link System#nanoTime()} at which the call started
+     */
+    synchronized void record(String phase, long startNanos) {
+        phases.get(phase).add(System.nanoTime() - startNanos);
+    }
+
+    synchronized void read(int bytes, Node document) {
+        bytesRead += bytes;
+        nodesCounted(document);
+    }
+
+    synchronized void written(int bytes, Node document) {
+        bytesWritten += bytes;
+        nodesCounted(document);
+    }
+
+    synchronized void reset() {
+        for (Phase phase : phases.values()) {
+            phase.clear();
+        }
+        bytesRead = 0;
+        bytesWritten = 0;
+        lastNodeCount = 0;
+        maxNodeCount = 0;
+    }
+
+    /**
+     * @return a copy of the current figures, left untouched by later calls
+     */
+    synchronized WebxmlStats snapshot() {
+        return new WebxmlStats(this);
+    }
+
+    /**
+     * @return the phase names, in the order they happen for a command
+     */
+    public Set<String> getPhases() {
+        return Collections.unmodifiableSet(phases.keySet());
+    }
+
+    /**
+     * @param phase one of the phase names
+     * @return the number of calls of this phase
+     */
+    public long getCount(String phase) {
+        return phases.get(phase).count;
+    }
+
+    /**
+     * @param phase one of the phase names
+     * @return the total time spent into this phase, in nanoseconds
+     */
+    public long getTotalNanos(String phase) {
+        return phases.get(phase).totalNanos;
+    }
+
+    /**
+     * @param phase one of the phase names
+     * @param percentile the percentile to compute, e.g. 99
+     * @return the latency of this phase at the given percentile over its recent calls, in nanoseconds
+     */
+    public long getPercentileNanos(String phase, int percentile) {
+        return phases.get(phase).percentile(percentile);
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return the node count of the document last read or written
+     */
+    public int getLastNodeCount() {
+        return lastNodeCount;
+    }
+
+    /**
+     * @return the largest node count of a document read or written
+     */
+    public int getMaxNodeCount() {
+        return maxNodeCount;
+    }
+
+    /**
+     * @return the figures as a JSON object, latencies in microseconds
+     */
+    public String toJson() {
+        final StringBuilder json = new StringBuilder("{\n  \"phases\": {");
+        boolean first = true;
+        for (String phase : phases.keySet()) {
+            json.append(first ? "\n" : ",\n").append("    \"").append(phase).append("\": { \"count\": ").append(getCount(phase))
+                    .append(", \"totalMicros\": ").append(getTotalNanos(phase) / 1000)
+                    .append(", \"p50Micros\": ").append(getPercentileNanos(phase, 50) / 1000)
+                    .append(", \"p99Micros\": ").append(getPercentileNanos(phase, 99) / 1000).append(" }");
+            first = false;
+        }
+        json.append("\n  },\n");
+        json.append("  \"bytesRead\": ").append(bytesRead).append(",\n");
+        json.append("  \"bytesWritten\": ").append(bytesWritten).append(",\n");
+        json.append("  \"lastNodeCount\": ").append(lastNodeCount).append(",\n");
+        json.append("  \"maxNodeCount\": ").append(maxNodeCount).append("\n}\n");
+        return json.toString();
+    }
+
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append(StringUtils.rightPad("phase", 10)).append(StringUtils.leftPad("count", 10))
+                .append(StringUtils.leftPad("p50 (ms)", 12)).append(StringUtils.leftPad("p99 (ms)", 12))
+                .append(StringUtils.leftPad("total (ms)", 12)).append("\n");
+        for (String phase : phases.keySet()) {
+            builder.append(StringUtils.rightPad(phase, 10)).append(StringUtils.leftPad(String.valueOf(getCount(phase)), 10))
+                    .append(StringUtils.leftPad(millis(getPercentileNanos(phase, 50)), 12))
+                    .append(StringUtils.leftPad(millis(getPercentileNanos(phase, 99)), 12))
+                    .append(StringUtils.leftPad(millis(getTotalNanos(phase)), 12)).append("\n");
+        }
+        builder.append("bytes read ").append(bytesRead).append(", written ").append(bytesWritten).append("\n");
+        builder.append("document nodes ").append(lastNodeCount).append(" (max ").append(maxNodeCount).append(")\n");
+        return builder.toString();
+    }
+
+    private void nodesCounted(Node document) {
+        lastNodeCount = countNodes(document);
+        maxNodeCount = Math.max(maxNodeCount, lastNodeCount);
+    }
+
+    private static int countNodes(Node node) {
+        int count = 1;
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            count += countNodes(child);
+        }
+        return count;
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f", nanos / 1000000d);
+    }
+
+    /** Counters and recent latencies of a phase. */
+    private static class Phase {
+
+        private final long[] samples;
+        private int sampleCount;
+        private long count;
+        private long totalNanos;
+
+        Phase() {
+            samples = new long[SAMPLES];
+        }
+
+        Phase(Phase other) {
+            samples = other.samples.clone();
+            sampleCount = other.sampleCount;
+            count = other.count;
+            totalNanos = other.totalNanos;
+        }
+
+        void add(long nanos) {
+            // Ring buffer: the oldest sample is overwritten once full.
+            samples[(int) (count % SAMPLES)] = nanos;
+            sampleCount = Math.min(sampleCount + 1, SAMPLES);
+            count++;
+            totalNanos += nanos;
+        }
+
+        void clear() {
+            sampleCount = 0;
+            count = 0;
+            totalNanos = 0;
+        }
+
+        long percentile(int percentile) {
+            if (sampleCount == 0) {
+                return 0;
+            }
+            final long[] sorted = new long[sampleCount];
+            System.arraycopy(samples, 0, sorted, 0, sampleCount);
+            Arrays.sort(sorted);
+            return sorted[Math.min(sampleCount - 1, (int) Math.ceil(percentile / 100d * sampleCount) - 1)];
+        }
+    }
+}
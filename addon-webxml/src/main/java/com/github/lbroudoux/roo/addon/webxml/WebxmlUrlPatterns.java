@@ -0,0 +1,90 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+/**
+ * Servlet specification url-pattern rules: exact patterns ("/a/b"), path prefixes ("/a/*"),
+ * extensions ("*.do") and the default pattern ("/").
+ *
+ * @since 0.1.1
+ */
+final class WebxmlUrlPatterns {
+
+    static final String DEFAULT = "/";
+    static final String ALL = "/*";
+
+    private WebxmlUrlPatterns() {
+    }
+
+    static boolean isPathPrefix(String pattern) {
+        return pattern.startsWith("/") && pattern.endsWith("/*");
+    }
+
+    static boolean isExtension(String pattern) {
+        return pattern.startsWith("*.");
+    }
+
+    /**
+     * A filter mapped to "/*" or to the default pattern "/" applies to every request path:
+     * "/" catches whatever no other servlet mapping does, so its filters are not bound to the
+     * root path only.
+     * 
+     * @param pattern a url-pattern
+     * @return true if the pattern matches every request path
+     */
+    static boolean matchesAllPaths(String pattern) {
+        return ALL.equals(pattern) || DEFAULT.equals(pattern);
+    }
+
+    /**
+     * @param pattern a path prefix pattern, e.g. "/a/*"
+     * @return the prefix without trailing "/*", e.g. "/a" ("" for "/*")
+     */
+    static String prefixOf(String pattern) {
+        return pattern.substring(0, pattern.length() - 2);
+    }
+
+    /**
+     * Check whether a request path matches a pattern, as a filter-mapping url-pattern does
+     * 
+     * @param pattern a url-pattern
+     * @param path a request path relative to the context, e.g. "/images/logo.png"
+     * @return true if the pattern matches
+     */
+    static boolean matches(String pattern, String path) {
+        if (matchesAllPaths(pattern)) {
+            return true;
+        }
+        if (isPathPrefix(pattern)) {
+            final String prefix = prefixOf(pattern);
+            return path.equals(prefix) || path.startsWith(prefix + "/");
+        }
+        if (isExtension(pattern)) {
+            final int slash = path.lastIndexOf('/');
+            return path.substring(slash + 1).endsWith(pattern.substring(1));
+        }
+        return pattern.equals(path);
+    }
+
+    /**
+     * Check whether a filter url-pattern may apply to requests dispatched to a servlet through
+     * the given servlet url-pattern
+     * 
+     * @param filterPattern a filter-mapping url-pattern
+     * @param servletPattern a servlet-mapping url-pattern
+     * @return true if some request path may match both patterns
+     */
+    static boolean overlaps(String filterPattern, String servletPattern) {
+        if (matchesAllPaths(filterPattern) || DEFAULT.equals(servletPattern)) {
+            return true;
+        }
+        if (isPathPrefix(servletPattern)) {
+            // A request under the servlet prefix may have any extension or sub path.
+            return isExtension(filterPattern) || matches(filterPattern, prefixOf(servletPattern))
+                    || matches(servletPattern, isPathPrefix(filterPattern) ? prefixOf(filterPattern) : filterPattern);
+        }
+        if (isExtension(servletPattern)) {
+            return isPathPrefix(filterPattern) || filterPattern.equals(servletPattern)
+                    || (!isExtension(filterPattern) && matches(servletPattern, filterPattern));
+        }
+        return matches(filterPattern, servletPattern);
+    }
+}
@@ -0,0 +1,148 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Knowledge about the <code>web-app</code> versions this add-on can target: their namespace,
+ * schema and how to upgrade a descriptor from one to another.
+ *
+ * @since 0.1.1
+ */
+final class WebxmlVersions {
+
+    static final String JAVAEE_NAMESPACE = "http://java.sun.com/xml/ns/javaee";
+    static final String JCP_NAMESPACE = "http://xmlns.jcp.org/xml/ns/javaee";
+    private static final String XSI_NAMESPACE = "http://www.w3.org/2001/XMLSchema-instance";
+    private static final String SCHEMA_LOCATION = "xsi:schemaLocation";
+    private static final String DTD_VERSION = "2.3";
+    private static final Pattern VERSION_PATTERN = Pattern.compile("\\d+(\\.\\d+)?");
+
+    /** Namespace and schema file of each supported version. */
+    private static final Map<String, String[]> SCHEMAS = new LinkedHashMap<String, String[]>();
+    static {
+        SCHEMAS.put("2.5", new String[] { JAVAEE_NAMESPACE, "web-app_2_5.xsd" });
+        SCHEMAS.put("3.0", new String[] { JAVAEE_NAMESPACE, "web-app_3_0.xsd" });
+        SCHEMAS.put("3.1", new String[] { JCP_NAMESPACE, "web-app_3_1.xsd" });
+    }
+
+    private WebxmlVersions() {
+    }
+
+    /**
+     * @return the versions supported by this add-on, in ascending order
+     */
+    static Iterable<String> getSupportedVersions() {
+        return SCHEMAS.keySet();
+    }
+
+    static boolean isSupported(String version) {
+        return SCHEMAS.containsKey(version);
+    }
+
+    /**
+     * @param version a supported web-app version
+     * @return the file name of the schema of this version, e.g. "web-app_3_0.xsd"
+     */
+    static String getSchemaFileName(String version) {
+        return schema(version)[1];
+    }
+
+    /**
+     * Get the declared version of a descriptor. Descriptors without version attribute are DTD based
+     * ones, i.e. 2.3 or older.
+     * 
+     * @param document the web.xml document (required)
+     * @return the web-app version
+     */
+    static String of(Document document) {
+        final String version = document.getDocumentElement().getAttribute("version");
+        return StringUtils.isBlank(version) ? DTD_VERSION : version.trim();
+    }
+
+    /**
+     * Compare two web-app versions
+     * 
+     * @return a negative integer, zero, or a positive integer as the first version is lower than,
+     *         equal to, or greater than the second
+     * @throws IllegalArgumentException if a version is not a number such as "3.0"
+     */
+    static int compare(String version, String other) {
+        return number(version).compareTo(number(other));
+    }
+
+    /**
+     * Check whether a descriptor declares at least the given version
+     * 
+     * @param document the web.xml document (required)
+     * @param version the minimum version
+     */
+    static boolean isAtLeast(Document document, String version) {
+        return compare(of(document), version) >= 0;
+    }
+
+    /**
+     * Set the version, schema location and namespace of a descriptor to the given version
+     * 
+     * @param document the web.xml document (required)
+     * @param version a supported web-app version
+     * @throws IllegalArgumentException if the descriptor is DTD based, it has to be converted by hand
+     */
+    static void upgrade(Document document, String version) {
+        final String[] schema = schema(version);
+        // Keeping the DOCTYPE of a namespace-less tree would give a descriptor valid against neither grammar.
+        Validate.isTrue(document.getDoctype() == null && !DTD_VERSION.equals(of(document)), "web.xml is a DTD based %s "
+                + "descriptor and cannot be upgraded to %s: remove its DOCTYPE and declare version=\"2.5\" and "
+                + "xmlns=\"%s\" on web-app first", DTD_VERSION, version, JAVAEE_NAMESPACE);
+        final Element webApp = document.getDocumentElement();
+        webApp.setAttribute("version", version);
+        final String schemaLocation = schema[0] + " " + schema[0] + "/" + schema[1];
+        if (webApp.hasAttribute(SCHEMA_LOCATION)) {
+            webApp.setAttribute(SCHEMA_LOCATION, schemaLocation);
+        } else {
+            webApp.setAttributeNS(XSI_NAMESPACE, SCHEMA_LOCATION, schemaLocation);
+        }
+        final String namespace = webApp.getAttribute("xmlns");
+        if (StringUtils.isNotBlank(namespace) && !namespace.equals(schema[0])) {
+            webApp.setAttribute("xmlns", schema[0]);
+            renameNamespace(webApp, namespace, schema[0]);
+        }
+    }
+
+    private static void renameNamespace(Node node, String namespace, String newNamespace) {
+        // Collect children first as renaming may replace nodes.
+        final List<Node> children = new ArrayList<Node>();
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            children.add(child);
+        }
+        for (Node child : children) {
+            renameNamespace(child, namespace, newNamespace);
+        }
+        if (node instanceof Element && namespace.equals(node.getNamespaceURI())) {
+            node.getOwnerDocument().renameNode(node, newNamespace, node.getNodeName());
+        }
+    }
+
+    private static BigDecimal number(String version) {
+        Validate.isTrue(version != null && VERSION_PATTERN.matcher(version).matches(),
+                "Invalid web-app version '%s', expecting a number such as 3.0", version);
+        return new BigDecimal(version);
+    }
+
+    private static String[] schema(String version) {
+        final String[] schema = SCHEMAS.get(version);
+        Validate.isTrue(schema != null, "Unsupported web-app version '%s', expecting one of %s", version,
+                StringUtils.join(SCHEMAS.keySet(), ", "));
+        return schema;
+    }
+}
@@ -0,0 +1,243 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.lang3.Validate;
+import org.w3c.dom.Document;
+
+/**
+ * Single writer of web.xml: mutations coming from any thread are applied under a lock to one
+ * shared in-memory document, which is written once the changes settle, i.e. when {@link #flush()}
+ * is called at the end of a command or after a quiet period without any new mutation.
+ * <p>
+ * A failing mutation may have left the shared document half changed. The document is then
+ * reloaded and the mutations applied since the last flush are replayed, so that the changes of
+ * other callers are not lost. While changes are held (batch mode) a failure discards them all,
+ * as does a document rejected when flushed.
+ *
+ * @since 0.1.1
+ */
+final class WebxmlWriter {
+
+    /** Loads and stores web.xml on behalf of the writer. */
+    interface Storage {
+
+        /**
+         * @return the current web.xml document
+         */
+        Document load();
+
+        /**
+         * Write a document unless its content hash is the given one
+         *
+         * @return true if the document has been written
+         * @throws IllegalArgumentException if the document is rejected, e.g. as invalid
+         */
+        boolean store(Document document, long hashBefore);
+
+        /**
+         * Forget any in-memory copy of the document, it no longer reflects the file
+         */
+        void discard();
+    }
+
+    private static ScheduledExecutorService scheduler;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Storage storage;
+    private final long quietPeriod;
+    private final Runnable quietPeriodFlush;
+
+    private Document document;
+    private long hashBefore;
+    private final List<WebxmlMutation> pendingMutations = new ArrayList<WebxmlMutation>();
+    private boolean held;
+    private ScheduledFuture<?> scheduledFlush;
+
+    /**
+     * @param storage loads and stores web.xml (required)
+     * @param quietPeriod the time without new mutation after which changes are flushed, in milliseconds
+     * @param quietPeriodFlush the task run once the quiet period elapsed, expected to call {@link #flush()}
+     */
+    WebxmlWriter(Storage storage, long quietPeriod, Runnable quietPeriodFlush) {
+        Validate.notNull(storage, "Storage required");
+        this.storage = storage;
+        this.quietPeriod = quietPeriod;
+        this.quietPeriodFlush = quietPeriodFlush;
+    }
+
+    /**
+     * Apply a mutation to the shared document
+     *
+     * @param mutation the change to apply (required)
+     */
+    void apply(WebxmlMutation mutation) {
+        lock.lock();
+        try {
+            if (document == null) {
+                document = storage.load();
+                hashBefore = WebxmlFingerprint.hash(document);
+            }
+            try {
+                mutation.apply(document);
+            } catch (RuntimeException re) {
+                if (held) {
+                    discard();
+                } else {
+                    recover();
+                }
+                throw re;
+            }
+            pendingMutations.add(mutation);
+            if (!held) {
+                scheduleFlush();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write the pending changes, unless they are held
+     *
+     * @return true if web.xml has been written, false if there was nothing to write
+     */
+    boolean flush() {
+        lock.lock();
+        try {
+            cancelScheduledFlush();
+            if (document == null || held) {
+                return false;
+            }
+            // Changes stay pending if the write fails, so that a later flush retries them, unless
+            // the document itself is rejected: retrying would fail again.
+            final boolean written;
+            try {
+                written = storage.store(document, hashBefore);
+            } catch (IllegalArgumentException iae) {
+                document = null;
+                pendingMutations.clear();
+                storage.discard();
+                throw iae;
+            }
+            document = null;
+            pendingMutations.clear();
+            return written;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if some changes have not been written yet
+     */
+    boolean hasPendingChanges() {
+        lock.lock();
+        try {
+            return document != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write the pending changes then hold the following ones until {@link #release()} or
+     * {@link #discard()}
+     */
+    void hold() {
+        lock.lock();
+        try {
+            Validate.isTrue(!held, "A webxml batch is already in progress");
+            // Changes made before are not part of the batch and must survive its rollback.
+            flush();
+            held = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop holding the changes and write them
+     */
+    void release() {
+        lock.lock();
+        try {
+            Validate.isTrue(held, "No webxml batch in progress");
+            held = false;
+            flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drop all the pending changes, held or not
+     */
+    void discard() {
+        lock.lock();
+        try {
+            cancelScheduledFlush();
+            held = false;
+            document = null;
+            pendingMutations.clear();
+            storage.discard();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isHeld() {
+        lock.lock();
+        try {
+            return held;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recover() {
+        final List<WebxmlMutation> replayed = new ArrayList<WebxmlMutation>(pendingMutations);
+        storage.discard();
+        document = storage.load();
+        hashBefore = WebxmlFingerprint.hash(document);
+        pendingMutations.clear();
+        for (WebxmlMutation mutation : replayed) {
+            mutation.apply(document);
+            pendingMutations.add(mutation);
+        }
+    }
+
+    private void scheduleFlush() {
+        cancelScheduledFlush();
+        if (quietPeriodFlush != null) {
+            scheduledFlush = getScheduler().schedule(quietPeriodFlush, quietPeriod, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void cancelScheduledFlush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "webxml-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return scheduler;
+    }
+}
@@ -0,0 +1,125 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link WebxmlDispatcher}: servlet matching follows the servlet specification
+ * order (exact, longest prefix, extension, default) and filters are chained url-pattern
+ * mappings first, then servlet-name ones, each in document order.
+ *
+ * @since 0.1.1
+ */
+public class WebxmlDispatcherTest {
+
+    private final WebxmlDispatcher dispatcher = new WebxmlDispatcher(Arrays.asList(
+            entry("servlet-mapping", "servlet-name", "login", "url-pattern", "/app/login.do"),
+            entry("servlet-mapping", "servlet-name", "app", "url-pattern", "/app/*"),
+            entry("servlet-mapping", "servlet-name", "admin", "url-pattern", "/app/admin/*"),
+            entry("servlet-mapping", "servlet-name", "action", "url-pattern", "*.do"),
+            entry("servlet-mapping", "servlet-name", "default", "url-pattern", "/"),
+            entry("servlet-mapping", "servlet-name", "shadowed", "url-pattern", "/app/*"),
+            entry("filter-mapping", "filter-name", "appOnly", "servlet-name", "app"),
+            entry("filter-mapping", "filter-name", "all", "url-pattern", "/*"),
+            entry("filter-mapping", "filter-name", "actions", "url-pattern", "*.do"),
+            entry("filter-mapping", "filter-name", "anyServlet", "servlet-name", "*"),
+            entry("filter-mapping", "filter-name", "appPrefix", "url-pattern", "/app/*"),
+            entry("filter-mapping", "filter-name", "forwardOnly", "url-pattern", "/*", "dispatcher", "FORWARD"),
+            entry("filter-mapping", "filter-name", "requestAndForward", "url-pattern", "/app/*", "dispatcher", "FORWARD",
+                    "dispatcher", "REQUEST"),
+            entry("filter-mapping", "filter-name", "root", "url-pattern", "/")));
+
+    @Test
+    public void exactMatchComesFirst() {
+        assertServlet("login", "/app/login.do", dispatcher.dispatch("/app/login.do"));
+    }
+
+    @Test
+    public void longestPrefixComesBeforeExtension() {
+        assertServlet("admin", "/app/admin/*", dispatcher.dispatch("/app/admin/users.do"));
+        assertServlet("app", "/app/*", dispatcher.dispatch("/app/users.do"));
+        assertServlet("app", "/app/*", dispatcher.dispatch("/app"));
+    }
+
+    @Test
+    public void extensionComesBeforeDefault() {
+        assertServlet("action", "*.do", dispatcher.dispatch("/shop/cart.do"));
+        assertServlet("default", "/", dispatcher.dispatch("/images/logo.png"));
+    }
+
+    @Test
+    public void firstDeclarationOfAPatternWins() {
+        assertServlet("app", "/app/*", dispatcher.dispatch("/app/other"));
+    }
+
+    @Test
+    public void pathIsNormalized() {
+        assertServlet("login", "/app/login.do", dispatcher.dispatch("app/login.do?user=me"));
+        assertEquals("/app/login.do", dispatcher.dispatch("app/login.do?user=me").getPath());
+    }
+
+    @Test
+    public void requestIsLeftToContainerWithoutDefaultMapping() {
+        final WebxmlDispatch dispatch = new WebxmlDispatcher(Arrays.asList(
+                entry("servlet-mapping", "servlet-name", "app", "url-pattern", "/app/*"))).dispatch("/index.html");
+        assertNull(dispatch.getServletName());
+        assertNull(dispatch.getPattern());
+        assertEquals(Collections.<String>emptyList(), dispatch.getFilterNames());
+    }
+
+    @Test
+    public void urlPatternFiltersComeBeforeServletNameOnesInDocumentOrder() {
+        assertEquals(Arrays.asList("all", "actions", "appPrefix", "requestAndForward", "root", "appOnly", "anyServlet"),
+                dispatcher.dispatch("/app/users.do").getFilterNames());
+        assertEquals(Arrays.asList("all", "actions", "root", "anyServlet"),
+                dispatcher.dispatch("/shop/cart.do").getFilterNames());
+    }
+
+    @Test
+    public void rootFilterPatternMatchesEveryPath() {
+        assertEquals(Arrays.asList("all", "root", "anyServlet"), dispatcher.dispatch("/").getFilterNames());
+        assertEquals(Arrays.asList("all", "root", "anyServlet"), dispatcher.dispatch("/index.html").getFilterNames());
+    }
+
+    @Test
+    public void filterChainAgreesWithUrlPatterns() {
+        final List<String> patterns = Arrays.asList("/", "/*", "/app/*", "*.do", "/app/login.do", "/app");
+        final List<WebxmlEntry> entries = new ArrayList<WebxmlEntry>();
+        for (String pattern : patterns) {
+            entries.add(entry("filter-mapping", "filter-name", pattern, "url-pattern", pattern));
+        }
+        final WebxmlDispatcher patternDispatcher = new WebxmlDispatcher(entries);
+        for (String path : Arrays.asList("/", "/app", "/app/login.do", "/app/users/1", "/shop/cart.do", "/application")) {
+            final List<String> expected = new ArrayList<String>();
+            for (String pattern : patterns) {
+                if (WebxmlUrlPatterns.matches(pattern, path)) {
+                    expected.add(pattern);
+                }
+            }
+            assertEquals(path, expected, patternDispatcher.dispatch(path).getFilterNames());
+        }
+    }
+
+    private static void assertServlet(String servletName, String pattern, WebxmlDispatch dispatch) {
+        assertEquals(servletName, dispatch.getServletName());
+        assertEquals(pattern, dispatch.getPattern());
+    }
+
+    /**
+     * @param pathsAndValues alternate leaf paths and values, e.g. "servlet-name", "app"
+     */
+    private static WebxmlEntry entry(String elementName, String... pathsAndValues) {
+        final WebxmlEntry entry = new WebxmlEntry(elementName);
+        for (int i = 0; i < pathsAndValues.length; i += 2) {
+            entry.addValue(pathsAndValues[i], pathsAndValues[i + 1]);
+        }
+        return entry;
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Unit tests of {@link WebxmlDocumentCache}.
+ *
+ * @since 0.1.1
+ */
+public class WebxmlDocumentCacheTest {
+
+    private static final String PATH = "/project/src/main/webapp/WEB-INF/web.xml";
+
+    private final WebxmlDocumentCache cache = new WebxmlDocumentCache();
+    private Document document;
+
+    @Before
+    public void setUp() throws Exception {
+        document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        cache.put(PATH, document, 10L, 100L);
+    }
+
+    @Test
+    public void documentIsServedWhileFileIsUnchanged() {
+        assertSame(document, cache.get(PATH, 10L, 100L));
+        assertSame(document, cache.get(PATH, 10L, 100L));
+        assertNull(cache.get("/other/web.xml", 10L, 100L));
+    }
+
+    @Test
+    public void staleDocumentIsEvicted() {
+        assertNull(cache.get(PATH, 11L, 100L));
+        assertNull(cache.get(PATH, 10L, 100L));
+    }
+
+    @Test
+    public void lengthChangeMakesDocumentStale() {
+        assertNull(cache.get(PATH, 10L, 101L));
+    }
+
+    @Test
+    public void ownWriteDoesNotEvict() {
+        cache.put(PATH, document, 12L, 120L);
+        cache.fileChanged(PATH, 12L, 120L);
+        assertSame(document, cache.get(PATH, 12L, 120L));
+    }
+
+    @Test
+    public void externalChangeEvicts() {
+        cache.fileChanged(PATH, 13L, 100L);
+        assertNull(cache.get(PATH, 10L, 100L));
+    }
+
+    @Test
+    public void deletionEvicts() {
+        cache.fileChanged(PATH, null, 0L);
+        assertNull(cache.get(PATH, 10L, 100L));
+    }
+
+    @Test
+    public void evictedDocumentIsNotServed() {
+        cache.evict(PATH);
+        assertNull(cache.get(PATH, 10L, 100L));
+    }
+}
@@ -0,0 +1,120 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Unit tests of {@link WebxmlFingerprint}.
+ *
+ * @since 0.1.1
+ */
+public class WebxmlFingerprintTest {
+
+    @Test
+    public void whitespaceBetweenElementsIsIgnored() throws Exception {
+        assertEquals(fingerprint("<servlet><servlet-name>app</servlet-name></servlet>"),
+                fingerprint("<servlet>\n    <servlet-name>app</servlet-name>\n</servlet>"));
+    }
+
+    @Test
+    public void childOrderIsIgnored() throws Exception {
+        assertEquals(fingerprint("<a><b>1</b><c>2</c></a>"), fingerprint("<a><c>2</c><b>1</b></a>"));
+    }
+
+    @Test
+    public void attributesCount() throws Exception {
+        assertEquals(fingerprint("<a x=\"1\" y=\"2\"/>"), fingerprint("<a y=\"2\" x=\"1\"/>"));
+        assertFalse(fingerprint("<a x=\"1\"/>").equals(fingerprint("<a x=\"2\"/>")));
+    }
+
+    @Test
+    public void partsCannotBeMistakenForSeparators() throws Exception {
+        assertFalse(fingerprint("<a><b>1</b><b>2</b></a>").equals(fingerprint("<a><b>12</b></a>")));
+        assertFalse(fingerprint("<a>b</a>").equals(fingerprint("<a><b/></a>")));
+    }
+
+    @Test
+    public void containsChildFindsEquivalentChild() throws Exception {
+        final Document document = parse("<servlet><servlet-name>app</servlet-name>"
+                + "<init-param><param-name>a</param-name><param-value>1</param-value></init-param></servlet>");
+        final Element servlet = document.getDocumentElement();
+
+        assertTrue(WebxmlFingerprint.containsChild(servlet, element(document,
+                "<init-param>\n  <param-value>1</param-value>\n  <param-name>a</param-name>\n</init-param>")));
+        assertFalse(WebxmlFingerprint.containsChild(servlet, element(document,
+                "<init-param><param-name>a</param-name><param-value>2</param-value></init-param>")));
+    }
+
+    @Test
+    public void appendedChildIsFound() throws Exception {
+        final Document document = parse("<servlet><servlet-name>app</servlet-name></servlet>");
+        final Element servlet = document.getDocumentElement();
+        final Element servletClass = element(document, "<servlet-class>a.App</servlet-class>");
+        assertFalse(WebxmlFingerprint.containsChild(servlet, servletClass));
+        final String before = WebxmlFingerprint.of(servlet);
+
+        servlet.appendChild(servletClass);
+        WebxmlFingerprint.childAppended(servlet, servletClass);
+        assertTrue(WebxmlFingerprint.containsChild(servlet, element(document, "<servlet-class>a.App</servlet-class>")));
+        assertFalse(before.equals(WebxmlFingerprint.of(servlet)));
+    }
+
+    @Test
+    public void invalidatedAncestorsAreComputedAgain() throws Exception {
+        final Document document = parse("<servlet><init-param><param-value>1</param-value></init-param></servlet>");
+        final Element servlet = document.getDocumentElement();
+        final Element value = (Element) document.getElementsByTagName("param-value").item(0);
+        final String before = WebxmlFingerprint.of(servlet);
+
+        value.setTextContent("2");
+        WebxmlFingerprint.invalidate(value);
+        assertFalse(before.equals(WebxmlFingerprint.of(servlet)));
+    }
+
+    @Test
+    public void hashIgnoresIndentationOnly() throws Exception {
+        assertEquals(hash("<a><b>x y</b></a>"), hash("<a>\n    <b>\n        x y\n    </b>\n</a>"));
+        assertFalse(hash("<a><b>x y</b></a>") == hash("<a><b>xy</b></a>"));
+    }
+
+    @Test
+    public void hashIsOrderSensitiveAndCoversComments() throws Exception {
+        assertFalse(hash("<a><b/><c/></a>") == hash("<a><c/><b/></a>"));
+        assertFalse(hash("<a><b/></a>") == hash("<a><!-- note --><b/></a>"));
+    }
+
+    @Test
+    public void hashFollowsMutations() throws Exception {
+        final Document document = parse("<a><b>1</b></a>");
+        final long before = WebxmlFingerprint.hash(document);
+        document.getElementsByTagName("b").item(0).setTextContent("2");
+        assertFalse(before == WebxmlFingerprint.hash(document));
+        document.getElementsByTagName("b").item(0).setTextContent("1");
+        assertEquals(before, WebxmlFingerprint.hash(document));
+    }
+
+    private static long hash(String xml) throws Exception {
+        return WebxmlFingerprint.hash(parse(xml));
+    }
+
+    private static String fingerprint(String xml) throws Exception {
+        return WebxmlFingerprint.of(parse(xml).getDocumentElement());
+    }
+
+    private static Element element(Document document, String xml) throws Exception {
+        return (Element) document.importNode(parse(xml).getDocumentElement(), true);
+    }
+
+    private static Document parse(String xml) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+    }
+}
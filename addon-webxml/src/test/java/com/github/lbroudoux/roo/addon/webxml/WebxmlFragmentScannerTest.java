@@ -0,0 +1,61 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests of {@link WebxmlFragmentScanner}.
+ *
+ * @since 0.1.1
+ */
+public class WebxmlFragmentScannerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void fragmentNamesAreReadFromJars() throws Exception {
+        final List<File> jars = Arrays.asList(
+                jar("named.jar", "<web-fragment xmlns=\"http://java.sun.com/xml/ns/javaee\" version=\"3.0\">"
+                        + "<name>first</name><ordering><after><name>nested</name></after></ordering></web-fragment>"),
+                jar("unnamed.jar", "<web-fragment version=\"3.0\"><display-name>unnamed</display-name></web-fragment>"),
+                jar("plain.jar", null),
+                jar("duplicate.jar", "<web-fragment version=\"3.0\"><name>first</name></web-fragment>"),
+                new File(folder.getRoot(), "missing.jar"));
+
+        final List<String> names = new ArrayList<String>();
+        final List<String> unnamed = new ArrayList<String>();
+        WebxmlFragmentScanner.scan(jars, names, unnamed);
+
+        assertEquals(Arrays.asList("first"), names);
+        assertEquals(Arrays.asList("unnamed.jar"), unnamed);
+    }
+
+    private File jar(String fileName, String webFragment) throws IOException {
+        final File jar = new File(folder.getRoot(), fileName);
+        final ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(jar));
+        try {
+            outputStream.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            outputStream.write("Manifest-Version: 1.0\n".getBytes("UTF-8"));
+            if (webFragment != null) {
+                outputStream.putNextEntry(new ZipEntry("META-INF/web-fragment.xml"));
+                outputStream.write(webFragment.getBytes("UTF-8"));
+            }
+        } finally {
+            outputStream.close();
+        }
+        return jar;
+    }
+}
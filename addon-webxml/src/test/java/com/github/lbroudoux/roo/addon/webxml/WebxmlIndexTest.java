@@ -0,0 +1,102 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Comment;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Unit tests of {@link WebxmlIndex}.
+ *
+ * @since 0.1.1
+ */
+public class WebxmlIndexTest {
+
+    private static final String WEB_XML = "<web-app version=\"3.0\">"
+            + "<!-- Parameters -->"
+            + "<context-param><param-name>first</param-name><param-value>1</param-value></context-param>"
+            + "<context-param><param-name>\n    padded\n  </param-name><param-value>2</param-value></context-param>"
+            + "<context-param><param-name>first</param-name><param-value>duplicate</param-value></context-param>"
+            + "<servlet><servlet-name>app</servlet-name><servlet-class>a.App</servlet-class></servlet>"
+            + "<servlet-mapping><servlet-name>app</servlet-name><url-pattern>/app/*</url-pattern></servlet-mapping>"
+            + "</web-app>";
+
+    private Document document;
+    private WebxmlIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(WEB_XML.getBytes("UTF-8")));
+        index = WebxmlIndex.of(document);
+    }
+
+    @Test
+    public void indexIsAttachedToItsDocument() {
+        assertSame(index, WebxmlIndex.of(document));
+    }
+
+    @Test
+    public void declarationsAreFoundByKindAndName() {
+        assertEquals("a.App", text(index.find("servlet", "app"), "servlet-class"));
+        assertEquals("/app/*", text(index.find("servlet-mapping", "app"), "url-pattern"));
+        assertNull(index.find("filter", "app"));
+        assertNull(index.find("servlet", "unknown"));
+    }
+
+    @Test
+    public void firstDeclarationOfANameWins() {
+        assertEquals("1", text(index.find("context-param", "first"), "param-value"));
+    }
+
+    @Test
+    public void namesAreTrimmed() {
+        assertEquals("2", text(index.find("context-param", "padded"), "param-value"));
+    }
+
+    @Test
+    public void firstAndLastFollowDocumentOrder() {
+        assertEquals("1", text(index.first("context-param"), "param-value"));
+        assertEquals("duplicate", text(index.last("context-param"), "param-value"));
+        assertNull(index.first("listener"));
+    }
+
+    @Test
+    public void registeredElementsAreIndexed() {
+        final Element contextParam = document.createElement("context-param");
+        contextParam.appendChild(document.createElement("param-name")).setTextContent("inserted");
+        final Element first = index.first("context-param");
+        document.getDocumentElement().insertBefore(contextParam, first);
+        index.register(contextParam);
+
+        assertSame(contextParam, index.find("context-param", "inserted"));
+        assertSame(contextParam, index.first("context-param"));
+        assertEquals("duplicate", text(index.last("context-param"), "param-value"));
+    }
+
+    @Test
+    public void commentsAreIndexed() {
+        assertTrue(index.hasComment(" Parameters "));
+        assertFalse(index.hasComment(" Servlets "));
+
+        final Comment comment = document.createComment(" Servlets ");
+        document.getDocumentElement().appendChild(comment);
+        index.register(comment);
+        assertTrue(index.hasComment(" Servlets "));
+    }
+
+    private static String text(Element parent, String childName) {
+        return parent.getElementsByTagName(childName).item(0).getTextContent();
+    }
+}
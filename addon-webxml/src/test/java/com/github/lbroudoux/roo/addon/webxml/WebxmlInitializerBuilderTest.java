@@ -0,0 +1,89 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Unit tests of {@link WebxmlInitializerBuilder}.
+ *
+ * @since 0.1.1
+ */
+public class WebxmlInitializerBuilderTest {
+
+    @Test
+    public void declarationsAreRegisteredGroupByGroup() throws Exception {
+        final WebxmlInitializerBuilder builder = new WebxmlInitializerBuilder("com.example.web", "AppInitializer");
+        builder.addServletMapping(element("<servlet-mapping><servlet-name>app</servlet-name>"
+                + "<url-pattern>/app/*</url-pattern><url-pattern>*.do</url-pattern></servlet-mapping>"));
+        builder.addServlet(element("<servlet><servlet-name>app</servlet-name><servlet-class>a.App</servlet-class>"
+                + "<init-param><param-name>config</param-name><param-value>/WEB-INF/app.xml</param-value></init-param>"
+                + "<load-on-startup>1</load-on-startup><async-supported>true</async-supported></servlet>"), "Front controller");
+        builder.addListener(element("<listener><listener-class>a.Listener</listener-class></listener>"), null);
+        builder.addContextParam(element("<context-param><param-name>mode</param-name>"
+                + "<param-value>\"quoted\"</param-value></context-param>"), null);
+        final String source = builder.build();
+
+        assertTrue(source.startsWith("package com.example.web;\n\n"));
+        assertTrue(source.contains("public class AppInitializer implements ServletContainerInitializer {"));
+        assertTrue(source.contains("        // Front controller\n"
+                + "        servlet = servletContext.addServlet(\"app\", \"a.App\");\n"
+                + "        servlet.setInitParameter(\"config\", \"/WEB-INF/app.xml\");\n"
+                + "        servlet.setLoadOnStartup(1);\n"
+                + "        servlet.setAsyncSupported(true);\n"));
+        assertTrue(source.contains("servletContext.getServletRegistration(\"app\").addMapping(\"/app/*\", \"*.do\");"));
+        assertTrue(source.contains("servletContext.setInitParameter(\"mode\", \"\\\"quoted\\\"\");"));
+        assertTrue(source.indexOf("setInitParameter(\"mode\"") < source.indexOf("addListener(")
+                && source.indexOf("addListener(") < source.indexOf("addServlet(")
+                && source.indexOf("addServlet(") < source.indexOf("getServletRegistration("));
+        assertFalse(source.contains("FilterRegistration"));
+        assertFalse(source.contains("DispatcherType"));
+    }
+
+    @Test
+    public void filterMappingsKeepTheirDispatchers() throws Exception {
+        final WebxmlInitializerBuilder builder = new WebxmlInitializerBuilder("", "Initializer");
+        builder.addFilter(element("<filter><filter-name>encoding</filter-name><filter-class>a.Encoding</filter-class>"
+                + "<async-supported>false</async-supported></filter>"), null);
+        builder.addFilterMapping(element("<filter-mapping><filter-name>encoding</filter-name>"
+                + "<url-pattern>/*</url-pattern><servlet-name>app</servlet-name>"
+                + "<dispatcher>REQUEST</dispatcher><dispatcher>ASYNC</dispatcher></filter-mapping>"));
+        builder.addFilterMapping(element("<filter-mapping><filter-name>encoding</filter-name>"
+                + "<url-pattern>*.do</url-pattern></filter-mapping>"));
+        final String source = builder.build();
+
+        assertTrue(source.startsWith("import java.util.EnumSet;\n"));
+        assertTrue(source.contains("filter.setAsyncSupported(false);"));
+        assertTrue(source.contains("servletContext.getFilterRegistration(\"encoding\").addMappingForUrlPatterns("
+                + "EnumSet.of(DispatcherType.REQUEST, DispatcherType.ASYNC), true, \"/*\");"));
+        assertTrue(source.contains("servletContext.getFilterRegistration(\"encoding\").addMappingForServletNames("
+                + "EnumSet.of(DispatcherType.REQUEST, DispatcherType.ASYNC), true, \"app\");"));
+        assertTrue(source.contains("servletContext.getFilterRegistration(\"encoding\").addMappingForUrlPatterns("
+                + "null, true, \"*.do\");"));
+        assertFalse(source.contains("ServletRegistration.Dynamic"));
+    }
+
+    @Test
+    public void onlyRegistrableChildrenAreExportable() throws Exception {
+        assertTrue(WebxmlInitializerBuilder.isExportable(element("<servlet><servlet-name>app</servlet-name>"
+                + "<servlet-class>a.App</servlet-class><load-on-startup>1</load-on-startup></servlet>"),
+                WebxmlInitializerBuilder.SERVLET_CHILDREN));
+        assertFalse(WebxmlInitializerBuilder.isExportable(element("<servlet><servlet-name>page</servlet-name>"
+                + "<jsp-file>/page.jsp</jsp-file></servlet>"), WebxmlInitializerBuilder.SERVLET_CHILDREN));
+        assertTrue(WebxmlInitializerBuilder.isExportable(element("<filter><filter-name>f</filter-name>"
+                + "<filter-class>a.F</filter-class></filter>"), WebxmlInitializerBuilder.FILTER_CHILDREN));
+    }
+
+    private static Element element(String xml) throws Exception {
+        final Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+        return document.getDocumentElement();
+    }
+}
@@ -0,0 +1,156 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests of {@link WebxmlManifest}.
+ *
+ * @since 0.1.1
+ */
+public class WebxmlManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void propertiesFollowJavaUtilPropertiesRules() throws Exception {
+        final List<WebxmlDeclaration> declarations = read(write("manifest.properties", "ISO-8859-1",
+                "# Servlets\n"
+                + "servlet.app.class = com.example.App\n"
+                + "context-param.greeting.value: caf\\u00e9 \\\n    au lait\n"
+                + "servlet.app.mapping=/app/*\n"
+                + "! Env entries\n"
+                + "env-entry.max.type java.lang.Integer\n"
+                + "env-entry.max.value=10\n"
+                + "context-param.encoded.value=d\u00e9j\u00e0\n"));
+
+        assertEquals(4, declarations.size());
+        final WebxmlDeclaration servlet = declarations.get(0);
+        assertEquals("servlet app", servlet.toString());
+        assertEquals("com.example.App", servlet.getAttribute("class"));
+        assertEquals("/app/*", servlet.getAttribute("mapping"));
+        assertEquals("caf\u00e9 au lait", declarations.get(1).getAttribute("value"));
+        assertEquals("java.lang.Integer", declarations.get(2).getAttribute("type"));
+        assertEquals("d\u00e9j\u00e0", declarations.get(3).getAttribute("value"));
+    }
+
+    @Test
+    public void csvFieldsFollowTheAttributeOrder() throws Exception {
+        final List<WebxmlDeclaration> declarations = read(write("manifest.csv", "UTF-8",
+                "kind,name,attribute1,attribute2,attribute3,comment\n"
+                + "servlet,app,com.example.App,/app/*,1,Application servlet\n"
+                + "context-param,list,\"a,b,\"\"c\"\"\"\n"
+                + "\n"
+                + "env-entry,max,java.lang.Integer,10\n"));
+
+        assertEquals(3, declarations.size());
+        assertEquals("1", declarations.get(0).getAttribute("loading"));
+        assertEquals("Application servlet", declarations.get(0).getAttribute("comment"));
+        assertEquals("a,b,\"c\"", declarations.get(1).getAttribute("value"));
+        assertEquals("10", declarations.get(2).getAttribute("value"));
+        assertNull(declarations.get(2).getAttribute("comment"));
+    }
+
+    @Test
+    public void xmlAttributesAreRead() throws Exception {
+        final List<WebxmlDeclaration> declarations = read(write("manifest.xml", "UTF-8",
+                "<webxml>\n"
+                + "  <servlet name=\"app\" class=\"com.example.App\" mapping=\"/app/*\"/>\n"
+                + "  <context-param name=\"greeting\" value=\"hello\" comment=\"Greeting\"/>\n"
+                + "</webxml>\n"));
+
+        assertEquals(2, declarations.size());
+        assertEquals("/app/*", declarations.get(0).getAttribute("mapping"));
+        assertEquals("line 3", declarations.get(1).getLocation());
+        assertEquals("Greeting", declarations.get(1).getAttribute("comment"));
+    }
+
+    @Test
+    public void allErrorsAreReportedAndNothingIsHandedOverAfterTheFirst() throws Exception {
+        final List<WebxmlDeclaration> declarations = new ArrayList<WebxmlDeclaration>();
+        try {
+            WebxmlManifest.read(write("manifest.csv", "UTF-8",
+                    "context-param,first,1\n"
+                    + "listener,unknown\n"
+                    + "servlet,app,com.example.App,/app/*,soon\n"
+                    + "env-entry,max,java.util.Date,10\n"
+                    + "context-param,first,2\n"
+                    + "context-param,last,3\n"), collect(declarations));
+            fail("The manifest should be rejected");
+        } catch (IllegalArgumentException expected) {
+            final String message = expected.getMessage();
+            assertTrue(message, message.startsWith("Invalid manifest 'manifest.csv', nothing imported:"));
+            assertTrue(message, message.contains("line 2: unknown declaration kind 'listener'"));
+            assertTrue(message, message.contains("line 3: servlet app has a non numeric loading 'soon'"));
+            assertTrue(message, message.contains("line 4: env-entry max has an invalid type 'java.util.Date'"));
+            assertTrue(message, message.contains("line 5: context-param first already declared at line 1"));
+        }
+        assertEquals(1, declarations.size());
+    }
+
+    @Test
+    public void missingAndUnknownAttributesAreRejected() throws Exception {
+        try {
+            read(write("manifest.properties", "ISO-8859-1",
+                    "servlet.app.mapping=/app/*\n"
+                    + "context-param.greeting.colour=blue\n"
+                    + "invalid=key\n"));
+            fail("The manifest should be rejected");
+        } catch (IllegalArgumentException expected) {
+            final String message = expected.getMessage();
+            assertTrue(message, message.contains("keys 'servlet.app.*': servlet app requires a class"));
+            assertTrue(message, message.contains("context-param greeting has unknown attribute 'colour'"));
+            assertTrue(message, message.contains("context-param greeting requires a value"));
+            assertTrue(message, message.contains("key 'invalid' should be kind.name.attribute"));
+        }
+    }
+
+    @Test
+    public void unsupportedExtensionIsRejected() throws Exception {
+        try {
+            read(write("manifest.json", "UTF-8", "{}"));
+            fail("The manifest should be rejected");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().startsWith("Unsupported manifest 'manifest.json'"));
+        }
+    }
+
+    private File write(String fileName, String encoding, String content) throws IOException {
+        final File file = new File(folder.getRoot(), fileName);
+        final OutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(content.getBytes(encoding));
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+
+    private static List<WebxmlDeclaration> read(File manifest) {
+        final List<WebxmlDeclaration> declarations = new ArrayList<WebxmlDeclaration>();
+        WebxmlManifest.read(manifest, collect(declarations));
+        return declarations;
+    }
+
+    private static WebxmlManifest.DeclarationHandler collect(final List<WebxmlDeclaration> declarations) {
+        return new WebxmlManifest.DeclarationHandler() {
+            public void handle(WebxmlDeclaration declaration) {
+                declarations.add(declaration);
+            }
+        };
+    }
+}
@@ -0,0 +1,99 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.roo.process.manager.CommandCallback;
+import org.springframework.roo.process.manager.ProcessManager;
+import org.springframework.roo.process.manager.ProcessManagerStatus;
+
+/**
+ * Unit tests of the flush of the {@link WebxmlMetadataProvider} queued servlet declarations.
+ *
+ * @since 0.1.1
+ */
+public class WebxmlMetadataProviderTest {
+
+    private final WebxmlMetadataProvider provider = new WebxmlMetadataProvider();
+    private Map<String, WebxmlMetadata> pendingContributions;
+    private Map<String, WebxmlMetadata> contributions;
+    private RuntimeException failure;
+    private int flushes;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        WebxmlTestProject.inject(provider, "processManager", WebxmlTestProject.proxy(ProcessManager.class,
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+                        if ("execute".equals(method.getName())) {
+                            try {
+                                return ((CommandCallback<?>) args[0]).callback();
+                            } finally {
+                                // Roo notifies its listeners once the command is executed.
+                                provider.onProcessManagerStatusChange(ProcessManagerStatus.BUSY_EXECUTING,
+                                        ProcessManagerStatus.AVAILABLE);
+                            }
+                        }
+                        return WebxmlTestProject.defaultValue(method);
+                    }
+                }));
+        WebxmlTestProject.inject(provider, "webxmlOperations", WebxmlTestProject.proxy(WebxmlOperations.class,
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("addAnnotatedServlets".equals(method.getName())) {
+                            flushes++;
+                            if (failure != null) {
+                                throw failure;
+                            }
+                        }
+                        return WebxmlTestProject.defaultValue(method);
+                    }
+                }));
+        pendingContributions = (Map<String, WebxmlMetadata>) field("pendingContributions");
+        contributions = (Map<String, WebxmlMetadata>) field("contributions");
+    }
+
+    @Test
+    public void pendingDeclarationsAreFlushedOnceAvailable() {
+        pendingContributions.put("first", null);
+        pendingContributions.put("second", null);
+        provider.onProcessManagerStatusChange(ProcessManagerStatus.BUSY_POLLING, ProcessManagerStatus.BUSY_EXECUTING);
+        assertEquals(0, flushes);
+
+        provider.onProcessManagerStatusChange(ProcessManagerStatus.BUSY_POLLING, ProcessManagerStatus.AVAILABLE);
+        assertEquals(1, flushes);
+        assertTrue(pendingContributions.isEmpty());
+        assertEquals(2, contributions.size());
+    }
+
+    @Test
+    public void failedDeclarationsStayQueuedForTheNextCycle() {
+        pendingContributions.put("servlet", null);
+        failure = new IllegalArgumentException("Asynchronous processing requires web-app version 3.0");
+        provider.onProcessManagerStatusChange(ProcessManagerStatus.BUSY_POLLING, ProcessManagerStatus.AVAILABLE);
+
+        assertEquals(1, flushes);
+        assertEquals(1, pendingContributions.size());
+        assertTrue(contributions.isEmpty());
+
+        failure = null;
+        provider.onProcessManagerStatusChange(ProcessManagerStatus.BUSY_POLLING, ProcessManagerStatus.AVAILABLE);
+        assertEquals(2, flushes);
+        assertTrue(pendingContributions.isEmpty());
+        assertEquals(1, contributions.size());
+    }
+
+    private Object field(String name) throws Exception {
+        final Field field = WebxmlMetadataProvider.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(provider);
+    }
+}
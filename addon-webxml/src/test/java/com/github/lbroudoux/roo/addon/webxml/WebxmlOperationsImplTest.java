@@ -0,0 +1,620 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.roo.model.JavaType;
+import org.springframework.roo.project.Path;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Unit tests of {@link WebxmlOperationsImpl} against an in-memory web.xml.
+ *
+ * @since 0.1.1
+ */
+public class WebxmlOperationsImplTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final JavaType CACHING_FILTER = new JavaType("com.example.web.StaticCachingFilter");
+    private static final String CACHING_FILTER_PATH = WebxmlTestProject.pathOf(Path.SRC_MAIN_JAVA,
+            "com/example/web/StaticCachingFilter.java");
+
+    private WebxmlTestProject project;
+    private WebxmlOperationsImpl operations;
+
+    @Before
+    public void setUp() {
+        project = new WebxmlTestProject();
+        operations = project.newOperations();
+    }
+
+    @Test
+    public void batchIsWrittenOnceOnCommit() {
+        operations.beginBatch();
+        assertTrue(operations.isBatchActive());
+        operations.addEnvironmentEntry("first", "java.lang.String", "1", null);
+        operations.addEnvironmentEntry("second", "java.lang.String", "2", null);
+        operations.addEnvironmentEntry("third", "java.lang.String", "3", null);
+        assertEquals(0, project.getWrites());
+
+        operations.commitBatch();
+        assertFalse(operations.isBatchActive());
+        assertEquals(1, project.getWrites());
+        assertArrayEquals(new String[] { "first", "second", "third" }, project.getTexts("env-entry-name"));
+    }
+
+    @Test
+    public void rolledBackBatchIsNotWritten() {
+        operations.beginBatch();
+        operations.addEnvironmentEntry("dropped", "java.lang.String", "1", null);
+        operations.rollbackBatch();
+
+        assertFalse(operations.isBatchActive());
+        assertEquals(0, project.getWrites());
+        assertEquals(0, project.getTexts("env-entry-name").length);
+    }
+
+    @Test
+    public void failingDeclarationRollsTheBatchBack() {
+        operations.beginBatch();
+        operations.addEnvironmentEntry("dropped", "java.lang.String", "1", null);
+        try {
+            operations.addEnvironmentEntry(null, "java.lang.String", "2", null);
+            fail("A missing name should be rejected");
+        } catch (RuntimeException expected) {
+        }
+
+        assertFalse(operations.isBatchActive());
+        assertEquals(0, project.getWrites());
+        operations.addEnvironmentEntry("kept", "java.lang.String", "3", null);
+        assertArrayEquals(new String[] { "kept" }, project.getTexts("env-entry-name"));
+    }
+
+    @Test
+    public void onlyOneBatchAtATime() {
+        operations.beginBatch();
+        try {
+            operations.beginBatch();
+            fail("Nested batches should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void declarationOutsideABatchIsWrittenStraightAway() {
+        operations.addEnvironmentEntry("single", "java.lang.Integer", "1", null);
+        assertEquals(1, project.getWrites());
+        assertArrayEquals(new String[] { "java.lang.Integer" }, project.getTexts("env-entry-type"));
+    }
+
+    @Test
+    public void parsedDocumentIsReusedAcrossCommands() {
+        operations.addEnvironmentEntry("first", "java.lang.String", "1", null);
+        operations.flush();
+        operations.addEnvironmentEntry("second", "java.lang.String", "2", null);
+
+        assertEquals(1, project.getReads());
+        assertEquals(2, project.getWrites());
+        assertArrayEquals(new String[] { "first", "second" }, project.getTexts("env-entry-name"));
+    }
+
+    @Test
+    public void externalChangeIsReadAgain() {
+        operations.addEnvironmentEntry("first", "java.lang.String", "1", null);
+        operations.flush();
+        project.setWebXml(WebxmlTestProject.WEB_XML);
+        operations.addEnvironmentEntry("second", "java.lang.String", "2", null);
+
+        assertEquals(2, project.getReads());
+        assertArrayEquals(new String[] { "second" }, project.getTexts("env-entry-name"));
+    }
+
+    @Test
+    public void documentLeftHalfMutatedIsReadAgain() {
+        operations.beginBatch();
+        operations.addEnvironmentEntry("dropped", "java.lang.String", "1", null);
+        operations.rollbackBatch();
+        operations.addEnvironmentEntry("kept", "java.lang.String", "2", null);
+
+        assertEquals(2, project.getReads());
+        assertArrayEquals(new String[] { "kept" }, project.getTexts("env-entry-name"));
+    }
+
+    @Test
+    public void changesAreWrittenOnceFlushed() {
+        operations.addEnvironmentEntry("first", "java.lang.String", "1", null);
+        operations.addContextParam("param", "value", null);
+        operations.addServlet("app", "com.example.AppServlet", "/app/*", null, null, null);
+        operations.flush();
+        operations.flush();
+
+        assertEquals(1, project.getWrites());
+        assertArrayEquals(new String[] { "param" }, project.getTexts("param-name"));
+    }
+
+    @Test
+    public void servletIsDeclaredAndMappedOnce() {
+        operations.addServlet("app", "com.example.AppServlet", "/app/*", 1, null, null);
+        operations.addServlet("app", "com.example.AppServlet", "/app/*", 1, null, null);
+
+        assertArrayEquals(new String[] { "com.example.AppServlet" }, project.getTexts("servlet-class"));
+        assertArrayEquals(new String[] { "app", "app" }, project.getTexts("servlet-name"));
+        assertArrayEquals(new String[] { "/app/*" }, project.getTexts("url-pattern"));
+        assertArrayEquals(new String[] { "1" }, project.getTexts("load-on-startup"));
+    }
+
+    @Test
+    public void existingDeclarationIsFoundWhateverItsWhitespace() {
+        project.setWebXml(WebxmlTestProject.WEB_XML.replace("</web-app>",
+                "    <context-param>\n        <param-name>\n            padded\n        </param-name>\n"
+                + "        <param-value>1</param-value>\n    </context-param>\n</web-app>"));
+        operations.addContextParam("padded", "1", null);
+
+        assertArrayEquals(new String[] { "padded" }, project.getTexts("param-name"));
+    }
+
+    @Test
+    public void equivalentChildIsNotAppendedTwice() {
+        project.setWebXml(WebxmlTestProject.WEB_XML.replace("</web-app>",
+                "    <servlet>\n        <servlet-name>app</servlet-name>\n        <servlet-class>\n"
+                + "            com.example.AppServlet\n        </servlet-class>\n    </servlet>\n</web-app>"));
+        operations.addServlet("app", "com.example.AppServlet", "/app/*", null, null, null);
+
+        assertArrayEquals(new String[] { "com.example.AppServlet" }, project.getTexts("servlet-class"));
+    }
+
+    @Test
+    public void entriesAreReadFromDisk() {
+        operations.addServlet("app", "com.example.AppServlet", "/app/*", null, null, null);
+        operations.addContextParam("param", "value", null);
+
+        final List<WebxmlEntry> servlets = operations.findEntries("servlet", "servlet-mapping");
+        assertEquals(2, servlets.size());
+        assertEquals("com.example.AppServlet", servlets.get(0).getValue("servlet-class"));
+        assertEquals("/app/*", servlets.get(1).getValue("url-pattern"));
+        assertEquals("value", operations.findEntry("param").getValue("param-value"));
+        assertNull(operations.findEntry("unknown"));
+    }
+
+    @Test
+    public void handEditedContentIsKeptAroundInsertedDeclarations() {
+        final String handEdited = WebxmlTestProject.WEB_XML.replace("</web-app>",
+                "  <!--   hand   written   -->\n  <context-param><param-name>a</param-name><param-value>1</param-value></context-param>\n</web-app>");
+        project.setWebXml(handEdited);
+        operations.addContextParam("b", "2", null);
+
+        final String written = project.getWebXml();
+        assertTrue(written.startsWith(handEdited.substring(0, handEdited.indexOf("</context-param>"))));
+        assertTrue(written.endsWith("</web-app>\n"));
+        assertArrayEquals(new String[] { "a", "b" }, project.getTexts("param-name"));
+    }
+
+    @Test
+    public void unchangedDocumentIsNotWritten() {
+        operations.addServlet("app", "com.example.AppServlet", "/app/*", 1, null, null);
+        final String written = project.getWebXml();
+        operations.addServlet("app", "com.example.AppServlet", "/app/*", 1, null, null);
+        operations.beginBatch();
+        operations.addContextParam("param", "value", null);
+        operations.commitBatch();
+        operations.beginBatch();
+        operations.addContextParam("param", "value", null);
+        operations.commitBatch();
+
+        assertEquals(2, project.getWrites());
+        assertTrue(project.getWebXml().startsWith(written.substring(0, written.indexOf("</web-app>"))));
+    }
+
+    @Test
+    public void changedValuesAreReplaced() {
+        operations.addServlet("app", "com.example.AppServlet", "/app/*", 1, null, null);
+        operations.addContextParam("param", "before", null);
+        operations.addEnvironmentEntry("entry", "java.lang.String", "before", null);
+        operations.addServlet("app", "com.example.OtherServlet", "/app/*", 2, null, null);
+        operations.addContextParam("param", "after", null);
+        operations.addEnvironmentEntry("entry", "java.lang.Integer", "1", null);
+
+        assertArrayEquals(new String[] { "com.example.OtherServlet" }, project.getTexts("servlet-class"));
+        assertArrayEquals(new String[] { "2" }, project.getTexts("load-on-startup"));
+        assertArrayEquals(new String[] { "after" }, project.getTexts("param-value"));
+        assertArrayEquals(new String[] { "java.lang.Integer" }, project.getTexts("env-entry-type"));
+        assertArrayEquals(new String[] { "1" }, project.getTexts("env-entry-value"));
+    }
+
+    @Test
+    public void manifestIsImportedInOneWrite() throws Exception {
+        operations.addContextParam("updated", "before", null);
+        operations.flush();
+        operations.addContextParam("skipped", "same", null);
+        operations.flush();
+        operations.importDeclarations(manifest("manifest.csv",
+                "servlet,app,com.example.AppServlet,/app/*,1\n"
+                + "context-param,updated,after\n"
+                + "context-param,skipped,same\n"
+                + "env-entry,max,java.lang.Integer,10\n"));
+
+        assertEquals(3, project.getWrites());
+        assertArrayEquals(new String[] { "updated", "skipped" }, project.getTexts("param-name"));
+        assertArrayEquals(new String[] { "after", "same" }, project.getTexts("param-value"));
+        assertArrayEquals(new String[] { "/app/*" }, project.getTexts("url-pattern"));
+        assertArrayEquals(new String[] { "10" }, project.getTexts("env-entry-value"));
+    }
+
+    @Test
+    public void invalidManifestImportsNothing() throws Exception {
+        try {
+            operations.importDeclarations(manifest("manifest.csv",
+                    "context-param,valid,1\n"
+                    + "context-param,invalid\n"));
+            fail("The manifest should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+        operations.addEnvironmentEntry("entry", "java.lang.String", "1", null);
+
+        assertEquals(1, project.getWrites());
+        assertEquals(0, project.getTexts("param-name").length);
+    }
+
+    @Test
+    public void startupIsTunedOnce() {
+        project.setWebXml(WebxmlTestProject.WEB_XML.replace("version=\"3.0\"", "version=\"2.5\""));
+        operations.tuneStartup("3.0", Arrays.asList("spring_web", "other"), true);
+        operations.tuneStartup("3.0", Arrays.asList("spring_web", "other"), true);
+
+        assertEquals(1, project.getWrites());
+        final Element webApp = project.getDocument().getDocumentElement();
+        assertEquals("3.0", webApp.getAttribute("version"));
+        assertEquals("true", webApp.getAttribute("metadata-complete"));
+        assertArrayEquals(new String[] { "spring_web", "other" }, project.getTexts("name"));
+        assertEquals(1, project.getDocument().getElementsByTagName("others").getLength());
+    }
+
+    @Test
+    public void changedOrderingIsReplaced() {
+        operations.tuneStartup("3.0", Arrays.asList("first", "second"), true);
+        operations.tuneStartup("3.0", Arrays.asList("second", "first"), false);
+
+        assertArrayEquals(new String[] { "second", "first" }, project.getTexts("name"));
+        assertEquals(0, project.getDocument().getElementsByTagName("others").getLength());
+        assertEquals(1, project.getDocument().getElementsByTagName("absolute-ordering").getLength());
+    }
+
+    @Test
+    public void startupTuningRequiresServlet30() {
+        try {
+            operations.tuneStartup("2.5", Arrays.asList("first"), false);
+            fail("metadata-complete and absolute-ordering need a 3.0 descriptor");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(0, project.getWrites());
+    }
+
+    @Test
+    public void asyncServletChildrenFollowSchemaOrder() {
+        operations.addServlet("app", "com.example.AppServlet", "/app/*", null, true, null);
+        operations.addServlet("app", "com.example.AppServlet", "/app/*", 1, true, null);
+
+        assertArrayEquals(new String[] { "servlet-name", "servlet-class", "load-on-startup", "async-supported" },
+                childNames(firstElement("servlet")));
+    }
+
+    @Test
+    public void filterIsDeclaredAndMappedInSchemaOrder() {
+        operations.addFilter("encoding", "com.example.EncodingFilter", "/*", "app", Arrays.asList("REQUEST", "ASYNC"),
+                true, null);
+        operations.addFilter("encoding", "com.example.EncodingFilter", "/*", "app", Arrays.asList("REQUEST"), true, null);
+
+        assertArrayEquals(new String[] { "filter-name", "filter-class", "async-supported" }, childNames(firstElement("filter")));
+        assertArrayEquals(new String[] { "filter-name", "url-pattern", "servlet-name", "dispatcher", "dispatcher" },
+                childNames(firstElement("filter-mapping")));
+    }
+
+    @Test
+    public void filterRequiresAMapping() {
+        try {
+            operations.addFilter("encoding", "com.example.EncodingFilter", null, null, null, null, null);
+            fail("A filter without url-pattern nor servlet-name should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            operations.addFilter("encoding", "com.example.EncodingFilter", "/*", null, Arrays.asList("LATER"), null, null);
+            fail("An unknown dispatcher should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(0, project.getWrites());
+    }
+
+    @Test
+    public void asyncSupportRequiresServlet30() {
+        project.setWebXml(WebxmlTestProject.WEB_XML.replace("version=\"3.0\"", "version=\"2.5\""));
+        try {
+            operations.addServlet("app", "com.example.AppServlet", "/app/*", null, true, null);
+            fail("async-supported needs a 3.0 descriptor");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            operations.addFilter("encoding", "com.example.EncodingFilter", "/*", null, Arrays.asList("ASYNC"), null, null);
+            fail("The ASYNC dispatcher needs a 3.0 descriptor");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(0, project.getWrites());
+    }
+
+    @Test
+    public void staticResourcesAreCachedAndCompressed() {
+        operations.addFilter("security", "com.example.SecurityFilter", "/*", null, null, null, null);
+        operations.addStaticCaching(Arrays.asList("css", "png"), 3600, true, CACHING_FILTER);
+
+        assertArrayEquals(new String[] { "StaticCachingFilter", "StaticGzipFilter", "security" }, filterMappingNames());
+        assertArrayEquals(new String[] { "*.css", "*.png", "*.css", "/*" }, project.getTexts("url-pattern"));
+        assertArrayEquals(new String[] { "maxAge" }, project.getTexts("param-name"));
+        assertArrayEquals(new String[] { "3600" }, project.getTexts("param-value"));
+        assertArrayEquals(new String[] { "css", "png" }, project.getTexts("extension"));
+        assertEquals(1, project.getDependencies().size());
+        assertEquals("ehcache-web", project.getDependencies().get(0).getArtifactId());
+
+        final String source = project.getTextFile(CACHING_FILTER_PATH);
+        assertTrue(source.startsWith("package com.example.web;\n"));
+        assertTrue(source.contains("public class StaticCachingFilter implements Filter {"));
+        assertTrue(source.contains("httpResponse.setHeader(\"Cache-Control\", cacheControl);"));
+        assertFalse(project.getWebXml().contains("ShallowEtagHeaderFilter"));
+    }
+
+    @Test
+    public void staticCachingIsAppliedOnceAndKeepsAnExistingFilter() {
+        operations.addStaticCaching(null, 3600, false, CACHING_FILTER);
+        operations.addStaticCaching(null, 3600, false, CACHING_FILTER);
+        assertEquals(1, project.getWrites());
+
+        project.getTextFiles().put(CACHING_FILTER_PATH, "customized");
+        operations.addStaticCaching(Arrays.asList("css"), 60, false, CACHING_FILTER);
+
+        assertArrayEquals(new String[] { "60" }, project.getTexts("param-value"));
+        assertEquals(1, project.getTexts("filter-class").length);
+        assertEquals(8, project.getTexts("url-pattern").length);
+        assertEquals(8, project.getTexts("mime-mapping").length);
+        assertEquals("customized", project.getTextFile(CACHING_FILTER_PATH));
+        assertEquals(0, project.getDependencies().size());
+    }
+
+    @Test
+    public void staticCachingRequiresAPositiveMaxAge() {
+        for (int maxAge : new int[] { 0, -1 }) {
+            try {
+                operations.addStaticCaching(null, maxAge, true, CACHING_FILTER);
+                fail("A max age of " + maxAge + " sets no Cache-Control");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        try {
+            operations.addStaticCaching(Arrays.asList("exe"), 3600, true, CACHING_FILTER);
+            fail("An unknown extension should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(0, project.getWrites());
+        assertNull(project.getTextFile(CACHING_FILTER_PATH));
+    }
+
+    @Test
+    public void sessionChildrenFollowSchemaOrderWhateverTheCallOrder() {
+        operations.configureSession(null, Arrays.asList("COOKIE"), null, null, null, null);
+        operations.configureSession(null, null, null, null, true, null);
+        operations.configureSession(null, null, null, true, null, null);
+        operations.configureSession(null, null, "SESSION", null, null, null);
+        operations.configureSession(30, null, null, null, null, null);
+
+        assertArrayEquals(new String[] { "session-timeout", "cookie-config", "tracking-mode" },
+                childNames(firstElement("session-config")));
+        assertArrayEquals(new String[] { "name", "http-only", "secure" }, childNames(firstElement("cookie-config")));
+        assertArrayEquals(new String[] { "30" }, project.getTexts("session-timeout"));
+    }
+
+    @Test
+    public void trackingModesAndDistributableAreReplaced() {
+        operations.configureSession(null, Arrays.asList("COOKIE", "URL"), null, null, null, true);
+        operations.configureSession(null, Arrays.asList("SSL"), null, null, null, null);
+        assertArrayEquals(new String[] { "SSL" }, project.getTexts("tracking-mode"));
+        assertEquals(1, project.getDocument().getElementsByTagName("distributable").getLength());
+
+        operations.configureSession(null, null, null, null, null, false);
+        assertEquals(0, project.getDocument().getElementsByTagName("distributable").getLength());
+        final int writes = project.getWrites();
+        operations.configureSession(null, Arrays.asList("SSL"), null, null, null, false);
+        assertEquals(writes, project.getWrites());
+    }
+
+    @Test
+    public void sessionOptionsAreValidated() {
+        try {
+            operations.configureSession(null, Arrays.asList("SSL", "COOKIE"), null, null, null, null);
+            fail("SSL tracking cannot be combined");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            operations.configureSession(null, null, null, null, null, null);
+            fail("At least one option is required");
+        } catch (IllegalArgumentException expected) {
+        }
+        project.setWebXml(WebxmlTestProject.WEB_XML.replace("version=\"3.0\"", "version=\"2.5\""));
+        try {
+            operations.configureSession(null, null, null, true, null, null);
+            fail("cookie-config needs a 3.0 descriptor");
+        } catch (IllegalArgumentException expected) {
+        }
+        operations.configureSession(20, null, null, null, null, null);
+        assertArrayEquals(new String[] { "20" }, project.getTexts("session-timeout"));
+    }
+
+    @Test
+    public void resourceReferenceIsDeclaredOnceAndUpdated() {
+        operations.addResourceReference("jdbc/Db", "javax.sql.DataSource", "Container", null, "Main database");
+        operations.addResourceReference("jdbc/Db", "javax.sql.DataSource", "Application", "Unshareable", null);
+
+        assertEquals(1, project.getTexts("resource-ref").length);
+        assertArrayEquals(new String[] { "res-ref-name", "res-type", "res-auth", "res-sharing-scope" },
+                childNames(firstElement("resource-ref")));
+        assertArrayEquals(new String[] { "Application" }, project.getTexts("res-auth"));
+        assertArrayEquals(new String[] { "Unshareable" }, project.getTexts("res-sharing-scope"));
+        assertEquals(1, project.getWebXml().split("Main database", -1).length - 1);
+    }
+
+    @Test
+    public void resourceReferencesAreGroupedByKind() {
+        operations.addResourceEnvironmentReference("jms/Queue", "javax.jms.Queue", null);
+        operations.addResourceReference("jms/ConnectionFactory", "javax.jms.ConnectionFactory", null, null, null);
+        operations.addResourceEnvironmentReference("jms/Topic", "javax.jms.Topic", null);
+        operations.addResourceReference("jdbc/Db", "javax.sql.DataSource", null, null, null);
+
+        assertArrayEquals(new String[] { "display-name", "resource-ref", "resource-ref", "resource-env-ref", "resource-env-ref" },
+                childNames(project.getDocument().getDocumentElement()));
+        assertArrayEquals(new String[] { "resource-env-ref-name", "resource-env-ref-type" },
+                childNames(firstElement("resource-env-ref")));
+    }
+
+    @Test
+    public void resourceReferenceValuesAreValidated() {
+        try {
+            operations.addResourceReference("jdbc/Db", "javax.sql.DataSource", "container", null, null);
+            fail("An unknown res-auth should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            operations.addResourceReference("jdbc/Db", "javax.sql.DataSource", null, "Shared", null);
+            fail("An unknown res-sharing-scope should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            operations.addResourceEnvironmentReference("jms/Queue", " ", null);
+            fail("A resource-env-ref type is required");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(0, project.getWrites());
+    }
+
+    @Test
+    public void invalidDocumentIsNotWritten() {
+        project.setWebXml(WebxmlTestProject.WEB_XML.replace("</web-app>",
+                "    <servlet><servlet-class>com.example.App</servlet-class></servlet>\n</web-app>"));
+        operations.addContextParam("mode", "production", null);
+        try {
+            operations.flush();
+            fail("A servlet without name should be rejected");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("web-app_3_0.xsd"));
+        }
+        assertEquals(0, project.getWrites());
+        assertFalse(project.getWebXml().contains("mode"));
+    }
+
+    @Test
+    public void modulesHavingAWebXmlAreUpdatedAndReported() {
+        project.setModules("web", "core");
+        final Runnable addParam = new Runnable() {
+            public void run() {
+                operations.addContextParam("mode", "production", null);
+            }
+        };
+
+        assertEquals(Collections.singletonMap("web", "updated"), operations.forEachModule("all", addParam));
+        assertEquals(Collections.singletonMap("web", "unchanged"), operations.forEachModule("w*", addParam));
+        assertArrayEquals(new String[] { "mode" }, project.getTexts("param-name"));
+        try {
+            operations.forEachModule("core", addParam);
+            fail("A module without web.xml should not be targeted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void moduleProjectChangesAreMadeOnceItsWebXmlIsWritten() {
+        project.setModules("web", "core");
+        final Map<String, String> outcomes = operations.forEachModule("web", new Runnable() {
+            public void run() {
+                operations.addStaticCaching(null, 3600, true, CACHING_FILTER);
+                // Workers only record project changes, the command thread makes them.
+                assertTrue(project.getDependencies().isEmpty());
+                assertNull(project.getTextFile(CACHING_FILTER_PATH));
+            }
+        });
+
+        assertEquals(Collections.singletonMap("web", "updated"), outcomes);
+        assertEquals(1, project.getDependencies("web").size());
+        assertEquals("ehcache-web", project.getDependencies("web").get(0).getArtifactId());
+        assertTrue(project.getTextFile(CACHING_FILTER_PATH).contains("public class StaticCachingFilter implements Filter {"));
+    }
+
+    @Test
+    public void failedModuleIsLeftUntouched() {
+        project.setModules("web", "core");
+        operations.addContextParam("before", "kept", null);
+        final Map<String, String> outcomes = operations.forEachModule("all", new Runnable() {
+            public void run() {
+                operations.addStaticCaching(null, 3600, true, CACHING_FILTER);
+                throw new IllegalStateException("Boom");
+            }
+        });
+
+        assertEquals(Collections.singletonMap("web", "failed: Boom"), outcomes);
+        assertArrayEquals(new String[] { "before" }, project.getTexts("param-name"));
+        assertEquals(0, project.getTexts("filter").length);
+        assertTrue(project.getDependencies().isEmpty());
+        assertTrue(project.getTextFiles().isEmpty());
+    }
+
+    private String[] filterMappingNames() {
+        final Document document = project.getDocument();
+        final String[] names = new String[document.getElementsByTagName("filter-mapping").getLength()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = ((Element) document.getElementsByTagName("filter-mapping").item(i)).getElementsByTagName("filter-name")
+                    .item(0).getTextContent();
+        }
+        return names;
+    }
+
+    private Element firstElement(String elementName) {
+        return (Element) project.getDocument().getElementsByTagName(elementName).item(0);
+    }
+
+    private static String[] childNames(Element element) {
+        final List<String> names = new ArrayList<String>();
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element) {
+                names.add(((Element) child).getTagName());
+            }
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    private File manifest(String fileName, String content) throws IOException {
+        final File file = folder.newFile(fileName);
+        final OutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(content.getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+}
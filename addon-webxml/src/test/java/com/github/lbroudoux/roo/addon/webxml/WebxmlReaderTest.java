@@ -0,0 +1,83 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link WebxmlReader} and of the {@link WebxmlEntry} it reports.
+ *
+ * @since 0.1.1
+ */
+public class WebxmlReaderTest {
+
+    private static final String WEB_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<web-app xmlns=\"http://java.sun.com/xml/ns/javaee\" version=\"3.0\">\n"
+            + "  <!-- Parameters -->\n"
+            + "  <context-param>\n    <param-name> first </param-name>\n    <param-value>1</param-value>\n  </context-param>\n"
+            + "  <servlet>\n    <servlet-name>app</servlet-name>\n    <servlet-class>com.example.App</servlet-class>\n"
+            + "    <init-param><param-name>a</param-name><param-value><![CDATA[<1>]]></param-value></init-param>\n"
+            + "    <init-param><param-name>b</param-name><param-value>2</param-value></init-param>\n"
+            + "  </servlet>\n"
+            + "  <servlet-mapping><servlet-name>app</servlet-name><url-pattern>/app/*</url-pattern></servlet-mapping>\n"
+            + "  <context-param><param-name>second</param-name><param-value>2</param-value></context-param>\n"
+            + "</web-app>\n";
+
+    @Test
+    public void onlyRequestedDeclarationsAreReportedInDocumentOrder() throws Exception {
+        final List<WebxmlEntry> entries = read(new HashSet<String>(Arrays.asList("context-param")), Integer.MAX_VALUE);
+        assertEquals(2, entries.size());
+        assertEquals("first", entries.get(0).getName());
+        assertEquals("1", entries.get(0).getValue("param-value"));
+        assertEquals("second", entries.get(1).getName());
+    }
+
+    @Test
+    public void allDeclarationsAreReportedWithoutFilter() throws Exception {
+        final List<String> elementNames = new ArrayList<String>();
+        for (WebxmlEntry entry : read(null, Integer.MAX_VALUE)) {
+            elementNames.add(entry.getElementName());
+        }
+        assertEquals(Arrays.asList("context-param", "servlet", "servlet-mapping", "context-param"), elementNames);
+    }
+
+    @Test
+    public void nestedValuesAreKeyedByPath() throws Exception {
+        final WebxmlEntry servlet = read(Collections.singleton("servlet"), Integer.MAX_VALUE).get(0);
+        assertEquals("app", servlet.getName());
+        assertEquals("com.example.App", servlet.getValue("servlet-class"));
+        assertEquals(Arrays.asList("a", "b"), servlet.getValues("init-param/param-name"));
+        assertEquals(Arrays.asList("<1>", "2"), servlet.getValues("init-param/param-value"));
+        assertNull(servlet.getValue("load-on-startup"));
+    }
+
+    @Test
+    public void readingStopsWhenTheHandlerSaysSo() throws Exception {
+        assertEquals(1, read(null, 1).size());
+    }
+
+    @Test
+    public void declarationsWithoutNameHaveNoName() {
+        assertNull(new WebxmlEntry("welcome-file-list").getName());
+    }
+
+    private static List<WebxmlEntry> read(Set<String> elementNames, final int limit) throws Exception {
+        final List<WebxmlEntry> entries = new ArrayList<WebxmlEntry>();
+        WebxmlReader.read(new ByteArrayInputStream(WEB_XML.getBytes("UTF-8")), elementNames, new WebxmlReader.EntryHandler() {
+            public boolean handle(WebxmlEntry entry) {
+                entries.add(entry);
+                return entries.size() < limit;
+            }
+        });
+        return entries;
+    }
+}
@@ -0,0 +1,52 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.UnsupportedEncodingException;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link WebxmlSchemas} against the schemas bundled with the add-on.
+ *
+ * @since 0.1.1
+ */
+public class WebxmlSchemasTest {
+
+    @Test
+    public void everySupportedVersionIsValidatedAgainstItsBundledSchema() {
+        for (String version : WebxmlVersions.getSupportedVersions()) {
+            final String namespace = "3.1".equals(version) ? WebxmlVersions.JCP_NAMESPACE : WebxmlVersions.JAVAEE_NAMESPACE;
+            WebxmlSchemas.validate(webApp(namespace, version, "<display-name>test</display-name>"
+                    + "<servlet><servlet-name>app</servlet-name><servlet-class>com.example.App</servlet-class></servlet>"), version);
+            // A rejected document proves the schema has been compiled rather than skipped.
+            try {
+                WebxmlSchemas.validate(webApp(namespace, version, "<servlet><servlet-class>com.example.App</servlet-class></servlet>"),
+                        version);
+                fail("A servlet without name should be rejected by web-app " + version);
+            } catch (IllegalArgumentException expected) {
+                assertTrue(expected.getMessage(), expected.getMessage().contains(WebxmlVersions.getSchemaFileName(version)));
+                assertTrue(expected.getMessage(), expected.getMessage().contains("(line 2)"));
+            }
+        }
+    }
+
+    @Test
+    public void dtdBasedDescriptorsAreNotValidated() {
+        WebxmlSchemas.validate(utf8("<web-app><not-a-web-app-element/></web-app>"), "2.3");
+    }
+
+    private static byte[] webApp(String namespace, String version, String declarations) {
+        return utf8("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<web-app xmlns=\"" + namespace + "\" version=\"" + version
+                + "\">" + declarations + "</web-app>\n");
+    }
+
+    private static byte[] utf8(String content) {
+        try {
+            return content.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+            throw new IllegalStateException(uee);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Unit tests of {@link WebxmlSplicer}: spliced content must keep the original bytes untouched
+ * around the inserted nodes and parse back to the mutated document.
+ *
+ * @since 0.1.1
+ */
+public class WebxmlSplicerTest {
+
+    private static final String START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<web-app xmlns=\"http://java.sun.com/xml/ns/javaee\" version='3.0'>";
+    private static final String COMMENT = "\n  <!--  odd   spacing <kept>  -->";
+    private static final String DISPLAY_NAME = "\n  <display-name>test</display-name>";
+    private static final String CONTEXT_PARAM = "\n  <context-param><param-name>a</param-name><param-value>1</param-value></context-param>";
+    private static final String WELCOME_FILES = "\n\n  <welcome-file-list   />";
+    private static final String END = "\n</web-app>\n";
+    private static final String WEB_XML = START + COMMENT + DISPLAY_NAME + CONTEXT_PARAM + WELCOME_FILES + END;
+
+    private Document document;
+
+    @Before
+    public void setUp() throws Exception {
+        document = parse(WEB_XML);
+        WebxmlSplicer.attachSource(document, WEB_XML.getBytes("UTF-8"));
+    }
+
+    @Test
+    public void unchangedDocumentIsWrittenBackAsParsed() throws Exception {
+        final byte[] source = WEB_XML.getBytes("UTF-8");
+        WebxmlSplicer.attachSource(document, source);
+        assertSame(source, WebxmlSplicer.splice(document));
+    }
+
+    @Test
+    public void insertedElementFollowsItsPreviousSibling() throws Exception {
+        final Element contextParam = contextParam("b", "2");
+        insertAfter(contextParam, child("context-param"));
+
+        final String spliced = splice();
+        assertTrue(spliced.startsWith(START + COMMENT + DISPLAY_NAME + CONTEXT_PARAM + "\n  "));
+        assertTrue(spliced.endsWith(WELCOME_FILES + END));
+        assertEquals(Arrays.asList("display-name", "context-param", "context-param", "welcome-file-list"), childNames(parse(spliced)));
+        assertEquals("b", parse(spliced).getElementsByTagName("param-name").item(1).getTextContent());
+    }
+
+    @Test
+    public void insertedFirstChildFollowsTheParentStartTag() throws Exception {
+        final Element description = document.createElement("description");
+        description.setTextContent("Spliced");
+        document.getDocumentElement().insertBefore(description, document.getDocumentElement().getFirstChild());
+        WebxmlSplicer.markInserted(description);
+
+        final String spliced = splice();
+        assertEquals(START + "\n    <description>Spliced</description>" + COMMENT + DISPLAY_NAME + CONTEXT_PARAM + WELCOME_FILES + END,
+                spliced);
+    }
+
+    @Test
+    public void insertedElementMayFollowAComment() throws Exception {
+        final Element description = document.createElement("description");
+        description.setTextContent("After comment");
+        insertAfter(description, firstComment());
+
+        assertEquals(START + COMMENT + "\n    <description>After comment</description>" + DISPLAY_NAME + CONTEXT_PARAM
+                + WELCOME_FILES + END, splice());
+    }
+
+    @Test
+    public void insertionsAtSeveralPlacesKeepDocumentOrder() throws Exception {
+        final Element first = contextParam("b", "2");
+        final Element second = contextParam("c", "3");
+        final Element distributable = document.createElement("distributable");
+        insertAfter(second, child("context-param"));
+        insertAfter(first, child("context-param"));
+        insertAfter(distributable, child("display-name"));
+
+        final Document result = parse(splice());
+        assertEquals(Arrays.asList("display-name", "distributable", "context-param", "context-param", "context-param",
+                "welcome-file-list"), childNames(result));
+        assertEquals("b", result.getElementsByTagName("param-name").item(1).getTextContent());
+        assertEquals("c", result.getElementsByTagName("param-name").item(2).getTextContent());
+    }
+
+    @Test
+    public void childrenOfInsertedElementsAreWrittenOnce() throws Exception {
+        final Element contextParam = contextParam("b", "2");
+        insertAfter(contextParam, child("context-param"));
+        final Element description = document.createElement("description");
+        contextParam.insertBefore(description, contextParam.getFirstChild());
+        WebxmlSplicer.markInserted(description);
+
+        final String spliced = splice();
+        assertEquals(spliced.indexOf("<description/>"), spliced.lastIndexOf("<description/>"));
+        assertEquals(2, parse(spliced).getElementsByTagName("context-param").getLength());
+    }
+
+    @Test
+    public void splicedContentCanBeSplicedAgain() throws Exception {
+        insertAfter(contextParam("b", "2"), child("context-param"));
+        final byte[] spliced = WebxmlSplicer.splice(document);
+
+        WebxmlSplicer.attachSource(document, spliced);
+        assertSame(spliced, WebxmlSplicer.splice(document));
+
+        final Element lastParam = (Element) document.getElementsByTagName("context-param").item(1);
+        insertAfter(contextParam("c", "3"), lastParam);
+        final String respliced = splice();
+        assertTrue(respliced.startsWith(new String(spliced, "UTF-8").substring(0, new String(spliced, "UTF-8").indexOf(WELCOME_FILES))));
+        assertEquals(3, parse(respliced).getElementsByTagName("context-param").getLength());
+    }
+
+    @Test
+    public void otherChangesRequireAFullWrite() throws Exception {
+        insertAfter(contextParam("b", "2"), child("context-param"));
+        assertNotNull(WebxmlSplicer.splice(document));
+
+        child("display-name").setTextContent("renamed");
+        WebxmlSplicer.requireFullWrite(document);
+        assertNull(WebxmlSplicer.splice(document));
+    }
+
+    @Test
+    public void insertionIntoSelfClosingElementRequiresAFullWrite() throws Exception {
+        final Element welcomeFile = document.createElement("welcome-file");
+        welcomeFile.setTextContent("index.jsp");
+        child("welcome-file-list").appendChild(welcomeFile);
+        WebxmlSplicer.markInserted(welcomeFile);
+
+        assertNull(WebxmlSplicer.splice(document));
+    }
+
+    @Test
+    public void removedInsertedNodeRequiresAFullWrite() throws Exception {
+        final Element contextParam = contextParam("b", "2");
+        insertAfter(contextParam, child("context-param"));
+        contextParam.getParentNode().removeChild(contextParam);
+
+        assertNull(WebxmlSplicer.splice(document));
+    }
+
+    private String splice() throws Exception {
+        final byte[] spliced = WebxmlSplicer.splice(document);
+        assertNotNull(spliced);
+        return new String(spliced, "UTF-8");
+    }
+
+    private Element contextParam(String name, String value) {
+        final Element contextParam = document.createElement("context-param");
+        contextParam.appendChild(document.createElement("param-name")).setTextContent(name);
+        contextParam.appendChild(document.createElement("param-value")).setTextContent(value);
+        return contextParam;
+    }
+
+    private static void insertAfter(Node inserted, Node previous) {
+        previous.getParentNode().insertBefore(inserted, previous.getNextSibling());
+        WebxmlSplicer.markInserted(inserted);
+    }
+
+    private Element child(String name) {
+        for (Node child = document.getDocumentElement().getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element && name.equals(child.getNodeName())) {
+                return (Element) child;
+            }
+        }
+        throw new IllegalArgumentException("No " + name);
+    }
+
+    private Node firstComment() {
+        for (Node child = document.getDocumentElement().getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.COMMENT_NODE) {
+                return child;
+            }
+        }
+        throw new IllegalArgumentException("No comment");
+    }
+
+    private static List<String> childNames(Document document) {
+        final List<String> names = new ArrayList<String>();
+        for (Node child = document.getDocumentElement().getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element) {
+                names.add(child.getNodeName());
+            }
+        }
+        return names;
+    }
+
+    private static Document parse(String xml) throws Exception {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+    }
+}
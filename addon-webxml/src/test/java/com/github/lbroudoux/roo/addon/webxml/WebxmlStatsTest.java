@@ -0,0 +1,119 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Unit tests of {@link WebxmlStats}.
+ *
+ * @since 0.1.1
+ */
+public class WebxmlStatsTest {
+
+    @Test
+    public void percentilesAreComputedOverRecordedLatencies() {
+        final WebxmlStats stats = new WebxmlStats();
+        for (int millis = 1; millis <= 100; millis++) {
+            stats.record(WebxmlStats.INSERT, System.nanoTime() - millis * 1000000L);
+        }
+
+        assertEquals(100, stats.getCount(WebxmlStats.INSERT));
+        assertBetween(50, stats.getPercentileNanos(WebxmlStats.INSERT, 50) / 1000000, 51);
+        assertBetween(99, stats.getPercentileNanos(WebxmlStats.INSERT, 99) / 1000000, 100);
+        assertBetween(5050, stats.getTotalNanos(WebxmlStats.INSERT) / 1000000, 5060);
+        assertEquals(0, stats.getCount(WebxmlStats.WRITE));
+        assertEquals(0, stats.getPercentileNanos(WebxmlStats.WRITE, 99));
+    }
+
+    @Test
+    public void onlyRecentLatenciesAreKeptButEveryCallIsCounted() {
+        final WebxmlStats stats = new WebxmlStats();
+        for (int i = 0; i < 1024; i++) {
+            stats.record(WebxmlStats.APPEND, System.nanoTime() - 1000000000L);
+        }
+        for (int i = 0; i < 1024; i++) {
+            stats.record(WebxmlStats.APPEND, System.nanoTime());
+        }
+
+        assertEquals(2048, stats.getCount(WebxmlStats.APPEND));
+        assertTrue(stats.getPercentileNanos(WebxmlStats.APPEND, 100) < 1000000000L);
+        assertTrue(stats.getTotalNanos(WebxmlStats.APPEND) >= 1024 * 1000000000L);
+    }
+
+    @Test
+    public void snapshotIsLeftUntouchedAndResetStartsOver() {
+        final WebxmlStats stats = new WebxmlStats();
+        final Document document = parse("<web-app><display-name>test</display-name></web-app>");
+        stats.read(100, document);
+        stats.record(WebxmlStats.RETRIEVE, System.nanoTime());
+        final WebxmlStats snapshot = stats.snapshot();
+
+        stats.written(50, document);
+        stats.reset();
+
+        assertEquals(1, snapshot.getCount(WebxmlStats.RETRIEVE));
+        assertEquals(100, snapshot.getBytesRead());
+        assertEquals(0, snapshot.getBytesWritten());
+        // Document, web-app, display-name and its text.
+        assertEquals(4, snapshot.getLastNodeCount());
+        assertEquals(0, stats.getCount(WebxmlStats.RETRIEVE));
+        assertEquals(0, stats.getBytesRead());
+        assertEquals(0, stats.getMaxNodeCount());
+    }
+
+    @Test
+    public void figuresAreReportedForEveryPhase() {
+        final WebxmlStats stats = new WebxmlStats();
+        final List<String> phases = Arrays.asList(WebxmlStats.RETRIEVE, WebxmlStats.INSERT, WebxmlStats.APPEND, WebxmlStats.VALIDATE,
+                WebxmlStats.WRITE);
+        assertEquals(phases, Arrays.asList(stats.getPhases().toArray()));
+
+        final String json = stats.toJson();
+        final String table = stats.toString();
+        for (String phase : phases) {
+            assertTrue(json.contains("\"" + phase + "\": { \"count\": 0"));
+            assertTrue(table.contains(phase));
+        }
+        assertTrue(json.contains("\"maxNodeCount\": 0"));
+    }
+
+    @Test
+    public void commandPhasesAreRecorded() {
+        final WebxmlTestProject project = new WebxmlTestProject();
+        final WebxmlOperationsImpl operations = project.newOperations();
+        operations.resetStats();
+
+        operations.addContextParam("mode", "production", null);
+        operations.flush();
+
+        final WebxmlStats stats = operations.getStats();
+        assertEquals(1, stats.getCount(WebxmlStats.RETRIEVE));
+        assertEquals(1, stats.getCount(WebxmlStats.INSERT));
+        assertEquals(1, stats.getCount(WebxmlStats.VALIDATE));
+        assertEquals(1, stats.getCount(WebxmlStats.WRITE));
+        assertEquals(WebxmlTestProject.WEB_XML.length(), stats.getBytesRead());
+        assertEquals(project.getWebXml().length(), stats.getBytesWritten());
+    }
+
+    private static void assertBetween(long min, long actual, long max) {
+        assertTrue(actual + " should be at least " + min, actual >= min);
+        assertTrue(actual + " should be at most " + max, actual <= max);
+    }
+
+    private static Document parse(String xml) {
+        try {
+            return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
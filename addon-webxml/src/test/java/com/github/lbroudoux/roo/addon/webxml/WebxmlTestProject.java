@@ -0,0 +1,281 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.springframework.roo.file.monitor.event.FileDetails;
+import org.springframework.roo.process.manager.CommandCallback;
+import org.springframework.roo.process.manager.FileManager;
+import org.springframework.roo.process.manager.MutableFile;
+import org.springframework.roo.process.manager.ProcessManager;
+import org.springframework.roo.project.Dependency;
+import org.springframework.roo.project.LogicalPath;
+import org.springframework.roo.project.Path;
+import org.springframework.roo.project.PathResolver;
+import org.springframework.roo.project.ProjectOperations;
+import org.w3c.dom.Document;
+
+/**
+ * In-memory stand-in for the Roo services used by {@link WebxmlOperationsImpl}: a web.xml file
+ * held in a byte array behind {@link FileManager}, {@link PathResolver}, {@link ProjectOperations}
+ * and {@link ProcessManager} proxies, counting its reads and writes, along with the other text
+ * files and the dependencies the operations add. The project may be made of several modules, the
+ * web.xml being the one of a single module. Pending changes are flushed before web.xml is looked at,
+ * as they are at the end of a shell command.
+ *
+ * @since 0.1.1
+ */
+class WebxmlTestProject {
+
+    static final String WEB_XML_PATH = new File("virtual/src/main/webapp/WEB-INF/web.xml").getAbsolutePath();
+
+    static final String WEB_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<web-app xmlns=\"http://java.sun.com/xml/ns/javaee\" version=\"3.0\">\n"
+            + "    <display-name>test</display-name>\n"
+            + "</web-app>\n";
+
+    private byte[] webXml;
+    private long lastModified;
+    private int reads;
+    private int writes;
+    private final Map<String, String> textFiles = new HashMap<String, String>();
+    private final List<Dependency> dependencies = new ArrayList<Dependency>();
+    private final Map<String, List<Dependency>> moduleDependencies = new HashMap<String, List<Dependency>>();
+    private List<String> moduleNames = new ArrayList<String>();
+    private String webModuleName;
+    private WebxmlOperationsImpl operations;
+
+    WebxmlTestProject() {
+        this(WEB_XML);
+    }
+
+    WebxmlTestProject(String webXml) {
+        setWebXml(webXml);
+    }
+
+    /**
+     * Create operations wired to this in-memory project.
+     */
+    WebxmlOperationsImpl newOperations() {
+        operations = new WebxmlOperationsImpl();
+        inject(operations, "fileManager", proxy(FileManager.class, new FileManagerHandler()));
+        inject(operations, "pathResolver", proxy(PathResolver.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("getFocusedIdentifier".equals(method.getName())) {
+                    return "WEB-INF/web.xml".equals(args[1]) ? WEB_XML_PATH : pathOf((Path) args[0], (String) args[1]);
+                } else if ("getIdentifier".equals(method.getName())) {
+                    final LogicalPath logicalPath = (LogicalPath) args[0];
+                    final String moduleName = logicalPath.getModule();
+                    if (moduleName == null || moduleName.equals(webModuleName)) {
+                        return "WEB-INF/web.xml".equals(args[1]) ? WEB_XML_PATH : pathOf(logicalPath.getPath(), (String) args[1]);
+                    }
+                    return new File("virtual/" + moduleName + "/" + logicalPath.getPath().name().toLowerCase(), (String) args[1]).getAbsolutePath();
+                }
+                return defaultValue(method);
+            }
+        }));
+        inject(operations, "projectOperations", proxy(ProjectOperations.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("addDependency".equals(method.getName())) {
+                    dependencies.add((Dependency) args[1]);
+                    if (!moduleDependencies.containsKey(args[0])) {
+                        moduleDependencies.put((String) args[0], new ArrayList<Dependency>());
+                    }
+                    moduleDependencies.get(args[0]).add((Dependency) args[1]);
+                } else if ("getModuleNames".equals(method.getName())) {
+                    return moduleNames;
+                } else if ("getFocusedModuleName".equals(method.getName())) {
+                    return webModuleName;
+                }
+                return "isFocusedProjectAvailable".equals(method.getName()) ? Boolean.TRUE : defaultValue(method);
+            }
+        }));
+        inject(operations, "processManager", proxy(ProcessManager.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+                // Quiet period flushes run on the writer thread: leave them out so that tests
+                // decide when changes are written.
+                if ("execute".equals(method.getName()) && !"webxml-writer".equals(Thread.currentThread().getName())) {
+                    return ((CommandCallback<?>) args[0]).callback();
+                }
+                return defaultValue(method);
+            }
+        }));
+        return operations;
+    }
+
+    /**
+     * Make the project a multi-module one, web.xml belonging to the given module which is the focused one
+     */
+    void setModules(String webModuleName, String... otherModuleNames) {
+        this.webModuleName = webModuleName;
+        moduleNames = new ArrayList<String>(Arrays.asList(otherModuleNames));
+        moduleNames.add(webModuleName);
+    }
+
+    /**
+     * Write the pending changes of the operations as Roo does once a command is over
+     */
+    private void endCommand() {
+        if (operations != null) {
+            operations.flush();
+        }
+    }
+
+    /**
+     * Replace web.xml content as an external editor would do
+     */
+    void setWebXml(String webXml) {
+        try {
+            this.webXml = webXml.getBytes("UTF-8");
+            lastModified++;
+        } catch (UnsupportedEncodingException uee) {
+            throw new IllegalStateException(uee);
+        }
+    }
+
+    String getWebXml() {
+        endCommand();
+        try {
+            return new String(webXml, "UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+            throw new IllegalStateException(uee);
+        }
+    }
+
+    Document getDocument() {
+        endCommand();
+        try {
+            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            return factory.newDocumentBuilder().parse(new ByteArrayInputStream(webXml));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the text of every element with the given name, in document order
+     */
+    String[] getTexts(String elementName) {
+        final Document document = getDocument();
+        final String[] texts = new String[document.getElementsByTagName(elementName).getLength()];
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = document.getElementsByTagName(elementName).item(i).getTextContent().trim();
+        }
+        return texts;
+    }
+
+    /**
+     * @return the absolute path the project resolves a path relative to the given source folder to
+     */
+    static String pathOf(Path path, String relativePath) {
+        return new File("virtual/" + path.name().toLowerCase(), relativePath).getAbsolutePath();
+    }
+
+    /**
+     * @return the content of a text file created or updated by the operations, null if none
+     */
+    String getTextFile(String path) {
+        return textFiles.get(path);
+    }
+
+    /**
+     * @return the text files other than web.xml by path, the project files as far as operations know
+     */
+    Map<String, String> getTextFiles() {
+        return textFiles;
+    }
+
+    List<Dependency> getDependencies() {
+        return dependencies;
+    }
+
+    /**
+     * @return the dependencies added to the given module, none if the module got no dependency
+     */
+    List<Dependency> getDependencies(String moduleName) {
+        final List<Dependency> added = moduleDependencies.get(moduleName);
+        return added == null ? new ArrayList<Dependency>() : added;
+    }
+
+    int getReads() {
+        return reads;
+    }
+
+    int getWrites() {
+        endCommand();
+        return writes;
+    }
+
+    private class FileManagerHandler implements InvocationHandler {
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            final String name = method.getName();
+            if ("exists".equals(name)) {
+                return WEB_XML_PATH.equals(args[0]) || textFiles.containsKey(args[0]);
+            } else if ("getInputStream".equals(name)) {
+                reads++;
+                return new ByteArrayInputStream(webXml);
+            } else if ("readFile".equals(name)) {
+                return new FileDetails(new File((String) args[0]), lastModified);
+            } else if ("createOrUpdateTextFileIfRequired".equals(name)) {
+                textFiles.put((String) args[0], (String) args[1]);
+            } else if ("updateFile".equals(name)) {
+                return proxy(MutableFile.class, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("getOutputStream".equals(method.getName())) {
+                            return new ByteArrayOutputStream() {
+                                public void close() {
+                                    webXml = toByteArray();
+                                    lastModified++;
+                                    writes++;
+                                }
+                            };
+                        }
+                        return defaultValue(method);
+                    }
+                });
+            }
+            return defaultValue(method);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(WebxmlTestProject.class.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+
+    static Object defaultValue(Method method) {
+        final Class<?> returnType = method.getReturnType();
+        if (returnType == boolean.class) {
+            return Boolean.FALSE;
+        } else if (returnType == int.class) {
+            return 0;
+        } else if (returnType == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    static void inject(Object target, String fieldName, Object value) {
+        try {
+            final Field field = target.getClass().getDeclaredField(fieldName);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to inject " + fieldName, e);
+        }
+    }
+}
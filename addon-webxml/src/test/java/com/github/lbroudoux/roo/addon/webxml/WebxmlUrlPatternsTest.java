@@ -0,0 +1,76 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link WebxmlUrlPatterns}.
+ *
+ * @since 0.1.1
+ */
+public class WebxmlUrlPatternsTest {
+
+    @Test
+    public void exactPatternMatchesItsPathOnly() {
+        assertTrue(WebxmlUrlPatterns.matches("/login", "/login"));
+        assertFalse(WebxmlUrlPatterns.matches("/login", "/login/form"));
+        assertFalse(WebxmlUrlPatterns.matches("/login", "/"));
+    }
+
+    @Test
+    public void pathPrefixMatchesItselfAndSubPaths() {
+        assertTrue(WebxmlUrlPatterns.matches("/app/*", "/app"));
+        assertTrue(WebxmlUrlPatterns.matches("/app/*", "/app/users/1"));
+        assertFalse(WebxmlUrlPatterns.matches("/app/*", "/application"));
+    }
+
+    @Test
+    public void extensionMatchesLastSegmentOnly() {
+        assertTrue(WebxmlUrlPatterns.matches("*.do", "/app/save.do"));
+        assertFalse(WebxmlUrlPatterns.matches("*.do", "/app.do/save"));
+    }
+
+    @Test
+    public void defaultAndAllPatternsMatchEveryPath() {
+        for (String pattern : new String[] { "/", "/*" }) {
+            assertTrue(WebxmlUrlPatterns.matchesAllPaths(pattern));
+            assertTrue(WebxmlUrlPatterns.matches(pattern, "/"));
+            assertTrue(WebxmlUrlPatterns.matches(pattern, "/images/logo.png"));
+        }
+        assertFalse(WebxmlUrlPatterns.matchesAllPaths("/app/*"));
+    }
+
+    @Test
+    public void filterOnDefaultPatternOverlapsEveryServlet() {
+        assertTrue(WebxmlUrlPatterns.overlaps("/", "/app/*"));
+        assertTrue(WebxmlUrlPatterns.overlaps("/", "*.do"));
+        assertTrue(WebxmlUrlPatterns.overlaps("/", "/login"));
+        assertTrue(WebxmlUrlPatterns.overlaps("/*", "/login"));
+    }
+
+    @Test
+    public void servletOnDefaultPatternOverlapsEveryFilter() {
+        assertTrue(WebxmlUrlPatterns.overlaps("/login", "/"));
+        assertTrue(WebxmlUrlPatterns.overlaps("*.css", "/"));
+    }
+
+    @Test
+    public void prefixesAndExtensionsOverlap() {
+        assertTrue(WebxmlUrlPatterns.overlaps("*.do", "/app/*"));
+        assertTrue(WebxmlUrlPatterns.overlaps("/app/*", "*.do"));
+        assertTrue(WebxmlUrlPatterns.overlaps("/app/admin/*", "/app/*"));
+        assertTrue(WebxmlUrlPatterns.overlaps("/app/*", "/app/admin/*"));
+        assertFalse(WebxmlUrlPatterns.overlaps("/other/*", "/app/*"));
+    }
+
+    @Test
+    public void exactPatternsOverlapWhenMatched() {
+        assertTrue(WebxmlUrlPatterns.overlaps("/app/save.do", "*.do"));
+        assertFalse(WebxmlUrlPatterns.overlaps("/app/save.jsp", "*.do"));
+        assertFalse(WebxmlUrlPatterns.overlaps("*.jsp", "*.do"));
+        assertTrue(WebxmlUrlPatterns.overlaps("/login", "/login"));
+        assertFalse(WebxmlUrlPatterns.overlaps("/logout", "/login"));
+    }
+}
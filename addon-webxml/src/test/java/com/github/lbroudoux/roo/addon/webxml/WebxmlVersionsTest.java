@@ -0,0 +1,120 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+
+/**
+ * Unit tests of {@link WebxmlVersions}.
+ *
+ * @since 0.1.1
+ */
+public class WebxmlVersionsTest {
+
+    private static final String WEB_APP_2_5 = "<web-app xmlns=\"http://java.sun.com/xml/ns/javaee\" "
+            + "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" "
+            + "xsi:schemaLocation=\"http://java.sun.com/xml/ns/javaee http://java.sun.com/xml/ns/javaee/web-app_2_5.xsd\" "
+            + "version=\"2.5\"><display-name>test</display-name></web-app>";
+
+    @Test
+    public void versionsAreComparedAsNumbers() {
+        assertTrue(WebxmlVersions.compare("2.5", "3.0") < 0);
+        assertTrue(WebxmlVersions.compare("3.1", "3.0") > 0);
+        assertEquals(0, WebxmlVersions.compare("3.0", "3.00"));
+        assertEquals(0, WebxmlVersions.compare("3", "3.0"));
+    }
+
+    @Test
+    public void malformedVersionIsRejected() {
+        try {
+            WebxmlVersions.compare("3.0-RC1", "3.0");
+            fail("A malformed version should be rejected");
+        } catch (IllegalArgumentException expected) {
+            assertEquals("Invalid web-app version '3.0-RC1', expecting a number such as 3.0", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void descriptorWithoutVersionIsDtdBased() throws Exception {
+        assertEquals("2.3", WebxmlVersions.of(parse("<web-app><display-name>old</display-name></web-app>")));
+        assertEquals("3.0", WebxmlVersions.of(parse("<web-app version=\" 3.0 \"/>")));
+        assertTrue(WebxmlVersions.isAtLeast(parse(WEB_APP_2_5), "2.5"));
+        assertFalse(WebxmlVersions.isAtLeast(parse(WEB_APP_2_5), "3.0"));
+    }
+
+    @Test
+    public void upgradeKeepsTheJavaeeNamespaceUpTo30() throws Exception {
+        final Document document = parse(WEB_APP_2_5);
+        WebxmlVersions.upgrade(document, "3.0");
+
+        final Element webApp = document.getDocumentElement();
+        assertEquals("3.0", webApp.getAttribute("version"));
+        assertEquals("http://java.sun.com/xml/ns/javaee http://java.sun.com/xml/ns/javaee/web-app_3_0.xsd",
+                webApp.getAttribute("xsi:schemaLocation"));
+        assertEquals(WebxmlVersions.JAVAEE_NAMESPACE, webApp.getNamespaceURI());
+    }
+
+    @Test
+    public void upgradeTo31MovesEveryElementToTheJcpNamespace() throws Exception {
+        final Document document = parse(WEB_APP_2_5);
+        WebxmlVersions.upgrade(document, "3.1");
+
+        final Element webApp = document.getDocumentElement();
+        assertEquals(WebxmlVersions.JCP_NAMESPACE, webApp.getAttribute("xmlns"));
+        assertEquals(WebxmlVersions.JCP_NAMESPACE, webApp.getNamespaceURI());
+        assertEquals(WebxmlVersions.JCP_NAMESPACE, document.getElementsByTagName("display-name").item(0).getNamespaceURI());
+    }
+
+    @Test
+    public void schemaLocationIsAddedWhenMissing() throws Exception {
+        final Document document = parse("<web-app xmlns=\"http://java.sun.com/xml/ns/javaee\" version=\"2.5\"/>");
+        WebxmlVersions.upgrade(document, "3.0");
+
+        assertEquals("http://java.sun.com/xml/ns/javaee http://java.sun.com/xml/ns/javaee/web-app_3_0.xsd",
+                document.getDocumentElement().getAttributeNS("http://www.w3.org/2001/XMLSchema-instance", "schemaLocation"));
+    }
+
+    @Test
+    public void dtdBasedDescriptorIsNotUpgraded() throws Exception {
+        final String doctype = "<!DOCTYPE web-app PUBLIC \"-//Sun Microsystems, Inc.//DTD Web Application 2.3//EN\" "
+                + "\"http://java.sun.com/dtd/web-app_2_3.dtd\">";
+        for (String webXml : new String[] { doctype + "<web-app/>", "<web-app/>" }) {
+            try {
+                WebxmlVersions.upgrade(parse(webXml), "3.0");
+                fail("A DTD based descriptor should be rejected");
+            } catch (IllegalArgumentException expected) {
+                assertTrue(expected.getMessage(), expected.getMessage().startsWith(
+                        "web.xml is a DTD based 2.3 descriptor and cannot be upgraded to 3.0"));
+            }
+        }
+    }
+
+    @Test
+    public void unsupportedVersionIsRejected() throws Exception {
+        assertFalse(WebxmlVersions.isSupported("4.0"));
+        try {
+            WebxmlVersions.upgrade(parse(WEB_APP_2_5), "4.0");
+            fail("An unsupported version should be rejected");
+        } catch (IllegalArgumentException expected) {
+            assertEquals("Unsupported web-app version '4.0', expecting one of 2.5, 3.0, 3.1", expected.getMessage());
+        }
+    }
+
+    private static Document parse(String xml) throws Exception {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        // Never fetch the DTD of the test descriptors.
+        factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        return factory.newDocumentBuilder().parse(new InputSource(new ByteArrayInputStream(xml.getBytes("UTF-8"))));
+    }
+}
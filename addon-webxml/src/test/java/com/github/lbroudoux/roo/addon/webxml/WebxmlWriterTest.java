@@ -0,0 +1,299 @@
+package com.github.lbroudoux.roo.addon.webxml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Unit tests of {@link WebxmlWriter}.
+ *
+ * @since 0.1.1
+ */
+public class WebxmlWriterTest {
+
+    private static final String WEB_XML = "<web-app version=\"3.0\"><display-name>test</display-name></web-app>";
+
+    private InMemoryStorage storage;
+    private WebxmlWriter writer;
+
+    @Before
+    public void setUp() {
+        storage = new InMemoryStorage();
+        writer = new WebxmlWriter(storage, 0, null);
+    }
+
+    @Test
+    public void concurrentMutationsAreWrittenAtOnce() throws Exception {
+        final int threads = 8;
+        final int mutations = 50;
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<Future<Void>> results = new ArrayList<Future<Void>>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                results.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        start.await();
+                        for (int i = 0; i < mutations; i++) {
+                            writer.apply(addParam(thread + "-" + i));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Void> result : results) {
+                result.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        writer.flush();
+        assertEquals(1, storage.loads);
+        assertEquals(1, storage.stores);
+        final List<String> params = storage.params();
+        assertEquals(threads * mutations, params.size());
+        // Interleaving is free but every thread sees its own mutations applied in order.
+        for (int t = 0; t < threads; t++) {
+            int previous = -1;
+            for (String param : params) {
+                if (param.startsWith(t + "-")) {
+                    final int index = Integer.parseInt(param.substring(param.indexOf('-') + 1));
+                    assertEquals(previous + 1, index);
+                    previous = index;
+                }
+            }
+            assertEquals(mutations - 1, previous);
+        }
+    }
+
+    @Test
+    public void failingMutationIsUndoneAndOtherChangesKept() {
+        writer.apply(addParam("before"));
+        try {
+            writer.apply(new WebxmlMutation() {
+                public void apply(Document document) {
+                    addParam("half-done").apply(document);
+                    throw new IllegalStateException("Boom");
+                }
+            });
+            fail("The mutation failure should be propagated");
+        } catch (IllegalStateException expected) {
+            assertEquals("Boom", expected.getMessage());
+        }
+        writer.apply(addParam("after"));
+
+        writer.flush();
+        assertEquals(Arrays.asList("before", "after"), storage.params());
+        assertEquals(2, storage.loads);
+        assertEquals(1, storage.discards);
+    }
+
+    @Test
+    public void holdThenDiscardDropsHeldChangesOnly() {
+        writer.apply(addParam("before"));
+        writer.hold();
+        assertTrue(writer.isHeld());
+        assertEquals(Arrays.asList("before"), storage.params());
+
+        writer.apply(addParam("held"));
+        writer.flush();
+        assertTrue(writer.hasPendingChanges());
+
+        writer.discard();
+        assertFalse(writer.isHeld());
+        assertFalse(writer.hasPendingChanges());
+        writer.flush();
+        assertEquals(1, storage.stores);
+        assertEquals(Arrays.asList("before"), storage.params());
+    }
+
+    @Test
+    public void holdThenReleaseWritesHeldChanges() {
+        writer.hold();
+        writer.apply(addParam("first"));
+        writer.apply(addParam("second"));
+        assertEquals(0, storage.stores);
+
+        writer.release();
+        assertFalse(writer.isHeld());
+        assertEquals(1, storage.stores);
+        assertEquals(Arrays.asList("first", "second"), storage.params());
+    }
+
+    @Test
+    public void failingMutationWhileHeldDiscardsTheBatch() {
+        writer.hold();
+        writer.apply(addParam("held"));
+        try {
+            writer.apply(new WebxmlMutation() {
+                public void apply(Document document) {
+                    throw new IllegalArgumentException("Invalid");
+                }
+            });
+            fail("The mutation failure should be propagated");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        assertFalse(writer.isHeld());
+        assertFalse(writer.hasPendingChanges());
+        assertEquals(0, storage.stores);
+    }
+
+    @Test
+    public void rejectedDocumentIsNotKeptPending() {
+        writer.apply(addParam("invalid"));
+        storage.rejecting = true;
+        try {
+            writer.flush();
+            fail("The rejection should be propagated");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertFalse(writer.hasPendingChanges());
+        assertEquals(1, storage.discards);
+
+        storage.rejecting = false;
+        writer.apply(addParam("valid"));
+        assertTrue(writer.flush());
+        assertEquals(Arrays.asList("valid"), storage.params());
+    }
+
+    @Test
+    public void failedWriteIsRetriedOnNextFlush() {
+        writer.apply(addParam("retried"));
+        storage.failing = true;
+        try {
+            writer.flush();
+            fail("The write failure should be propagated");
+        } catch (IllegalStateException expected) {
+        }
+        assertTrue(writer.hasPendingChanges());
+
+        storage.failing = false;
+        assertTrue(writer.flush());
+        assertEquals(Arrays.asList("retried"), storage.params());
+    }
+
+    @Test
+    public void unchangedDocumentIsNotWritten() {
+        writer.apply(new WebxmlMutation() {
+            public void apply(Document document) {
+            }
+        });
+        assertFalse(writer.flush());
+        assertEquals(0, storage.stores);
+        assertFalse(writer.hasPendingChanges());
+    }
+
+    @Test
+    public void changesAreFlushedOnceQuiet() throws Exception {
+        final CountDownLatch flushed = new CountDownLatch(1);
+        final WebxmlWriter[] quietWriter = new WebxmlWriter[1];
+        quietWriter[0] = new WebxmlWriter(storage, 10, new Runnable() {
+            public void run() {
+                quietWriter[0].flush();
+                flushed.countDown();
+            }
+        });
+        quietWriter[0].apply(addParam("quiet"));
+
+        assertTrue(flushed.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("quiet"), storage.params());
+        assertFalse(quietWriter[0].hasPendingChanges());
+    }
+
+    private static WebxmlMutation addParam(final String name) {
+        return new WebxmlMutation() {
+            public void apply(Document document) {
+                final Element param = document.createElement("context-param");
+                param.appendChild(document.createElement("param-name")).setTextContent(name);
+                document.getDocumentElement().appendChild(param);
+            }
+        };
+    }
+
+    /** Storage keeping web.xml as a string, counting its calls. */
+    private static class InMemoryStorage implements WebxmlWriter.Storage {
+
+        private String content = WEB_XML;
+        private int loads;
+        private int stores;
+        private int discards;
+        private boolean rejecting;
+        private boolean failing;
+
+        public Document load() {
+            loads++;
+            return parse(content);
+        }
+
+        public boolean store(Document document, long hashBefore) {
+            if (rejecting) {
+                throw new IllegalArgumentException("web.xml would not be valid");
+            }
+            if (failing) {
+                throw new IllegalStateException("Disk full");
+            }
+            if (WebxmlFingerprint.hash(document) == hashBefore) {
+                return false;
+            }
+            try {
+                final StringWriter output = new StringWriter();
+                TransformerFactory.newInstance().newTransformer().transform(new DOMSource(document), new StreamResult(output));
+                content = output.toString();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            stores++;
+            return true;
+        }
+
+        public void discard() {
+            discards++;
+        }
+
+        List<String> params() {
+            final NodeList names = parse(content).getElementsByTagName("param-name");
+            final List<String> params = new ArrayList<String>();
+            for (int i = 0; i < names.getLength(); i++) {
+                params.add(names.item(i).getTextContent());
+            }
+            return Collections.unmodifiableList(params);
+        }
+
+        private static Document parse(String xml) {
+            try {
+                return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}